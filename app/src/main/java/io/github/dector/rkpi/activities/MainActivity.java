@@ -27,6 +27,7 @@ import android.content.*;
 import android.content.pm.ActivityInfo;
 import android.content.res.Configuration;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
 import android.text.TextUtils;
 import android.view.View;
@@ -57,6 +58,9 @@ public class MainActivity extends RkpiActivity implements RequestObserver, ISimp
 
 	private static final String KEY_STATE_PAGE_OPENED = "KEY_STATE_PAGE_OPENED";
 
+    /** Time-shift delay label update period in ms */
+    private static final int TIME_SHIFT_UPDATE_MS = 1000;
+
     private enum RequestCode { STREAM_QUALITY }
 
 	/** Root layout container */
@@ -69,6 +73,17 @@ public class MainActivity extends RkpiActivity implements RequestObserver, ISimp
 
     private boolean mServiceBound;
 
+	private final Handler mHandler = new Handler();
+
+	/** Shows current time-shift delay while activity is visible */
+	private final Runnable mTimeShiftUpdater = new Runnable() {
+		@Override
+		public void run() {
+			mPagerAdapter.setTimeShiftDelay((mService != null) ? mService.getTimeShiftDelayMs() : -1);
+			mHandler.postDelayed(this, TIME_SHIFT_UPDATE_MS);
+		}
+	};
+
 	/**
 	 * Create activity and init application components and resources
 	 *
@@ -126,6 +141,30 @@ public class MainActivity extends RkpiActivity implements RequestObserver, ISimp
 				mService.onRequestPerformed(Request.PLAYER_TOGGLE);
 			}
 		});
+		mPagerAdapter.getPlayButton().setOnLongClickListener(new View.OnLongClickListener() {
+			@Override
+			public boolean onLongClick(View v) {
+				mService.onRequestPerformed(Request.TOGGLE_RECORDING);
+
+				return true;
+			}
+		});
+		mPagerAdapter.getTimeShiftView().setOnClickListener(new View.OnClickListener() {
+			@Override
+			public void onClick(View v) {
+				mService.onRequestPerformed(Request.TIME_SHIFT_BACK);
+				restartTimeShiftUpdater();
+			}
+		});
+		mPagerAdapter.getTimeShiftView().setOnLongClickListener(new View.OnLongClickListener() {
+			@Override
+			public boolean onLongClick(View v) {
+				mService.onRequestPerformed(Request.TIME_SHIFT_LIVE);
+				restartTimeShiftUpdater();
+
+				return true;
+			}
+		});
 		mPagerAdapter.getInfoButton().setOnClickListener(new View.OnClickListener() {
 			@Override
 			public void onClick(View v) {
@@ -142,6 +181,14 @@ public class MainActivity extends RkpiActivity implements RequestObserver, ISimp
 		});
 	}
 
+	/**
+	 * Update time-shift delay label now and then periodically
+	 */
+	private void restartTimeShiftUpdater() {
+		mHandler.removeCallbacks(mTimeShiftUpdater);
+		mHandler.post(mTimeShiftUpdater);
+	}
+
 	private void initService() {
 		sConnection = new ServiceConnection() {
 			@Override
@@ -239,6 +286,18 @@ public class MainActivity extends RkpiActivity implements RequestObserver, ISimp
         Event.INIT_APP.builder().log();
     }
 
+	@Override
+	protected void onResume() {
+		super.onResume();
+		restartTimeShiftUpdater();
+	}
+
+	@Override
+	protected void onPause() {
+		mHandler.removeCallbacks(mTimeShiftUpdater);
+		super.onPause();
+	}
+
     @Override
 	protected void onSaveInstanceState(Bundle outState) {
 		super.onSaveInstanceState(outState);
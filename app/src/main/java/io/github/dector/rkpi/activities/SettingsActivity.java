@@ -46,7 +46,7 @@ public class SettingsActivity extends PreferenceActivity implements Preference.O
 	 * Key values for preference view identification
 	 */
 	private enum PreferenceKey {
-		STREAM, NOTIFICATIONS, IGNORE_AUDIO_FOCUS
+		STREAM, ADAPTIVE_STREAM, WARM_STANDBY, FAST_START, LIVE_CATCH_UP, TIME_SHIFT, NOTIFICATIONS, IGNORE_AUDIO_FOCUS
 	}
 
 	/**
@@ -87,6 +87,51 @@ public class SettingsActivity extends PreferenceActivity implements Preference.O
 		updateStreamPreferenceSummary(streamPreference, streamQuality);
 		screen.addPreference(streamPreference);
 
+		// Adaptive stream
+		CheckBoxPreference adaptivePreference = new CheckBoxPreference(this);
+		adaptivePreference.setTitle(R.string.preferences_adaptive_stream_title);
+		adaptivePreference.setSummary(R.string.preferences_adaptive_stream_summary);
+		adaptivePreference.setKey(PreferenceKey.ADAPTIVE_STREAM.name());
+		adaptivePreference.setChecked(PrefManager.isAdaptiveStream());
+		adaptivePreference.setOnPreferenceChangeListener(this);
+		screen.addPreference(adaptivePreference);
+
+		// Warm standby
+		CheckBoxPreference standbyPreference = new CheckBoxPreference(this);
+		standbyPreference.setTitle(R.string.preferences_warm_standby_title);
+		standbyPreference.setSummary(R.string.preferences_warm_standby_summary);
+		standbyPreference.setKey(PreferenceKey.WARM_STANDBY.name());
+		standbyPreference.setChecked(PrefManager.isWarmStandby());
+		standbyPreference.setOnPreferenceChangeListener(this);
+		screen.addPreference(standbyPreference);
+
+		// Fast start
+		CheckBoxPreference fastStartPreference = new CheckBoxPreference(this);
+		fastStartPreference.setTitle(R.string.preferences_fast_start_title);
+		fastStartPreference.setSummary(R.string.preferences_fast_start_summary);
+		fastStartPreference.setKey(PreferenceKey.FAST_START.name());
+		fastStartPreference.setChecked(PrefManager.isFastStart());
+		fastStartPreference.setOnPreferenceChangeListener(this);
+		screen.addPreference(fastStartPreference);
+
+		// Live catch-up
+		CheckBoxPreference catchUpPreference = new CheckBoxPreference(this);
+		catchUpPreference.setTitle(R.string.preferences_live_catch_up_title);
+		catchUpPreference.setSummary(R.string.preferences_live_catch_up_summary);
+		catchUpPreference.setKey(PreferenceKey.LIVE_CATCH_UP.name());
+		catchUpPreference.setChecked(PrefManager.isLiveCatchUp());
+		catchUpPreference.setOnPreferenceChangeListener(this);
+		screen.addPreference(catchUpPreference);
+
+		// Time shift
+		CheckBoxPreference timeShiftPreference = new CheckBoxPreference(this);
+		timeShiftPreference.setTitle(R.string.preferences_time_shift_title);
+		timeShiftPreference.setSummary(R.string.preferences_time_shift_summary);
+		timeShiftPreference.setKey(PreferenceKey.TIME_SHIFT.name());
+		timeShiftPreference.setChecked(PrefManager.isTimeShift());
+		timeShiftPreference.setOnPreferenceChangeListener(this);
+		screen.addPreference(timeShiftPreference);
+
 		// Ignore audio focus
 		/*CheckBoxPreference ignoreAudioFocusPreference = new CheckBoxPreference(this);
 		ignoreAudioFocusPreference.setTitle(R.string.preferences_ignore_audio_focus);
@@ -141,6 +186,32 @@ public class SettingsActivity extends PreferenceActivity implements Preference.O
 
 				updateStreamPreferenceSummary(preference, streamQuality);
 				break;
+			case ADAPTIVE_STREAM:
+				boolean adaptive = Boolean.parseBoolean(newValue.toString());
+				PrefManager.setAdaptiveStream(adaptive);
+
+				i = new Intent(Request.TOGGLE_ADAPTIVE_STREAM.encode());
+				break;
+			case WARM_STANDBY:
+				boolean warmStandby = Boolean.parseBoolean(newValue.toString());
+				PrefManager.setWarmStandby(warmStandby);
+
+				i = new Intent(Request.TOGGLE_WARM_STANDBY.encode());
+				break;
+			case FAST_START:
+				boolean fastStart = Boolean.parseBoolean(newValue.toString());
+				PrefManager.setFastStart(fastStart);
+				break;
+			case LIVE_CATCH_UP:
+				boolean catchUp = Boolean.parseBoolean(newValue.toString());
+				PrefManager.setLiveCatchUp(catchUp);
+				break;
+			case TIME_SHIFT:
+				boolean timeShift = Boolean.parseBoolean(newValue.toString());
+				PrefManager.setTimeShift(timeShift);
+
+				i = new Intent(Request.TOGGLE_TIME_SHIFT.encode());
+				break;
 			case NOTIFICATIONS:
 				boolean notificationsEnabled = Boolean.parseBoolean(newValue.toString());
 
@@ -26,7 +26,12 @@ package io.github.dector.rkpi.common;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import io.github.dector.rkpi.components.player.IcyChannelReader;
+import io.github.dector.rkpi.components.player.JitterBuffer;
 import io.github.dector.rkpi.components.player.PlayerManager;
+import io.github.dector.rkpi.components.player.ReconnectPolicy;
+import io.github.dector.rkpi.components.player.StallWatchdog;
+import io.github.dector.rkpi.components.player.TimeShiftBuffer;
 
 /**
  * Custom application preference manager.
@@ -46,6 +51,19 @@ public class PrefManager {
 	private static final String KEY_STREAM_ID 		= "pref_stream_id";
 	private static final String KEY_FOREGROUND      = "pref_foreground";
 	private static final String KEY_IGNORE_AUDIO_FOCUS = "pref_ignore_audio_focus";
+	private static final String KEY_PREBUFFER_MS    = "pref_prebuffer_ms";
+	private static final String KEY_LOW_WATER_MS    = "pref_low_water_ms";
+	private static final String KEY_RECONNECT_WINDOW_MS = "pref_reconnect_window_ms";
+	private static final String KEY_CONNECT_TIMEOUT_MS = "pref_connect_timeout_ms";
+	private static final String KEY_READ_TIMEOUT_MS = "pref_read_timeout_ms";
+	private static final String KEY_STALL_TIMEOUT_MS = "pref_stall_timeout_ms";
+	private static final String KEY_ADAPTIVE_STREAM = "pref_adaptive_stream";
+	private static final String KEY_WARM_STANDBY    = "pref_warm_standby";
+	private static final String KEY_FAST_START      = "pref_fast_start";
+	private static final String KEY_TIME_SHIFT      = "pref_time_shift";
+	private static final String KEY_LIVE_CATCH_UP   = "pref_live_catch_up";
+	private static final String KEY_TIME_SHIFT_WINDOW_MS = "pref_time_shift_window_ms";
+	private static final String KEY_STAGED_PIPELINE = "pref_staged_pipeline";
 
 	/**
 	 * Init PrefManager.
@@ -97,6 +115,70 @@ public class PrefManager {
 		return getWrapper().getBooleanValue(KEY_IGNORE_AUDIO_FOCUS);
 	}
 
+	/**
+	 * Returns true if stream quality is selected automatically by network throughput
+	 *
+	 * @return true if adaptive stream mode enabled
+	 */
+	public static boolean isAdaptiveStream() {
+		return getWrapper().getBooleanValue(KEY_ADAPTIVE_STREAM);
+	}
+
+	/**
+	 * Returns true if alternate stream is kept connected and pre-buffered for instant switching
+	 *
+	 * @return true if warm standby mode enabled
+	 */
+	public static boolean isWarmStandby() {
+		return getWrapper().getBooleanValue(KEY_WARM_STANDBY);
+	}
+
+	/**
+	 * Returns true if playing starts after few MP3 frames instead of full prebuffer
+	 *
+	 * @return true if fast start mode enabled
+	 */
+	public static boolean isFastStart() {
+		return getWrapper().getBooleanValue(KEY_FAST_START, true);
+	}
+
+	/**
+	 * Returns true if stream keeps downloading into disk buffer while paused
+	 *
+	 * @return true if time-shift mode enabled
+	 */
+	public static boolean isTimeShift() {
+		return getWrapper().getBooleanValue(KEY_TIME_SHIFT);
+	}
+
+	/**
+	 * Returns true if buffered data is dropped when playback lags behind live edge too much
+	 *
+	 * @return true if live catch-up enabled
+	 */
+	public static boolean isLiveCatchUp() {
+		return getWrapper().getBooleanValue(KEY_LIVE_CATCH_UP, true);
+	}
+
+	/**
+	 * Returns true if network is read in own thread (pipeline stage).
+	 * Enabled by default on multi-core devices
+	 *
+	 * @return true if staged pipeline enabled
+	 */
+	public static boolean isStagedPipeline() {
+		return getWrapper().getBooleanValue(KEY_STAGED_PIPELINE, Runtime.getRuntime().availableProcessors() > 1);
+	}
+
+	/**
+	 * Returns time-shift window length in ms
+	 *
+	 * @return time-shift window length in ms
+	 */
+	public static int getTimeShiftWindowMs() {
+		return getWrapper().getIntValue(KEY_TIME_SHIFT_WINDOW_MS, TimeShiftBuffer.DEFAULT_WINDOW_MS);
+	}
+
 	/**
 	 * Returns stream quality selected by user
 	 *
@@ -108,6 +190,60 @@ public class PrefManager {
 		return PlayerManager.StreamQuality.values()[id];
 	}
 
+	/**
+	 * Returns jitter buffer prebuffer depth in ms
+	 *
+	 * @return jitter buffer prebuffer depth in ms
+	 */
+	public static int getPrebufferMs() {
+		return getWrapper().getIntValue(KEY_PREBUFFER_MS, JitterBuffer.DEFAULT_PREBUFFER_MS);
+	}
+
+	/**
+	 * Returns jitter buffer low-water mark in ms
+	 *
+	 * @return jitter buffer low-water mark in ms
+	 */
+	public static int getLowWaterMs() {
+		return getWrapper().getIntValue(KEY_LOW_WATER_MS, JitterBuffer.DEFAULT_LOW_WATER_MS);
+	}
+
+	/**
+	 * Returns max time to retry connection after failure in ms
+	 *
+	 * @return max reconnect window in ms
+	 */
+	public static int getReconnectWindowMs() {
+		return getWrapper().getIntValue(KEY_RECONNECT_WINDOW_MS, ReconnectPolicy.DEFAULT_RETRY_WINDOW_MS);
+	}
+
+	/**
+	 * Returns stream connect timeout in ms
+	 *
+	 * @return connect timeout in ms
+	 */
+	public static int getConnectTimeoutMs() {
+		return getWrapper().getIntValue(KEY_CONNECT_TIMEOUT_MS, IcyChannelReader.DEFAULT_CONNECT_TIMEOUT_MS);
+	}
+
+	/**
+	 * Returns max time without data from server in ms
+	 *
+	 * @return read timeout in ms
+	 */
+	public static int getReadTimeoutMs() {
+		return getWrapper().getIntValue(KEY_READ_TIMEOUT_MS, IcyChannelReader.DEFAULT_READ_TIMEOUT_MS);
+	}
+
+	/**
+	 * Returns max time without stream progress while playing in ms
+	 *
+	 * @return stall timeout in ms
+	 */
+	public static int getStallTimeoutMs() {
+		return getWrapper().getIntValue(KEY_STALL_TIMEOUT_MS, StallWatchdog.DEFAULT_STALL_TIMEOUT_MS);
+	}
+
 	/**
 	 * Turns on/off using android in-tray notifications (with foreground play)
 	 *
@@ -130,6 +266,60 @@ public class PrefManager {
 		getWrapper().setBooleanValue(KEY_IGNORE_AUDIO_FOCUS, value);
 	}
 
+	/**
+	 * Turns on/off automatic stream quality selection
+	 *
+	 * @param value <b>true</b> to select stream quality automatically
+	 */
+	public static void setAdaptiveStream(boolean value) {
+		getWrapper().setBooleanValue(KEY_ADAPTIVE_STREAM, value);
+	}
+
+	/**
+	 * Turns on/off pre-buffering of alternate stream
+	 *
+	 * @param value <b>true</b> to keep alternate stream connected
+	 */
+	public static void setWarmStandby(boolean value) {
+		getWrapper().setBooleanValue(KEY_WARM_STANDBY, value);
+	}
+
+	/**
+	 * Turns on/off fast start mode
+	 *
+	 * @param value <b>true</b> to start playing after few MP3 frames
+	 */
+	public static void setFastStart(boolean value) {
+		getWrapper().setBooleanValue(KEY_FAST_START, value);
+	}
+
+	/**
+	 * Turns on/off live catch-up
+	 *
+	 * @param value <b>true</b> to drop buffered data when playback lags too much
+	 */
+	public static void setLiveCatchUp(boolean value) {
+		getWrapper().setBooleanValue(KEY_LIVE_CATCH_UP, value);
+	}
+
+	/**
+	 * Turns on/off staged pipeline
+	 *
+	 * @param value <b>true</b> to read network in own thread
+	 */
+	public static void setStagedPipeline(boolean value) {
+		getWrapper().setBooleanValue(KEY_STAGED_PIPELINE, value);
+	}
+
+	/**
+	 * Turns on/off time-shift mode
+	 *
+	 * @param value <b>true</b> to keep downloading stream while paused
+	 */
+	public static void setTimeShift(boolean value) {
+		getWrapper().setBooleanValue(KEY_TIME_SHIFT, value);
+	}
+
 	/**
 	 * Sets selected stream quality
 	 *
@@ -139,6 +329,60 @@ public class PrefManager {
 		getWrapper().setIntValue(KEY_STREAM_ID, quality.ordinal());
 	}
 
+	/**
+	 * Sets jitter buffer prebuffer depth
+	 *
+	 * @param value prebuffer depth in ms
+	 */
+	public static void setPrebufferMs(int value) {
+		getWrapper().setIntValue(KEY_PREBUFFER_MS, value);
+	}
+
+	/**
+	 * Sets jitter buffer low-water mark
+	 *
+	 * @param value low-water mark in ms
+	 */
+	public static void setLowWaterMs(int value) {
+		getWrapper().setIntValue(KEY_LOW_WATER_MS, value);
+	}
+
+	/**
+	 * Sets max time to retry connection after failure
+	 *
+	 * @param value max reconnect window in ms
+	 */
+	public static void setReconnectWindowMs(int value) {
+		getWrapper().setIntValue(KEY_RECONNECT_WINDOW_MS, value);
+	}
+
+	/**
+	 * Sets stream connect timeout
+	 *
+	 * @param value connect timeout in ms
+	 */
+	public static void setConnectTimeoutMs(int value) {
+		getWrapper().setIntValue(KEY_CONNECT_TIMEOUT_MS, value);
+	}
+
+	/**
+	 * Sets max time without data from server
+	 *
+	 * @param value read timeout in ms
+	 */
+	public static void setReadTimeoutMs(int value) {
+		getWrapper().setIntValue(KEY_READ_TIMEOUT_MS, value);
+	}
+
+	/**
+	 * Sets max time without stream progress while playing
+	 *
+	 * @param value stall timeout in ms
+	 */
+	public static void setStallTimeoutMs(int value) {
+		getWrapper().setIntValue(KEY_STALL_TIMEOUT_MS, value);
+	}
+
 
 	/**
 	 * Android level preferences wrapper
@@ -167,7 +411,18 @@ public class PrefManager {
 		 * @return boolean value from SharedPreferences if stored, false if not
 		 */
 		public boolean getBooleanValue(String key) {
-			return mPrefs.getBoolean(key, false);
+			return getBooleanValue(key, false);
+		}
+
+		/**
+		 * Returns boolean value from SharedPreferences if stored, default value if not
+		 *
+		 * @param key boolean preference key
+		 * @param defValue value to return if preference isn't stored
+		 * @return boolean value from SharedPreferences if stored, default value if not
+		 */
+		public boolean getBooleanValue(String key, boolean defValue) {
+			return mPrefs.getBoolean(key, defValue);
 		}
 
 		/**
@@ -177,7 +432,18 @@ public class PrefManager {
 		 * @return int value from SharedPreferences if stored, 0 if not
 		 */
 		public int getIntValue(String key) {
-			return mPrefs.getInt(key, 0);
+			return getIntValue(key, 0);
+		}
+
+		/**
+		 * Returns int value from SharedPreferences if stored, default value if not
+		 *
+		 * @param key int preference key
+		 * @param defValue value to return if preference isn't stored
+		 * @return int value from SharedPreferences if stored, default value if not
+		 */
+		public int getIntValue(String key, int defValue) {
+			return mPrefs.getInt(key, defValue);
 		}
 
 		/**
@@ -154,11 +154,25 @@ public class NotificationManager implements PlayerStateObserver {
 					sendNotification(R.string.loading);
 				}
 				break;
+			case RECONNECTING:
+				mRemoteViews.setImageViewResource(R.id.toggleButton, R.drawable.pause_bar);
+				sendNotification(R.string.reconnecting);
+				break;
 			default:
 				break;
 		}
 	}
 
+	/**
+	 * Buffer state isn't shown in notification
+	 *
+	 * @param filledMs buffered data length in ms
+	 * @param prebufferMs prebuffer depth in ms
+	 * @param buffering true if playback is held until prebuffer depth is collected
+	 */
+	@Override
+	public void onBufferChanged(int filledMs, int prebufferMs, boolean buffering) {}
+
 	/**
 	 * Show/update notification with custom string resource
 	 *
@@ -0,0 +1,135 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.components.player;
+
+import com.spoledge.aacdecoder.PlayerCallback;
+
+/**
+ * Playback engine based on native aacdecoder library (MP3Player)
+ *
+ * @author dector
+ */
+public class AacDecoderEngine implements PlaybackEngine {
+
+	public static final String NAME = "aacdecoder";
+
+	/** Engine events receiver */
+	private final Callback mCallback;
+	/** Wrapped player */
+	private final StreamPlayer mPlayer;
+
+	/**
+	 * Create new instance
+	 *
+	 * @param callback engine events receiver
+	 */
+	public AacDecoderEngine(Callback callback) {
+		mCallback = callback;
+
+		CallbackAdapter adapter = new CallbackAdapter();
+		mPlayer = new StreamPlayer(adapter, callback, callback);
+		mPlayer.setSamplesListener(adapter);
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public void play(StreamConnection connection) {
+		mPlayer.playAsync(connection);
+	}
+
+	@Override
+	public void stop() {
+		mPlayer.stop();
+	}
+
+	@Override
+	public void setStartGain(float gain) {
+		mPlayer.setStartGain(gain);
+	}
+
+	@Override
+	public void fadeTo(float gain, int durationMs) {
+		mPlayer.fadeTo(gain, durationMs);
+	}
+
+	@Override
+	public void pauseOutput(int fadeMs) {
+		mPlayer.pauseOutput(fadeMs);
+	}
+
+	@Override
+	public void resumeOutput() {
+		mPlayer.resumeOutput();
+	}
+
+	@Override
+	public StreamConnection getConnection() {
+		return mPlayer.getConnection();
+	}
+
+	@Override
+	public int getOutputLatencyMs() {
+		return mPlayer.getAudioBufferCapacityMs();
+	}
+
+	/**
+	 * Translates aacdecoder callbacks to engine callbacks
+	 */
+	private class CallbackAdapter implements PlayerCallback, StreamPCMFeed.Listener {
+
+		@Override
+		public void playerStarted() {
+			mCallback.onStarted();
+		}
+
+		@Override
+		public void playerPCMFeedBuffer(boolean isPlaying, int audioBufferSizeMs, int audioBufferCapacityMs) {
+			mCallback.onAudioBuffer(isPlaying, audioBufferSizeMs, audioBufferCapacityMs);
+		}
+
+		@Override
+		public void playerStopped(int perf) {
+			mCallback.onStopped();
+		}
+
+		@Override
+		public void playerException(Throwable throwable) {
+			mCallback.onError(throwable);
+		}
+
+		@Override
+		public void playerMetadata(String key, String value) {
+			// Metadata is read by connection and passed to callback directly
+		}
+
+		@Override
+		public void onFirstSamples() {
+			mCallback.onFirstAudio();
+		}
+	}
+}
@@ -0,0 +1,295 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.components.player;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Chooses stream mirror: mirrors are probed (connect latency and time to first byte),
+ * connection starts on the fastest one and fails over to next mirrors on error.
+ *
+ * Probe results are cached for TTL. Real connections update cache too,
+ * failed or stalled mirror goes to the end of list until TTL expires
+ *
+ * @author dector
+ */
+public class MirrorSelector {
+
+	private static final String LOG_TAG = "Mirror selector";
+
+	/** Default probe results lifetime in ms */
+	public static final int DEFAULT_TTL_MS = 10 * 60 * 1000;
+	/** Probe connect and read timeout in ms */
+	private static final int PROBE_TIMEOUT_MS = 3000;
+
+	/**
+	 * Creates configured readers for connect(). Connection owner should close
+	 * created reader if owner is closed while connecting
+	 */
+	public interface ReaderFactory {
+
+		/**
+		 * Create reader for mirror
+		 *
+		 * @param uri mirror uri
+		 * @return not connected reader or null if owner was closed
+		 */
+		public IcyChannelReader create(String uri);
+	}
+
+	/**
+	 * Mirror probe result
+	 */
+	public static class Probe {
+
+		/** Probe time (monotonic, in ms) */
+		public final long time;
+		/** Connect latency in ms */
+		public final int connectMs;
+		/** Time from request to response headers in ms */
+		public final int firstByteMs;
+		/** True if mirror failed */
+		public final boolean failed;
+
+		public Probe(long time, int connectMs, int firstByteMs, boolean failed) {
+			this.time = time;
+			this.connectMs = connectMs;
+			this.firstByteMs = firstByteMs;
+			this.failed = failed;
+		}
+
+		/**
+		 * Returns time to start receiving stream
+		 *
+		 * @return connect latency with time to first byte in ms
+		 */
+		public int getLatencyMs() {
+			return connectMs + firstByteMs;
+		}
+
+		@Override
+		public String toString() {
+			return (failed) ? "failed" : connectMs + "+" + firstByteMs + "ms";
+		}
+	}
+
+	/** Probe results lifetime in ms */
+	private final int mTtlMs;
+	/** Last probe results by mirror uri */
+	private final Map<String, Probe> mProbes = new HashMap<String, Probe>();
+
+	/**
+	 * Create new instance
+	 *
+	 * @param ttlMs probe results lifetime in ms
+	 */
+	public MirrorSelector(int ttlMs) {
+		mTtlMs = ttlMs;
+	}
+
+	/**
+	 * Returns stream mirrors, fastest first. Mirrors without actual probe results
+	 * are probed in parallel (blocking). Failed mirrors are at the end
+	 *
+	 * @param quality stream
+	 * @return ordered mirror uris
+	 */
+	public List<String> getMirrors(PlayerManager.StreamQuality quality) {
+		final List<String> mirrors = new ArrayList<String>(quality.mirrors);
+
+		if (mirrors.size() > 1) {
+			probeStale(mirrors);
+
+			synchronized (this) {
+				final long now = SystemClock.elapsedRealtime();
+
+				// Stable sort keeps configured order for equal mirrors
+				Collections.sort(mirrors, new Comparator<String>() {
+					@Override
+					public int compare(String first, String second) {
+						return compareLatency(getRank(first, now), getRank(second, now));
+					}
+				});
+			}
+		}
+
+		return mirrors;
+	}
+
+	/**
+	 * Connect to stream, mirrors are tried from the fastest one
+	 *
+	 * @param quality stream
+	 * @param factory creates readers for mirrors
+	 * @return connected reader or null if owner was closed
+	 * @throws IOException if all mirrors failed
+	 */
+	public IcyChannelReader connect(PlayerManager.StreamQuality quality, ReaderFactory factory) throws IOException {
+		IOException error = null;
+
+		for (String uri : getMirrors(quality)) {
+			IcyChannelReader reader = factory.create(uri);
+			if (reader == null) return null;
+
+			try {
+				reader.connect();
+			} catch (IOException e) {
+				if (reader.isClosed()) {
+					// Closed by owner, mirror isn't guilty
+					throw e;
+				}
+
+				Log.w(LOG_TAG, "Mirror " + uri + " failed: " + e);
+				reader.close();
+				onFailed(uri);
+
+				error = e;
+				continue;
+			}
+
+			onConnected(uri, reader.getConnectMs(), reader.getFirstByteMs());
+			return reader;
+		}
+
+		throw error;
+	}
+
+	/**
+	 * Connection to mirror was opened
+	 *
+	 * @param uri mirror uri
+	 * @param connectMs connect latency in ms
+	 * @param firstByteMs time to first byte in ms
+	 */
+	public synchronized void onConnected(String uri, int connectMs, int firstByteMs) {
+		mProbes.put(uri, new Probe(SystemClock.elapsedRealtime(), connectMs, firstByteMs, false));
+	}
+
+	/**
+	 * Mirror failed or stalled, it's used only if other mirrors fail too
+	 *
+	 * @param uri mirror uri
+	 */
+	public synchronized void onFailed(String uri) {
+		mProbes.put(uri, new Probe(SystemClock.elapsedRealtime(), 0, 0, true));
+	}
+
+	/**
+	 * Returns actual probe result
+	 *
+	 * @param uri mirror uri
+	 * @return probe result or null if mirror wasn't probed during TTL
+	 */
+	public synchronized Probe getProbe(String uri) {
+		return getActualProbe(uri, SystemClock.elapsedRealtime());
+	}
+
+	/**
+	 * Probe mirrors without actual results in parallel
+	 *
+	 * @param mirrors mirror uris
+	 */
+	private void probeStale(List<String> mirrors) {
+		List<Thread> threads = new ArrayList<Thread>();
+
+		synchronized (this) {
+			long now = SystemClock.elapsedRealtime();
+
+			for (final String uri : mirrors) {
+				if (getActualProbe(uri, now) != null) continue;
+
+				threads.add(new Thread(new Runnable() {
+					@Override
+					public void run() {
+						probe(uri);
+					}
+				}, "MirrorProbe"));
+			}
+		}
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+
+		try {
+			for (Thread thread : threads) {
+				thread.join(PROBE_TIMEOUT_MS * 2);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Measure connect latency and time to first byte of mirror
+	 *
+	 * @param uri mirror uri
+	 */
+	private void probe(String uri) {
+		IcyChannelReader reader = new IcyChannelReader(uri, null);
+		reader.setTimeouts(PROBE_TIMEOUT_MS, PROBE_TIMEOUT_MS);
+
+		try {
+			reader.connect();
+			onConnected(uri, reader.getConnectMs(), reader.getFirstByteMs());
+		} catch (IOException e) {
+			onFailed(uri);
+		} finally {
+			reader.close();
+		}
+
+		Log.i(LOG_TAG, "Probed " + uri + ": " + getProbe(uri));
+	}
+
+	private Probe getActualProbe(String uri, long now) {
+		Probe probe = mProbes.get(uri);
+
+		return (probe != null && now - probe.time < mTtlMs) ? probe : null;
+	}
+
+	/**
+	 * Returns mirror rank: latency for working mirrors, MAX_VALUE - 1 if unknown,
+	 * MAX_VALUE if failed
+	 */
+	private int getRank(String uri, long now) {
+		Probe probe = getActualProbe(uri, now);
+
+		if (probe == null) return Integer.MAX_VALUE - 1;
+
+		return (probe.failed) ? Integer.MAX_VALUE : probe.getLatencyMs();
+	}
+
+	private static int compareLatency(int first, int second) {
+		return (first < second) ? -1 : ((first == second) ? 0 : 1);
+	}
+}
@@ -0,0 +1,138 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.components.player;
+
+/**
+ * Decoder and audio output, which plays stream connection.
+ * New engine instance is used for every connection.
+ *
+ * Engines are created by PlaybackEngineFactory, so different
+ * implementations can be compared (CPU cost, start latency)
+ *
+ * @author dector
+ *
+ * @see PlaybackEngineFactory
+ */
+public interface PlaybackEngine {
+
+	/**
+	 * Engine events. Called from engine threads
+	 */
+	public interface Callback extends JitterBuffer.Listener, IcyChannelReader.MetadataListener {
+
+		/**
+		 * Decoding started
+		 */
+		public void onStarted();
+
+		/**
+		 * First PCM data was written to audio output
+		 */
+		public void onFirstAudio();
+
+		/**
+		 * Audio output buffer state. Called periodically while playing
+		 *
+		 * @param isPlaying true if audio output is playing
+		 * @param bufferedMs buffered PCM data in ms
+		 * @param capacityMs PCM buffer capacity in ms
+		 */
+		public void onAudioBuffer(boolean isPlaying, int bufferedMs, int capacityMs);
+
+		/**
+		 * Playing stopped (by request or because stream ended)
+		 */
+		public void onStopped();
+
+		/**
+		 * Connection or decoding failed
+		 *
+		 * @param throwable failure reason
+		 */
+		public void onError(Throwable throwable);
+	}
+
+	/**
+	 * Returns engine name for logs and statistics
+	 *
+	 * @return engine name
+	 */
+	public String getName();
+
+	/**
+	 * Start playing asynchronously. Connection is opened if needed
+	 * and closed when playing stopped
+	 *
+	 * @param connection opened or new connection
+	 */
+	public void play(StreamConnection connection);
+
+	/**
+	 * Stop playing and close connection
+	 */
+	public void stop();
+
+	/**
+	 * Set output gain at start of playing. Should be called before play()
+	 *
+	 * @param gain gain [0..1]
+	 */
+	public void setStartGain(float gain);
+
+	/**
+	 * Change output gain smoothly
+	 *
+	 * @param gain target gain [0..1]
+	 * @param durationMs fade duration in ms
+	 */
+	public void fadeTo(float gain, int durationMs);
+
+	/**
+	 * Fade output out and stop decoding. Connection keeps buffering,
+	 * so output can be resumed at once
+	 *
+	 * @param fadeMs fade duration in ms
+	 */
+	public void pauseOutput(int fadeMs);
+
+	/**
+	 * Continue decoding after pauseOutput(). Gain isn't restored, use fadeTo()
+	 */
+	public void resumeOutput();
+
+	/**
+	 * Returns played connection
+	 *
+	 * @return connection or null if not playing
+	 */
+	public StreamConnection getConnection();
+
+	/**
+	 * Returns audio output buffer length: time between writing
+	 * PCM data and hearing it
+	 *
+	 * @return output latency in ms
+	 */
+	public int getOutputLatencyMs();
+}
@@ -0,0 +1,103 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.components.player;
+
+/**
+ * Creates playback engines of selected type
+ *
+ * @author dector
+ */
+public class PlaybackEngineFactory {
+
+	/**
+	 * Available engines
+	 */
+	public static enum Type {
+		AAC_DECODER {
+			@Override
+			public PlaybackEngine create(PlaybackEngine.Callback callback) {
+				return new AacDecoderEngine(callback);
+			}
+		};
+
+		/**
+		 * Create new engine instance
+		 *
+		 * @param callback engine events receiver
+		 * @return new engine
+		 */
+		public abstract PlaybackEngine create(PlaybackEngine.Callback callback);
+
+		public static Type getDefault() {
+			return AAC_DECODER;
+		}
+	}
+
+	/** Type of created engines */
+	private Type mType;
+
+	/**
+	 * Create factory of default engines
+	 */
+	public PlaybackEngineFactory() {
+		this(Type.getDefault());
+	}
+
+	/**
+	 * Create factory of selected engines
+	 *
+	 * @param type engines type
+	 */
+	public PlaybackEngineFactory(Type type) {
+		mType = type;
+	}
+
+	/**
+	 * Select type of engines, which will be created
+	 *
+	 * @param type engines type
+	 */
+	public void setType(Type type) {
+		mType = type;
+	}
+
+	/**
+	 * Returns type of created engines
+	 *
+	 * @return engines type
+	 */
+	public Type getType() {
+		return mType;
+	}
+
+	/**
+	 * Create new engine of selected type
+	 *
+	 * @param callback engine events receiver
+	 * @return new engine
+	 */
+	public PlaybackEngine create(PlaybackEngine.Callback callback) {
+		return mType.create(callback);
+	}
+}
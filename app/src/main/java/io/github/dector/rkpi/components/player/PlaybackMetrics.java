@@ -0,0 +1,383 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.components.player;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Playback health metrics: underruns, rebuffering time, stalls, pipeline queue
+ * depth history and received traffic per stream.
+ *
+ * Updated from engine and buffer threads with cheap synchronized calls.
+ * Readers (UI, logs, analytics) take immutable snapshot, so they never
+ * block playing threads for long.
+ *
+ * @author dector
+ */
+public class PlaybackMetrics {
+
+	/** Buffer fill history length */
+	private static final int MAX_FILL_SAMPLES = 120;
+	/** Min time between two buffer fill history samples */
+	private static final int FILL_SAMPLE_INTERVAL_MS = 1000;
+	/** Stored stall durations count */
+	private static final int MAX_STALLS = 20;
+
+	/**
+	 * Pipeline queues depth sample: network to demuxing, demuxing to decoder
+	 * (jitter buffer), decoder to audio output
+	 */
+	public static class FillSample {
+
+		/** Sample time (monotonic, in ms) */
+		public final long time;
+		/** Network chunks waiting for demuxing */
+		public final int queuedChunks;
+		/** Jitter buffer data in ms */
+		public final int bufferedMs;
+		/** Audio output buffer data in ms */
+		public final int outputMs;
+
+		public FillSample(long time, int queuedChunks, int bufferedMs, int outputMs) {
+			this.time = time;
+			this.queuedChunks = queuedChunks;
+			this.bufferedMs = bufferedMs;
+			this.outputMs = outputMs;
+		}
+
+		@Override
+		public String toString() {
+			return time + ": " + queuedChunks + " chunks, " + bufferedMs + "+" + outputMs + "ms";
+		}
+	}
+
+	/**
+	 * Immutable metrics state
+	 */
+	public static class Snapshot {
+
+		/** Snapshot time (monotonic, in ms) */
+		public final long time;
+		/** Time of playing (including rebuffering) in ms */
+		public final long playingMs;
+		/** Time of rebuffering after playing started in ms */
+		public final long rebufferingMs;
+		/** Jitter buffer underruns after playing started */
+		public final int underruns;
+		/** Detected stalls (no data from network) */
+		public final int stalls;
+		/** Last stall and rebuffering durations in ms, oldest first */
+		public final List<Long> stallDurationsMs;
+		/** Longest stall or rebuffering in ms */
+		public final long maxStallMs;
+		/** Pipeline queues depth history, oldest first */
+		public final List<FillSample> fillHistory;
+		/** Received bytes per stream */
+		public final Map<PlayerManager.StreamQuality, Long> receivedBytes;
+		/** Buffer pool allocations while the same connection was played */
+		public final long steadyAllocations;
+		/** Time of playing the same connection between buffer samples in ms */
+		public final long steadyMs;
+
+		private Snapshot(long time, long playingMs, long rebufferingMs, int underruns, int stalls,
+		                 List<Long> stallDurationsMs, long maxStallMs, List<FillSample> fillHistory,
+		                 Map<PlayerManager.StreamQuality, Long> receivedBytes, long steadyAllocations,
+		                 long steadyMs) {
+			this.time = time;
+			this.playingMs = playingMs;
+			this.rebufferingMs = rebufferingMs;
+			this.underruns = underruns;
+			this.stalls = stalls;
+			this.stallDurationsMs = stallDurationsMs;
+			this.maxStallMs = maxStallMs;
+			this.fillHistory = fillHistory;
+			this.receivedBytes = receivedBytes;
+			this.steadyAllocations = steadyAllocations;
+			this.steadyMs = steadyMs;
+		}
+
+		/**
+		 * Returns buffer allocations per second during steady-state playing.
+		 * Should be zero: buffers are allocated only for new connections
+		 *
+		 * @return allocations per second
+		 */
+		public float getAllocationsPerSecond() {
+			return (steadyMs > 0) ? steadyAllocations * 1000f / steadyMs : 0f;
+		}
+
+		/**
+		 * Returns part of playing time spent on rebuffering
+		 *
+		 * @return rebuffer ratio [0..1]
+		 */
+		public float getRebufferRatio() {
+			return (playingMs > 0) ? (float) rebufferingMs / playingMs : 0f;
+		}
+
+		/**
+		 * Returns received bytes for stream
+		 *
+		 * @param quality stream
+		 * @return received bytes
+		 */
+		public long getReceivedBytes(PlayerManager.StreamQuality quality) {
+			Long bytes = receivedBytes.get(quality);
+
+			return (bytes != null) ? bytes : 0;
+		}
+
+		@Override
+		public String toString() {
+			return "playing=" + playingMs + "ms, rebuffering=" + rebufferingMs + "ms ("
+					+ Math.round(getRebufferRatio() * 1000) / 10f + "%), underruns=" + underruns
+					+ ", stalls=" + stalls + ", maxStall=" + maxStallMs + "ms, received=" + receivedBytes
+					+ ", allocations=" + getAllocationsPerSecond() + "/s";
+		}
+	}
+
+	/** Time when playing started, -1 if not playing */
+	private long mPlayingSince = -1;
+	/** Time of finished playing periods */
+	private long mPlayingMs;
+	/** Time when rebuffering started, -1 if not rebuffering */
+	private long mRebufferingSince = -1;
+	/** Time of finished rebuffering periods */
+	private long mRebufferingMs;
+
+	/** Buffer, which buffering state is tracked */
+	private JitterBuffer mBufferingBuffer;
+	/** True if tracked buffer finished initial prebuffering */
+	private boolean mBufferStarted;
+
+	private int mUnderruns;
+	private int mStalls;
+	private long mMaxStallMs;
+	private final LinkedList<Long> mStallDurations = new LinkedList<Long>();
+
+	private final LinkedList<FillSample> mFillHistory = new LinkedList<FillSample>();
+
+	private final Map<PlayerManager.StreamQuality, Long> mReceivedBytes
+			= new EnumMap<PlayerManager.StreamQuality, Long>(PlayerManager.StreamQuality.class);
+	/** Buffer, which received bytes were counted last */
+	private JitterBuffer mCountedBuffer;
+	/** Counted bytes of that buffer */
+	private long mCountedBytes;
+
+	/** Time of last buffer sample, -1 if there was no sample */
+	private long mLastSampleTime = -1;
+	/** Buffer pool allocations at last buffer sample */
+	private long mLastAllocations;
+	private long mSteadyAllocations;
+	private long mSteadyMs;
+
+	/**
+	 * Playing started (or resumed)
+	 *
+	 * @param time event time (monotonic, in ms)
+	 */
+	public synchronized void onStarted(long time) {
+		if (mPlayingSince < 0) {
+			mPlayingSince = time;
+		}
+	}
+
+	/**
+	 * Playing stopped. Unfinished rebuffering is counted too
+	 *
+	 * @param time event time (monotonic, in ms)
+	 */
+	public synchronized void onStopped(long time) {
+		finishRebuffering(time);
+
+		if (mPlayingSince >= 0) {
+			mPlayingMs += time - mPlayingSince;
+			mPlayingSince = -1;
+		}
+	}
+
+	/**
+	 * Jitter buffer state. Buffering after playing was started is underrun.
+	 * Initial prebuffering of new buffer isn't: on stream switch or seek
+	 * previous engine still plays meanwhile
+	 *
+	 * @param time event time (monotonic, in ms)
+	 * @param buffer changed buffer
+	 * @param buffering true if buffer is buffering
+	 */
+	public synchronized void onBufferingChanged(long time, JitterBuffer buffer, boolean buffering) {
+		if (buffer != mBufferingBuffer) {
+			mBufferingBuffer = buffer;
+			mBufferStarted = false;
+		}
+
+		if (! buffering) {
+			mBufferStarted = true;
+		}
+
+		if (mPlayingSince < 0) return;
+
+		if (buffering && mBufferStarted && mRebufferingSince < 0) {
+			mRebufferingSince = time;
+			mUnderruns++;
+		} else if (! buffering) {
+			finishRebuffering(time);
+		}
+	}
+
+	/**
+	 * Periodic buffer sample
+	 *
+	 * @param time sample time (monotonic, in ms)
+	 * @param quality played stream
+	 * @param queuedChunks network chunks waiting for demuxing
+	 * @param buffer jitter buffer of played connection
+	 * @param outputMs audio output buffer data in ms
+	 */
+	public void onBufferSample(long time, PlayerManager.StreamQuality quality, int queuedChunks, JitterBuffer buffer,
+	                           int outputMs) {
+		// Buffer is read before taking own lock
+		int bufferedMs = buffer.getFilledMs();
+		long received = buffer.getReceivedBytes();
+		long allocations = BufferPool.getAllocations();
+
+		synchronized (this) {
+			addFillSample(time, queuedChunks, bufferedMs, outputMs);
+			addAllocations(time, buffer, allocations);
+			addReceivedBytes(quality, buffer, received);
+		}
+	}
+
+	/**
+	 * Count allocations between samples of the same buffer
+	 * (new connection allocates its buffers, that's not steady state)
+	 */
+	private void addAllocations(long time, JitterBuffer buffer, long allocations) {
+		if (buffer == mCountedBuffer && mLastSampleTime >= 0) {
+			mSteadyAllocations += allocations - mLastAllocations;
+			mSteadyMs += time - mLastSampleTime;
+		}
+
+		mLastSampleTime = time;
+		mLastAllocations = allocations;
+	}
+
+	private void addFillSample(long time, int queuedChunks, int bufferedMs, int outputMs) {
+		FillSample last = (mFillHistory.isEmpty()) ? null : mFillHistory.getLast();
+
+		if (last == null || time - last.time >= FILL_SAMPLE_INTERVAL_MS) {
+			mFillHistory.addLast(new FillSample(time, queuedChunks, bufferedMs, outputMs));
+
+			if (mFillHistory.size() > MAX_FILL_SAMPLES) {
+				mFillHistory.removeFirst();
+			}
+		}
+	}
+
+	private void addReceivedBytes(PlayerManager.StreamQuality quality, JitterBuffer buffer, long received) {
+		if (buffer != mCountedBuffer) {
+			mCountedBuffer = buffer;
+			mCountedBytes = 0;
+		}
+
+		Long total = mReceivedBytes.get(quality);
+		mReceivedBytes.put(quality, ((total != null) ? total : 0) + received - mCountedBytes);
+		mCountedBytes = received;
+	}
+
+	/**
+	 * Network stall detected (no data for too long)
+	 *
+	 * @param durationMs stall duration in ms
+	 */
+	public synchronized void onStall(long durationMs) {
+		mStalls++;
+		addStallDuration(durationMs);
+	}
+
+	/**
+	 * Take immutable copy of metrics
+	 *
+	 * @param time current time (monotonic, in ms)
+	 * @return metrics snapshot
+	 */
+	public synchronized Snapshot getSnapshot(long time) {
+		long playingMs = mPlayingMs + ((mPlayingSince >= 0) ? time - mPlayingSince : 0);
+		long rebufferingMs = mRebufferingMs + ((mRebufferingSince >= 0) ? time - mRebufferingSince : 0);
+
+		return new Snapshot(time, playingMs, rebufferingMs, mUnderruns, mStalls,
+				Collections.unmodifiableList(new ArrayList<Long>(mStallDurations)), mMaxStallMs,
+				Collections.unmodifiableList(new ArrayList<FillSample>(mFillHistory)),
+				Collections.unmodifiableMap(new EnumMap<PlayerManager.StreamQuality, Long>(mReceivedBytes)),
+				mSteadyAllocations, mSteadyMs);
+	}
+
+	/**
+	 * Forget all metrics
+	 */
+	public synchronized void reset() {
+		mPlayingSince = -1;
+		mPlayingMs = 0;
+		mRebufferingSince = -1;
+		mRebufferingMs = 0;
+		mBufferingBuffer = null;
+		mBufferStarted = false;
+		mUnderruns = 0;
+		mStalls = 0;
+		mMaxStallMs = 0;
+		mStallDurations.clear();
+		mFillHistory.clear();
+		mReceivedBytes.clear();
+		mCountedBuffer = null;
+		mCountedBytes = 0;
+		mLastSampleTime = -1;
+		mLastAllocations = 0;
+		mSteadyAllocations = 0;
+		mSteadyMs = 0;
+	}
+
+	private void finishRebuffering(long time) {
+		if (mRebufferingSince < 0) return;
+
+		long duration = time - mRebufferingSince;
+		mRebufferingMs += duration;
+		mRebufferingSince = -1;
+
+		addStallDuration(duration);
+	}
+
+	private void addStallDuration(long durationMs) {
+		mMaxStallMs = Math.max(mMaxStallMs, durationMs);
+
+		mStallDurations.addLast(durationMs);
+		if (mStallDurations.size() > MAX_STALLS) {
+			mStallDurations.removeFirst();
+		}
+	}
+}
@@ -25,26 +25,43 @@ package io.github.dector.rkpi.components.player;
 
 import android.content.Context;
 import android.media.AudioManager;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 
-import com.spoledge.aacdecoder.MP3Player;
-import com.spoledge.aacdecoder.PlayerCallback;
-
-import java.io.UnsupportedEncodingException;
+import java.io.File;
 import java.net.ConnectException;
-import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import io.github.dector.rkpi.R;
+import io.github.dector.rkpi.common.AppConfig;
 import io.github.dector.rkpi.common.PrefManager;
 import io.github.dector.rkpi.components.notifications.Request;
 import io.github.dector.rkpi.components.notifications.RequestObserver;
 import io.github.dector.rkpi.tools.FlurryClient;
 import io.github.dector.rkpi.tools.Logger;
+import io.github.dector.rkpi.tools.Toaster;
 
 /**
  * @author dector
  */
-public class PlayerManager implements RequestObserver, PlayerCallback {
+public class PlayerManager implements RequestObserver {
+
+	/** Crossfade duration on stream switch */
+	private static final int CROSSFADE_MS = 1500;
+	/** Fade duration on transient audio focus loss and ducking */
+	private static final int FOCUS_FADE_MS = 300;
+	/** Output gain while ducked */
+	private static final float DUCK_GAIN = 0.2f;
+	/** Transient pause longer than this becomes full stop (server won't keep the connection much longer) */
+	private static final int MAX_TRANSIENT_PAUSE_MS = 30000;
+	/** Seek step of time-shift back request */
+	private static final int TIME_SHIFT_SEEK_MS = 30000;
+	/** Time-shift buffer file name in cache directory */
+	private static final String TIME_SHIFT_FILE = "timeshift.buf";
 
 	private class OuterEventsListener implements AudioManager.OnAudioFocusChangeListener {
 
@@ -57,28 +74,121 @@ public class PlayerManager implements RequestObserver, PlayerCallback {
 
 			switch (focusChange) {
 				case AudioManager.AUDIOFOCUS_GAIN:
+					setOutputGain(1f);
+					setOutputPaused(false);
+
 					if (mPaused) {
 						mPaused = false;
 						internalPlay();
 					}
 					break;
 				case AudioManager.AUDIOFOCUS_LOSS:
-				case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
 					if (isPlaying()) {
-						mPaused = true;
-						internalStop();
+						pause();
+					}
+					break;
+				case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
+					// Stream and decoder stay alive, so resume is instant
+					if (isPlaying() && ! mStopRequested) {
+						setOutputPaused(true);
+
+						mHandler.removeCallbacks(mTransientPauseExpiredRunnable);
+						mHandler.postDelayed(mTransientPauseExpiredRunnable, MAX_TRANSIENT_PAUSE_MS);
 					}
 					break;
 				case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK:
-					// Fuck off :)
+					if (isPlaying()) {
+						setOutputGain(DUCK_GAIN);
+					}
 					break;
 			}
 		}
+
+		/**
+		 * Stop playing until focus is gained again
+		 */
+		private void pause() {
+			// Engine is stopped, so its output isn't resumed
+			mHandler.removeCallbacks(mTransientPauseExpiredRunnable);
+			mOutputPaused = false;
+
+			mPaused = true;
+			internalStop();
+		}
+	}
+
+	/**
+	 * Forwards callbacks of one engine to manager. Callbacks of
+	 * replaced engines (after stream switch) are ignored
+	 */
+	private class SessionCallback implements PlaybackEngine.Callback {
+
+		/** Engine, which sends callbacks */
+		private PlaybackEngine mSessionEngine;
+
+		private boolean isCurrent() {
+			return mSessionEngine == mEngine;
+		}
+
+		@Override
+		public void onStarted() {
+			if (isCurrent()) playerStarted();
+		}
+
+		@Override
+		public void onAudioBuffer(boolean isPlaying, int bufferedMs, int capacityMs) {
+			if (isCurrent()) playerPCMFeedBuffer(isPlaying, bufferedMs, capacityMs);
+		}
+
+		@Override
+		public void onStopped() {
+			if (isCurrent()) playerStopped();
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			if (isCurrent()) {
+				playerException(throwable);
+			} else {
+				Logger.log(throwable);
+			}
+		}
+
+		@Override
+		public void onMetadata(String key, String value) {
+			if (isCurrent()) playerMetadata(key, value);
+		}
+
+		@Override
+		public void onBufferChanged(JitterBuffer buffer) {
+			if (isCurrent()) PlayerManager.this.onBufferChanged(buffer);
+		}
+
+		@Override
+		public void onFirstAudio() {
+			final long time = SystemClock.elapsedRealtime();
+
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					if (isCurrent()) {
+						PlayerManager.this.onFirstAudio(time);
+						startCrossfade(mSessionEngine);
+					}
+				}
+			});
+		}
 	}
 
 	private Context mContext;
-	/** Wrapped stream player */
-	private MP3Player mPlayer;
+	/** Creates playback engines */
+	private PlaybackEngineFactory mEngineFactory;
+	/** Current playback engine. New engine is created for every connection */
+	private volatile PlaybackEngine mEngine;
+	/** Engine of previous stream, which is faded out on stream switch */
+	private PlaybackEngine mFadingEngine;
+	/** Pre-buffered connection to alternate stream (in warm standby mode) */
+	private StreamConnection mStandby;
 	/** Selected stream quality */
 	private StreamQuality mStreamQuality;
 	/** Linked state manager */
@@ -87,18 +197,127 @@ public class PlayerManager implements RequestObserver, PlayerCallback {
 	private AudioManager mAudioManager;
 	private OuterEventsListener mOuterEventsListener;
 
-	private boolean mRestartPlay;
     private boolean mPlaying;
 
+	/** Output gain (lower while ducked) */
+	private float mOutputGain = 1f;
+	/** True while output is paused on transient audio focus loss */
+	private boolean mOutputPaused;
+
+	/** True while user wants to listen (between play() and stop()) */
+	private boolean mSessionActive;
+	/** True if engine was stopped by us, not by stream failure */
+	private boolean mStopRequested;
+
+	/** Handler to schedule reconnects (main thread) */
+	private Handler mHandler;
+	/** Backoff for reconnect attempts */
+	private ReconnectPolicy mReconnectPolicy;
+	/** True if reconnect is scheduled */
+	private boolean mReconnectPending;
+
+	/** True if stream quality is selected automatically */
+	private boolean mAdaptive;
+	/** Picks stream quality in adaptive mode */
+	private AdaptiveQualityController mQualityController;
+	/** Keeps playback close to live edge */
+	private LatencyController mLatencyController;
+	/** Playback health of current (or last) session */
+	private final PlaybackMetrics mMetrics = new PlaybackMetrics();
+	/** Detects stream without progress */
+	private StallWatchdog mWatchdog;
+	/** Chooses stream mirrors, keeps probe results between connections */
+	private final MirrorSelector mMirrors = new MirrorSelector(MirrorSelector.DEFAULT_TTL_MS);
+
+	/** Records played stream, created on first use */
+	private volatile StreamRecorder mRecorder;
+	/** Last song name, passed to recorder */
+	private String mLastSongName;
+	/** Parses song info from stream metadata, keeps decode buffer */
+	private final StreamUrlParser mStreamUrlParser = new StreamUrlParser();
+	/** Raw metadata value of last song, which was sent to observers */
+	private String mLastStreamUrl;
+	/** Song updates, which weren't sent to observers, because song didn't change */
+	private volatile int mSuppressedSongUpdates;
+
+	/** Disk buffer of stream in time-shift mode, keeps downloading while paused */
+	private TimeShiftBuffer mTimeShift;
+	/** Position to start next time-shift connection from */
+	private volatile long mTimeShiftPosition = TimeShiftBuffer.POSITION_LIVE;
+
+	/** Time of last play() call, -1 after first audio was measured */
+	private volatile long mPlayRequestTime = -1;
+	/** Time from play() to playerStarted() in ms, -1 if unknown */
+	private volatile long mTimeToStartMs = -1;
+	/** Time from play() to first PCM data in ms, -1 if unknown */
+	private long mTimeToFirstAudioMs = -1;
+
+	private final Runnable mReconnectRunnable = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (PlayerManager.this) {
+				mReconnectPending = false;
+			}
+
+			if (mSessionActive) {
+				internalPlay();
+			}
+		}
+	};
+
+	private final Runnable mTransientPauseExpiredRunnable = new Runnable() {
+		@Override
+		public void run() {
+			if (mOutputPaused) {
+				mOuterEventsListener.pause();
+			}
+		}
+	};
+
+	private final Runnable mWatchdogRunnable = new Runnable() {
+		@Override
+		public void run() {
+			checkStall();
+		}
+	};
+
+	private final Runnable mStopFadingRunnable = new Runnable() {
+		@Override
+		public void run() {
+			stopFadingEngine();
+		}
+	};
+
+	/** Pause position is lost when paused longer than time-shift window */
+	private final Runnable mTimeShiftExpiredRunnable = new Runnable() {
+		@Override
+		public void run() {
+			if (! mSessionActive || mStopRequested) {
+				closeTimeShift();
+			}
+		}
+	};
+
 	public PlayerManager(Context context, StateManager stateManager) {
 		mContext = context;
 		mStateManager = stateManager;
 
-		mPlayer = new MP3Player(this);
 		mStreamQuality = PrefManager.getStreamQuality();
 
 		mAudioManager = (AudioManager) mContext.getSystemService(Context.AUDIO_SERVICE);
 		mOuterEventsListener = new OuterEventsListener();
+
+		mHandler = new Handler();
+		mReconnectPolicy = new ReconnectPolicy(PrefManager.getReconnectWindowMs());
+
+		mAdaptive = PrefManager.isAdaptiveStream();
+		mQualityController = new AdaptiveQualityController(StreamQuality.LQ.kbps, StreamQuality.HQ.kbps);
+		mLatencyController = new LatencyController(
+				Math.max(LatencyController.DEFAULT_TARGET_MS, PrefManager.getPrebufferMs()),
+				LatencyController.DEFAULT_MAX_EXCESS_MS);
+
+		mEngineFactory = new PlaybackEngineFactory();
+		mWatchdog = new StallWatchdog(PrefManager.getStallTimeoutMs());
 	}
 
 	/**
@@ -107,7 +326,7 @@ public class PlayerManager implements RequestObserver, PlayerCallback {
 	 * @return true if is playing now
 	 */
 	public boolean isPlaying() {
-        return mPlaying || mStateManager.isPlaying();
+        return mPlaying || mReconnectPending || mStateManager.isPlaying();
 	}
 
 	// FOR OUTER USE ONLY
@@ -117,6 +336,19 @@ public class PlayerManager implements RequestObserver, PlayerCallback {
 
 		if (PrefManager.isIgnoreAudioFocus()
 				|| focusRequestResult == AudioManager.AUDIOFOCUS_REQUEST_GRANTED) {
+			boolean wasActive = mSessionActive;
+			mSessionActive = true;
+			mReconnectPolicy.reset();
+			resetOutput();
+
+			mPlayRequestTime = SystemClock.elapsedRealtime();
+			mTimeToStartMs = -1;
+
+			// New session: metrics are reported per session
+			if (! wasActive) {
+				mMetrics.reset();
+			}
+
 			internalPlay();
 		} else {
 			error(Error.AUDIO_FOCUS_ERROR);
@@ -124,79 +356,519 @@ public class PlayerManager implements RequestObserver, PlayerCallback {
 	}
 
 	private void internalPlay() {
-		mPlayer.playAsync(mStreamQuality.uri);
+		internalPlay(null, 1f);
+	}
+
+	/**
+	 * Start new engine. Previous engine (if any) becomes stale
+	 *
+	 * @param connection pre-buffered connection to play or null to connect
+	 * @param startGain output gain at start, 0 to fade in
+	 */
+	private void internalPlay(StreamConnection connection, float startGain) {
+		mStopRequested = false;
+		mQualityController.reset(mStreamQuality.kbps, SystemClock.elapsedRealtime());
+		mLatencyController.reset();
+
+		mWatchdog.restart(SystemClock.elapsedRealtime());
+		mHandler.removeCallbacks(mWatchdogRunnable);
+		mHandler.postDelayed(mWatchdogRunnable, StallWatchdog.CHECK_INTERVAL_MS);
+
+		SessionCallback callback = new SessionCallback();
+		PlaybackEngine engine = mEngineFactory.create(callback);
+		engine.setStartGain(Math.min(startGain, mOutputGain));
+		callback.mSessionEngine = engine;
+
+		if (mOutputPaused) {
+			engine.pauseOutput(0);
+		}
+
+		if (connection == null) {
+			connection = createConnection(mStreamQuality);
+		}
+
+		// Frames of previous engine (fading out) aren't recorded
+		setRecorderConnection(mEngine, null);
+		connection.getFrameSyncStream().setFrameListener(mRecorder);
+		if (mRecorder != null) {
+			mRecorder.onSourceChanged();
+		}
+
+		mEngine = engine;
+
+		engine.play(connection);
+	}
+
+	/**
+	 * Create connection with buffer configuration from preferences.
+	 * In time-shift mode connection reads time-shift buffer from pause position
+	 *
+	 * @param streamQuality stream to connect
+	 * @return new not opened connection
+	 */
+	private StreamConnection createConnection(StreamQuality streamQuality) {
+		StreamConnection connection;
+
+		if (PrefManager.isTimeShift()) {
+			TimeShiftBuffer timeShift = obtainTimeShift(streamQuality);
+
+			connection = new StreamConnection(timeShift, mTimeShiftPosition,
+					PrefManager.getPrebufferMs(), PrefManager.getLowWaterMs());
+			mTimeShiftPosition = TimeShiftBuffer.POSITION_LIVE;
+		} else {
+			closeTimeShift();
+
+			connection = new StreamConnection(streamQuality,
+					PrefManager.getPrebufferMs(), PrefManager.getLowWaterMs());
+			connection.setTimeouts(PrefManager.getConnectTimeoutMs(), PrefManager.getReadTimeoutMs());
+			connection.setStaged(PrefManager.isStagedPipeline());
+			connection.setMirrorSelector(mMirrors);
+		}
+
+		connection.getBuffer().setFastStartFrames(
+				(PrefManager.isFastStart()) ? JitterBuffer.DEFAULT_FAST_START_FRAMES : 0);
+
+		return connection;
 	}
 
 	// FOR OUTER USE ONLY
 	public void stop() {
+		boolean wasActive = mSessionActive;
+
+		mSessionActive = false;
+		resetOutput();
+
 		mAudioManager.abandonAudioFocus(mOuterEventsListener);
 		internalStop();
+
+		if (wasActive) {
+			logMetrics();
+		}
 	}
 
 	private void internalStop() {
-		mPlayer.stop();
+		mStopRequested = true;
+		mMetrics.onStopped(SystemClock.elapsedRealtime());
+
+		mWatchdog.stop();
+		mHandler.removeCallbacks(mWatchdogRunnable);
+		closeStandby();
+		stopFadingEngine();
+
+		if (cancelReconnect()) {
+			// Engine isn't running, so nobody else will report it
+			mStateManager.setState(PlayerState.STOPPED);
+		}
+
+		if (mEngine != null) {
+			rememberTimeShiftPosition();
+			mEngine.stop();
+		}
+	}
+
+	/**
+	 * Active network changed: sockets of old network may be dead without any error.
+	 * New connections are opened in background, playing continues from them
+	 * before buffered data runs out
+	 */
+	public void onNetworkChanged() {
+		if (! mSessionActive || mStopRequested) return;
+
+		PlaybackEngine engine = mEngine;
+		StreamConnection connection = (engine != null) ? engine.getConnection() : null;
+
+		if (connection != null && connection.reconnect()) {
+			Log.i("Player", "Network changed, reconnecting " + connection.getQuality());
+		}
+
+		// Standby connection is cheap to reopen
+		closeStandby();
+		updateStandby();
 	}
 
 	public void onDestroy() {
 		stop();
+		closeTimeShift();
+
+		if (mRecorder != null) {
+			mRecorder.stop();
+		}
 	}
 
 	/**
-	 * Called when wrapped player started playing
+	 * Called when engine started playing
 	 */
-	@Override
-	public void playerStarted() {
+	private void playerStarted() {
         mPlaying = true;
-		mStateManager.setState(PlayerState.PLAYING);
+		mMetrics.onStarted(SystemClock.elapsedRealtime());
+
+		long playRequestTime = mPlayRequestTime;
+		if (playRequestTime >= 0 && mTimeToStartMs < 0) {
+			mTimeToStartMs = SystemClock.elapsedRealtime() - playRequestTime;
+		}
+
+		// Don't notify again after stream switch, song info is kept
+		if (mStateManager.getState() != PlayerState.PLAYING) {
+			mStateManager.setState(PlayerState.PLAYING);
+		}
+
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				updateStandby();
+			}
+		});
 	}
 
 	/**
-	 * Some PCM buffer state, disinterested with stream
+	 * PCM buffer state. Called periodically while playing.
+	 * Audio is being played, so connection is healthy again.
+	 * In adaptive mode buffer health is used to select stream quality.
+	 * Buffered frames are dropped if playback lags behind live edge too much
 	 *
-	 * @param b
-	 * @param i
-	 * @param i2
+	 * @param isPlaying true if audio track is playing
+	 * @param audioBufferSizeMs buffered PCM data in ms
+	 * @param audioBufferCapacityMs PCM buffer capacity in ms
 	 */
-	@Override
-	public void playerPCMFeedBuffer(boolean b, int i, int i2) {}
+	private void playerPCMFeedBuffer(boolean isPlaying, int audioBufferSizeMs, int audioBufferCapacityMs) {
+		if (isPlaying && mReconnectPolicy.isRetrying()) {
+			mReconnectPolicy.reset();
+		}
+
+		StreamConnection connection = mEngine.getConnection();
+
+		if (connection != null) {
+			mMetrics.onBufferSample(SystemClock.elapsedRealtime(), connection.getQuality(),
+					connection.getQueuedChunks(), connection.getBuffer(), audioBufferSizeMs);
+		}
+
+		if (mAdaptive && connection != null) {
+			JitterBuffer buffer = connection.getBuffer();
+
+			int targetKbps = mQualityController.onSample(SystemClock.elapsedRealtime(),
+					buffer.getReceivedBytes(), buffer.getNetworkMs(), buffer.getFilledMs() + audioBufferSizeMs);
+			final StreamQuality target = StreamQuality.fromKbps(targetKbps);
+
+			if (target != null) {
+				Log.i("Adaptive stream", "Switching to " + target + ", throughput "
+						+ mQualityController.getThroughputKbps() + " kbps, capacity "
+						+ mQualityController.getCapacityKbps() + " kbps");
+
+				mHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						if (mAdaptive && mSessionActive && mStreamQuality != target) {
+							setStreamQuality(target);
+						}
+					}
+				});
+			}
+		}
+
+		// Lag is intended in time-shift mode
+		if (connection != null && connection.getTimeShift() == null && PrefManager.isLiveCatchUp()) {
+			int dropMs = mLatencyController.onSample(SystemClock.elapsedRealtime(),
+					connection.getBuffer().getFilledMs(), audioBufferSizeMs);
+
+			if (dropMs > 0) {
+				Log.i("Latency", "Catching up: latency " + mLatencyController.getLatencyMs() + " ms, dropping "
+						+ dropMs + " ms");
+
+				connection.getFrameSyncStream().dropFrames(dropMs);
+			}
+		}
+	}
 
 	/**
-	 * Wrapped player stopped playing
+	 * Returns last measured playback latency: buffered data between network and output
 	 *
-	 * @param i don't know :)
+	 * @return latency in ms
 	 */
-	@Override
-	public void playerStopped(int i) {
+	public int getLatencyMs() {
+		return mLatencyController.getLatencyMs();
+	}
+
+	/**
+	 * First PCM data of current engine was written to audio output.
+	 * Time from play() is measured once per play() call
+	 *
+	 * @param time time of first PCM write (monotonic, in ms)
+	 */
+	private void onFirstAudio(long time) {
+		long playRequestTime = mPlayRequestTime;
+		if (playRequestTime < 0) return;
+
+		mPlayRequestTime = -1;
+		mTimeToFirstAudioMs = time - playRequestTime;
+
+		Log.i("Player", "Time to first audio: " + mTimeToFirstAudioMs + " ms (started in " + mTimeToStartMs + " ms)");
+
+		FlurryClient.Event.AUDIO_STARTED.builder()
+				.param(FlurryClient.Event.KEY_TIME_TO_START, String.valueOf(mTimeToStartMs))
+				.param(FlurryClient.Event.KEY_TIME_TO_AUDIO, String.valueOf(mTimeToFirstAudioMs))
+				.param(FlurryClient.Event.KEY_ENGINE, mEngine.getName())
+				.param(FlurryClient.Event.KEY_WHAT, (mStreamQuality == StreamQuality.HQ)
+						? FlurryClient.Event.VALUE_WHAT_HQ : FlurryClient.Event.VALUE_WHAT_LQ)
+				.log();
+	}
+
+	/**
+	 * Returns time from last play() call to first audio
+	 *
+	 * @return time to first audio in ms or -1 if not measured yet
+	 */
+	public long getTimeToFirstAudioMs() {
+		return mTimeToFirstAudioMs;
+	}
+
+	/**
+	 * Returns frame sync stage of played connection: counters
+	 * of damaged frames and bytes, which were skipped
+	 *
+	 * @return frame sync stage or null if not playing
+	 */
+	public FrameSyncInputStream getFrameSync() {
+		PlaybackEngine engine = mEngine;
+		StreamConnection connection = (engine != null) ? engine.getConnection() : null;
+
+		return (connection != null) ? connection.getFrameSyncStream() : null;
+	}
+
+	/**
+	 * Returns playback health metrics of current (or last) session
+	 *
+	 * @return metrics snapshot
+	 */
+	public PlaybackMetrics.Snapshot getMetrics() {
+		return mMetrics.getSnapshot(SystemClock.elapsedRealtime());
+	}
+
+	/**
+	 * Write playback health of finished session to log and statistics
+	 */
+	private void logMetrics() {
+		PlaybackMetrics.Snapshot metrics = getMetrics();
+		if (metrics.playingMs <= 0) return;
+
+		Log.i("Player", "Playback health: " + metrics + ", suppressed song updates: " + mSuppressedSongUpdates);
+
+		if (AppConfig.DEBUG) {
+			Log.d("Player", "Buffer pools: " + BufferPool.BYTES + ", " + BufferPool.PCM + ", " + BufferPool.DIRECT);
+		}
+
+		FlurryClient.Event.PLAYBACK_HEALTH.builder()
+				.param(FlurryClient.Event.KEY_UNDERRUNS, String.valueOf(metrics.underruns))
+				.param(FlurryClient.Event.KEY_STALLS, String.valueOf(metrics.stalls))
+				.param(FlurryClient.Event.KEY_REBUFFER_PERCENT,
+						String.valueOf(Math.round(metrics.getRebufferRatio() * 100)))
+				.param(FlurryClient.Event.KEY_MAX_STALL, String.valueOf(metrics.maxStallMs))
+				.log();
+	}
+
+	/**
+	 * Returns count of repeated song metadata, which wasn't sent to observers
+	 *
+	 * @return suppressed song updates count
+	 */
+	public int getSuppressedSongUpdates() {
+		return mSuppressedSongUpdates;
+	}
+
+	/**
+	 * Returns last automatic stream switches (for diagnostics)
+	 *
+	 * @return adaptive mode decisions, oldest first
+	 */
+	public List<AdaptiveQualityController.Decision> getQualityDecisions() {
+		return mQualityController.getDecisions();
+	}
+
+	/**
+	 * Engine stopped playing
+	 */
+	private void playerStopped() {
         mPlaying = false;
+		mMetrics.onStopped(SystemClock.elapsedRealtime());
+		stopFadingEngine();
+
+		if (mSessionActive && ! mStopRequested) {
+			// Stream broke or ended without our request
+			if (! scheduleReconnect()) {
+				error(Error.CONNECTION_ERROR);
+			}
+			return;
+		}
 
 		if (mStateManager.getState() == PlayerState.PLAYING) {
 			internalStop();
 		}
 		mStateManager.setState(PlayerState.STOPPED);
-
-		if (mRestartPlay) {
-			internalPlay();
-
-			mRestartPlay = false;
-		}
 	}
 
 	/**
-	 * Wrapped player exception occurred
+	 * Engine exception occurred
 	 *
 	 * @param throwable throwable exception instance
 	 */
-	@Override
-	public void playerException(Throwable throwable) {
+	private void playerException(Throwable throwable) {
         mPlaying = false;
+		mMetrics.onStopped(SystemClock.elapsedRealtime());
+
+		Logger.log(throwable);
+		stopFadingEngine();
+
+		if (mStopRequested) {
+			// Connection was closed by stop request
+			return;
+		}
+
+		PlaybackEngine engine = mEngine;
+		StreamConnection connection = (engine != null) ? engine.getConnection() : null;
+		if (connection != null) {
+			// Reconnect starts on other mirror
+			markMirrorFailed(connection);
+		}
+
+		if (mSessionActive && ! mStopRequested && scheduleReconnect()) {
+			return;
+		}
 
 		if (throwable instanceof ConnectException) {
 			error(Error.CONNECTION_ERROR);
 		} else {
 			error(Error.ANY_ERROR);
 		}
+	}
 
-		Logger.log(throwable);
+	/**
+	 * Schedule reconnect with backoff delay, if retry window isn't exceeded.
+	 * Called from engine threads
+	 *
+	 * @return true if reconnect is scheduled
+	 */
+	private synchronized boolean scheduleReconnect() {
+		if (mReconnectPending) {
+			return true;
+		}
+
+		long delay = mReconnectPolicy.nextDelay(SystemClock.elapsedRealtime());
+		if (delay < 0) {
+			return false;
+		}
+
+		mReconnectPending = true;
+		mStateManager.setState(PlayerState.RECONNECTING);
+		mHandler.postDelayed(mReconnectRunnable, delay);
+
+		return true;
+	}
+
+	/**
+	 * Move mirror of failed or stalled connection to the end of mirrors list
+	 *
+	 * @param connection failed connection
+	 */
+	private void markMirrorFailed(StreamConnection connection) {
+		String uri = connection.getUri();
+
+		if (uri != null && connection.getQuality().mirrors.size() > 1) {
+			mMirrors.onFailed(uri);
+		}
+	}
+
+	/**
+	 * Periodic check of stream progress. Watchdog is restarted while
+	 * data isn't expected: connecting, reconnecting, output paused
+	 */
+	private void checkStall() {
+		if (! mSessionActive || mStopRequested) {
+			mWatchdog.stop();
+			return;
+		}
+
+		long now = SystemClock.elapsedRealtime();
+		PlaybackEngine engine = mEngine;
+		StreamConnection connection = (engine != null) ? engine.getConnection() : null;
+
+		if (connection == null || ! connection.isOpened() || mOutputPaused || mReconnectPending) {
+			mWatchdog.restart(now);
+		} else {
+			long stalledMs = mWatchdog.check(now, connection.getReceivedBytes());
+
+			if (stalledMs >= 0) {
+				onStall(engine, connection, stalledMs);
+			}
+		}
+
+		mHandler.postDelayed(mWatchdogRunnable, StallWatchdog.CHECK_INTERVAL_MS);
+	}
+
+	/**
+	 * Stream stalled: report it and reconnect at once (with backoff if stalls repeat)
+	 *
+	 * @param engine current engine
+	 * @param connection stalled connection
+	 * @param stalledMs time without progress in ms
+	 */
+	private void onStall(PlaybackEngine engine, StreamConnection connection, long stalledMs) {
+		Log.w("Player", "Stream " + connection.getQuality() + " stalled for " + stalledMs + " ms, reconnecting");
+
+		mMetrics.onStall(stalledMs);
+
+		FlurryClient.Event.STREAM_STALLED.builder()
+				.param(FlurryClient.Event.KEY_STALL_DURATION, String.valueOf(stalledMs))
+				.param(FlurryClient.Event.KEY_WHAT, (connection.getQuality() == StreamQuality.HQ)
+						? FlurryClient.Event.VALUE_WHAT_HQ : FlurryClient.Event.VALUE_WHAT_LQ)
+				.log();
+
+		markMirrorFailed(connection);
+
+		TimeShiftBuffer timeShift = connection.getTimeShift();
+
+		if (timeShift != null && timeShift.isAlive()) {
+			// Only downloading is stalled: buffer reconnects in background (if it isn't
+			// reconnecting already), audio behind live edge keeps playing from the same position
+			connection.reconnect();
+			mWatchdog.restart(SystemClock.elapsedRealtime());
+			return;
+		}
+
+		if (timeShift != null) {
+			// Buffer can't download anymore, it will be reopened at live edge
+			closeTimeShift();
+		}
+
+		if (scheduleReconnect()) {
+			engine.stop();
+		} else {
+			error(Error.CONNECTION_ERROR);
+		}
+	}
+
+	/**
+	 * Cancel scheduled reconnect
+	 *
+	 * @return true if reconnect was scheduled
+	 */
+	private synchronized boolean cancelReconnect() {
+		if (! mReconnectPending) {
+			return false;
+		}
+
+		mReconnectPending = false;
+		mHandler.removeCallbacks(mReconnectRunnable);
+
+		return true;
+	}
+
+	/**
+	 * Jitter buffer fill level or buffering state changed
+	 *
+	 * @param buffer changed buffer
+	 */
+	private void onBufferChanged(JitterBuffer buffer) {
+		mMetrics.onBufferingChanged(SystemClock.elapsedRealtime(), buffer, buffer.isBuffering());
+		mStateManager.setBufferState(buffer.getFilledMs(), buffer.getPrebufferMs(), buffer.isBuffering());
 	}
 
 	/**
@@ -211,46 +883,53 @@ public class PlayerManager implements RequestObserver, PlayerCallback {
 	}
 
 	/**
-	 * Wrapped player metadata changed: {key -> value} pairs.
+	 * Engine metadata changed: {key -> value} pairs.
 	 * Cyrillic symbols are not decoded correct, so I parse
 	 * metadata from "StreamUrl"
 	 *
-	 * For example:
-	 * &artist=James%20Brown&title=I%20Got%20You%20%28I%20Feel%20Good%29
+	 * @see StreamUrlParser
 	 *
 	 * @param key metadata key
 	 * @param value metadata value
 	 */
-	@Override
-	public void playerMetadata(String key, String value) {
-		if (key != null && key.equals("StreamUrl")) {
-			SongInfo songInfo = new SongInfo();
-
-			String[] urlElements = value.split("&");
-			for (String s : urlElements) {
-				if (s == null) continue;
-
-				String[] parts = s.split("=");
-				if (parts.length >= 2) {
-					if (parts[0].equals("artist")) {
-						try {
-							songInfo.setArtist(URLDecoder.decode(parts[1], "Windows-1251"));
-						} catch (UnsupportedEncodingException e) {
-							e.printStackTrace();
-						}
-					} else if (parts[0].equals("title")) {
-						try {
-							songInfo.setTitle(URLDecoder.decode(parts[1], "Windows-1251"));
-						} catch (UnsupportedEncodingException e) {
-							e.printStackTrace();
-						}
-					}
-				}
+	private void playerMetadata(String key, String value) {
+		if (key != null && key.equals(StreamUrlParser.KEY)) {
+			// Server repeats metadata every metaint block: skip parsing if song is shown already
+			boolean songShown = mStateManager.isPlaying() && mStateManager.getData() instanceof SongInfo;
+			if (songShown && mLastStreamUrl != null && mLastStreamUrl.equals(value)) {
+				mSuppressedSongUpdates++;
+				return;
 			}
 
+			SongInfo songInfo = mStreamUrlParser.parse(value);
+
 			if (! songInfo.isEmpty()) {
+				// Other raw value of the same song (other encoding or whitespace)
+				if (songShown && songInfo.equals(mStateManager.getData())) {
+					mLastStreamUrl = value;
+					mSuppressedSongUpdates++;
+					return;
+				}
+
 //				Log.d("Player", "Song changed --> " + songInfo);
+				mLastStreamUrl = value;
 				mStateManager.setState(PlayerState.PLAYING, songInfo);
+
+				String songName = songInfo.toString();
+				if (! songName.equals(mLastSongName)) {
+					mLastSongName = songName;
+
+					StreamRecorder recorder = mRecorder;
+					PlaybackEngine engine = mEngine;
+					StreamConnection connection = (engine != null) ? engine.getConnection() : null;
+
+					if (recorder != null && connection != null) {
+						// Segment starts when frames reach metadata, not when it's received
+						recorder.onSongChanged(songName, connection.getMetadataPosition());
+					} else if (recorder != null) {
+						recorder.onSongChanged(songName);
+					}
+				}
 			}
 		}
 	}
@@ -277,6 +956,29 @@ public class PlayerManager implements RequestObserver, PlayerCallback {
 			case SET_LQ_STREAM:
 				setStreamQuality(StreamQuality.LQ);
 				break;
+			case TOGGLE_ADAPTIVE_STREAM:
+				mAdaptive = PrefManager.isAdaptiveStream();
+				break;
+			case TOGGLE_WARM_STANDBY:
+				updateStandby();
+				break;
+			case TOGGLE_RECORDING:
+				toggleRecording();
+				break;
+			case TOGGLE_TIME_SHIFT:
+				if (mSessionActive && ! mStopRequested) {
+					// Switch current stream to or from time-shift buffer
+					restartEngine();
+				} else {
+					closeTimeShift();
+				}
+				break;
+			case TIME_SHIFT_BACK:
+				seekTimeShiftBack(TIME_SHIFT_SEEK_MS);
+				break;
+			case TIME_SHIFT_LIVE:
+				seekTimeShiftLive();
+				break;
 			case PLAYER_PAUSE:
 				stop();
 				break;
@@ -290,15 +992,327 @@ public class PlayerManager implements RequestObserver, PlayerCallback {
 	}
 
 	/**
-	 * Change playing stream
+	 * Change playing stream. If playing, new engine is started at once
+	 * (with pre-buffered standby connection if available). Old engine keeps
+	 * playing until new one decodes first samples and then is crossfaded
 	 *
 	 * @param streamQuality selected stream
 	 */
 	private void setStreamQuality(StreamQuality streamQuality) {
 		mStreamQuality = streamQuality;
 
-		mRestartPlay = true;
-		internalStop();
+		if (! mSessionActive || mStopRequested) {
+			return;
+		}
+
+		cancelReconnect();
+
+		PlaybackEngine oldEngine = mEngine;
+
+		if (oldEngine != null && mPlaying) {
+			stopFadingEngine();
+
+			synchronized (this) {
+				mFadingEngine = oldEngine;
+			}
+
+			internalPlay(takeStandby(streamQuality), 0f);
+		} else {
+			internalPlay(takeStandby(streamQuality), 1f);
+
+			if (oldEngine != null) {
+				oldEngine.stop();
+			}
+		}
+	}
+
+	/**
+	 * New engine wrote first samples: fade it in and fade out previous one.
+	 * Previous engine is stopped when its audio output buffer is played out
+	 *
+	 * @param engine current engine
+	 */
+	private void startCrossfade(PlaybackEngine engine) {
+		if (! mOutputPaused) {
+			engine.fadeTo(mOutputGain, CROSSFADE_MS);
+		}
+
+		PlaybackEngine fadingEngine = getFadingEngine();
+		if (fadingEngine != null) {
+			fadingEngine.fadeTo(0f, CROSSFADE_MS);
+
+			mHandler.removeCallbacks(mStopFadingRunnable);
+			mHandler.postDelayed(mStopFadingRunnable, CROSSFADE_MS + fadingEngine.getOutputLatencyMs());
+		}
+	}
+
+	private synchronized PlaybackEngine getFadingEngine() {
+		return mFadingEngine;
+	}
+
+	/**
+	 * Stop engine of previous stream, if crossfade is in progress
+	 */
+	private void stopFadingEngine() {
+		PlaybackEngine fadingEngine;
+
+		synchronized (this) {
+			fadingEngine = mFadingEngine;
+			mFadingEngine = null;
+		}
+
+		mHandler.removeCallbacks(mStopFadingRunnable);
+
+		if (fadingEngine != null) {
+			fadingEngine.stop();
+		}
+	}
+
+	/**
+	 * Change output gain of current engine smoothly (for ducking)
+	 *
+	 * @param gain output gain [0..1]
+	 */
+	private void setOutputGain(float gain) {
+		if (mOutputGain == gain) return;
+
+		mOutputGain = gain;
+
+		PlaybackEngine engine = mEngine;
+		if (engine != null && ! mOutputPaused) {
+			engine.fadeTo(gain, FOCUS_FADE_MS);
+		}
+	}
+
+	/**
+	 * Pause or resume output of current engine. Connection keeps buffering while paused
+	 *
+	 * @param paused true to pause
+	 */
+	private void setOutputPaused(boolean paused) {
+		if (mOutputPaused == paused) return;
+
+		mOutputPaused = paused;
+
+		if (! paused) {
+			mHandler.removeCallbacks(mTransientPauseExpiredRunnable);
+		}
+
+		PlaybackEngine engine = mEngine;
+		if (engine == null) return;
+
+		if (paused) {
+			engine.pauseOutput(FOCUS_FADE_MS);
+		} else {
+			engine.resumeOutput();
+			engine.fadeTo(mOutputGain, FOCUS_FADE_MS);
+		}
+	}
+
+	/**
+	 * Forget ducking and transient pause (on user request)
+	 */
+	private void resetOutput() {
+		mHandler.removeCallbacks(mTransientPauseExpiredRunnable);
+		mOutputPaused = false;
+		mOutputGain = 1f;
+	}
+
+	/**
+	 * Open pre-buffered connection to alternate stream if warm standby is enabled,
+	 * close it if disabled
+	 */
+	private void updateStandby() {
+		// Time-shift buffer is kept for one stream only
+		if (! mSessionActive || mStopRequested || ! PrefManager.isWarmStandby() || PrefManager.isTimeShift()) {
+			closeStandby();
+			return;
+		}
+
+		StreamQuality alternate = (mStreamQuality == StreamQuality.HQ) ? StreamQuality.LQ : StreamQuality.HQ;
+
+		if (mStandby != null && mStandby.getQuality() == alternate) {
+			return;
+		}
+
+		closeStandby();
+
+		mStandby = new StreamConnection(alternate, PrefManager.getPrebufferMs(), PrefManager.getLowWaterMs());
+		mStandby.setTimeouts(PrefManager.getConnectTimeoutMs(), PrefManager.getReadTimeoutMs());
+		mStandby.setStaged(PrefManager.isStagedPipeline());
+		mStandby.setMirrorSelector(mMirrors);
+		mStandby.openStandby();
+	}
+
+	/**
+	 * Take standby connection, if it's opened for selected stream
+	 *
+	 * @param streamQuality selected stream
+	 * @return opened connection or null
+	 */
+	private StreamConnection takeStandby(StreamQuality streamQuality) {
+		StreamConnection standby = mStandby;
+		mStandby = null;
+
+		if (standby != null && standby.getQuality() == streamQuality && standby.isOpened()) {
+			return standby;
+		}
+
+		if (standby != null) {
+			standby.close();
+		}
+
+		return null;
+	}
+
+	/**
+	 * Close standby connection
+	 */
+	private void closeStandby() {
+		if (mStandby != null) {
+			mStandby.close();
+			mStandby = null;
+		}
+	}
+
+	/**
+	 * Returns time-shift buffer for stream, creates new one if stream changed
+	 * or downloading failed. Buffer isn't opened here, because it's blocking
+	 *
+	 * @param streamQuality played stream
+	 * @return time-shift buffer
+	 */
+	private TimeShiftBuffer obtainTimeShift(StreamQuality streamQuality) {
+		mHandler.removeCallbacks(mTimeShiftExpiredRunnable);
+
+		if (mTimeShift != null && mTimeShift.getQuality() == streamQuality && mTimeShift.isAlive()) {
+			return mTimeShift;
+		}
+
+		closeTimeShift();
+
+		mTimeShift = new TimeShiftBuffer(new File(mContext.getCacheDir(), TIME_SHIFT_FILE),
+				streamQuality, PrefManager.getTimeShiftWindowMs());
+		mTimeShift.setTimeouts(PrefManager.getConnectTimeoutMs(), PrefManager.getReadTimeoutMs());
+		mTimeShift.setStaged(PrefManager.isStagedPipeline());
+		mTimeShift.setMirrorSelector(mMirrors);
+
+		return mTimeShift;
+	}
+
+	/**
+	 * Stop time-shift downloading and forget pause position
+	 */
+	private void closeTimeShift() {
+		mHandler.removeCallbacks(mTimeShiftExpiredRunnable);
+		mTimeShiftPosition = TimeShiftBuffer.POSITION_LIVE;
+
+		if (mTimeShift != null) {
+			mTimeShift.close();
+			mTimeShift = null;
+		}
+	}
+
+	/**
+	 * Store position of current engine in time-shift buffer, so playing
+	 * will be resumed from it. Buffer is closed if pause is longer than window
+	 */
+	private void rememberTimeShiftPosition() {
+		StreamConnection connection = mEngine.getConnection();
+		TimeShiftBuffer timeShift = (connection != null) ? connection.getTimeShift() : null;
+
+		if (timeShift == null) return;
+
+		long position = connection.getTimeShiftPosition();
+		if (position >= 0) {
+			mTimeShiftPosition = position;
+		}
+
+		mHandler.removeCallbacks(mTimeShiftExpiredRunnable);
+		mHandler.postDelayed(mTimeShiftExpiredRunnable, timeShift.getWindowMs());
+	}
+
+	/**
+	 * Returns position in time-shift buffer, which is played now
+	 * or will be played after resume
+	 *
+	 * @return stream position or -1 if not in time-shift mode
+	 */
+	private long getTimeShiftPosition() {
+		if (mTimeShift == null) return -1;
+
+		PlaybackEngine engine = mEngine;
+		StreamConnection connection = (engine != null) ? engine.getConnection() : null;
+
+		if (mSessionActive && ! mStopRequested && connection != null && connection.getTimeShift() == mTimeShift) {
+			return connection.getTimeShiftPosition();
+		}
+
+		return (mTimeShiftPosition != TimeShiftBuffer.POSITION_LIVE)
+				? mTimeShiftPosition : mTimeShift.getLivePosition();
+	}
+
+	/**
+	 * Returns delay of played audio from live edge in time-shift mode
+	 *
+	 * @return delay in ms, 0 if not in time-shift mode
+	 */
+	public int getTimeShiftDelayMs() {
+		long position = getTimeShiftPosition();
+
+		return (position >= 0) ? mTimeShift.getDelayMs(position) : 0;
+	}
+
+	/**
+	 * Move time-shift position back (within window)
+	 *
+	 * @param deltaMs seek step in ms
+	 */
+	private void seekTimeShiftBack(int deltaMs) {
+		long position = getTimeShiftPosition();
+		if (position < 0) return;
+
+		int delayMs = mTimeShift.getDelayMs(position) + deltaMs;
+		seekTimeShift(mTimeShift.getPositionForDelay(delayMs));
+	}
+
+	/**
+	 * Move time-shift position to live edge. Prebuffer depth is kept,
+	 * so playing starts at once
+	 */
+	private void seekTimeShiftLive() {
+		if (mTimeShift == null) return;
+
+		seekTimeShift(mTimeShift.getPositionForDelay(PrefManager.getPrebufferMs()));
+	}
+
+	/**
+	 * Set time-shift position. If playing, new engine is started from it
+	 *
+	 * @param position stream position
+	 */
+	private void seekTimeShift(long position) {
+		mTimeShiftPosition = position;
+
+		if (mSessionActive && ! mStopRequested) {
+			restartEngine();
+		}
+	}
+
+	/**
+	 * Replace current engine with new one without crossfade
+	 */
+	private void restartEngine() {
+		cancelReconnect();
+		stopFadingEngine();
+
+		PlaybackEngine oldEngine = mEngine;
+
+		internalPlay();
+
+		if (oldEngine != null) {
+			oldEngine.stop();
+		}
 	}
 
 	/**
@@ -312,6 +1326,46 @@ public class PlayerManager implements RequestObserver, PlayerCallback {
 		}
 	}
 
+	/**
+	 * Start or stop recording of played stream into files
+	 */
+	private void toggleRecording() {
+		if (mRecorder == null) {
+			File directory = mContext.getExternalFilesDir(Environment.DIRECTORY_MUSIC);
+
+			if (directory == null) {
+				Toaster.getInstance().send(mContext.getString(R.string.recording_unavailable));
+				return;
+			}
+
+			mRecorder = new StreamRecorder(directory);
+			mRecorder.onSongChanged(mLastSongName);
+			setRecorderConnection(mEngine, mRecorder);
+		}
+
+		if (mRecorder.isRecording()) {
+			mRecorder.stop();
+			Toaster.getInstance().send(mContext.getString(R.string.recording_stopped));
+		} else {
+			mRecorder.start();
+			Toaster.getInstance().send(mContext.getString(R.string.recording_started));
+		}
+	}
+
+	/**
+	 * Attach recorder to connection played by engine
+	 *
+	 * @param engine playback engine, may be null
+	 * @param recorder recorder or null to detach
+	 */
+	private static void setRecorderConnection(PlaybackEngine engine, StreamRecorder recorder) {
+		StreamConnection connection = (engine != null) ? engine.getConnection() : null;
+
+		if (connection != null) {
+			connection.getFrameSyncStream().setFrameListener(recorder);
+		}
+	}
+
 	/**
 	 * Toggle player state
 	 */
@@ -322,27 +1376,49 @@ public class PlayerManager implements RequestObserver, PlayerCallback {
 				play();
 				break;
 			case PLAYING:
+			case RECONNECTING:
 				stop();
 				break;
 		}
 	}
 
 	/**
-	 * Stream quality
+	 * Stream quality. Codec (MP3 or AAC/HE-AAC) is detected by response
+	 * Content-Type, so uri may point to any of them.
+	 *
+	 * Stream may have several mirrors, MirrorSelector chooses the fastest one
 	 */
 	public static enum StreamQuality {
-		LQ("http://77.47.130.190:8000/64kbps"),
-		HQ("http://77.47.130.190:8000/radiokpi");
+		LQ(64, "http://77.47.130.190:8000/64kbps"),
+		HQ(128, "http://77.47.130.190:8000/radiokpi");
 
-		public final String uri;
+		/** Mirror uris in preferred order */
+		public final List<String> mirrors;
+		/** Stream bitrate */
+		public final int kbps;
 
-		private StreamQuality(String uri) {
-			this.uri = uri;
+		private StreamQuality(int kbps, String... mirrors) {
+			this.mirrors = Collections.unmodifiableList(Arrays.asList(mirrors));
+			this.kbps = kbps;
 		}
 
 		public static StreamQuality getDefault() {
 			return LQ;
 		}
+
+		/**
+		 * Find stream by bitrate
+		 *
+		 * @param kbps stream bitrate
+		 * @return stream or null if there isn't such stream
+		 */
+		public static StreamQuality fromKbps(int kbps) {
+			for (StreamQuality quality : values()) {
+				if (quality.kbps == kbps) return quality;
+			}
+
+			return null;
+		}
 	}
 
 	/**
@@ -0,0 +1,555 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.components.player;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Network connection to stream with own jitter buffer.
+ * Lives independently from decoder, so it can be opened and
+ * pre-buffered in background and handed to player later.
+ *
+ * In time-shift mode data is read from TimeShiftBuffer instead of network,
+ * so closing connection doesn't stop downloading.
+ *
+ * @author dector
+ */
+public class StreamConnection {
+
+	private static final String LOG_TAG = "Stream connection";
+
+	/** Announced bitrates outside of this range are ignored */
+	private static final int MIN_BITRATE_KBPS = 8;
+	private static final int MAX_BITRATE_KBPS = 512;
+
+	/** Connected stream */
+	private final PlayerManager.StreamQuality mQuality;
+	/** Buffer between network and decoder */
+	private final JitterBuffer mBuffer;
+	/** Passes only valid MP3 frames from buffer to decoder */
+	private final FrameSyncInputStream mFrameSync;
+
+	/** Network reader, which can switch to new connection */
+	private SplicingSource mReader;
+
+	/** Time-shift buffer or null if connection reads network directly */
+	private final TimeShiftBuffer mTimeShift;
+	/** Time-shift start position */
+	private final long mTimeShiftPosition;
+	/** Time-shift reader, set when opened */
+	private volatile TimeShiftBuffer.Reader mTimeShiftReader;
+
+	/** Receives metadata when connection is active */
+	private volatile IcyChannelReader.MetadataListener mMetadataListener;
+	/** Last received metadata values, replayed on activation */
+	private final Map<String, String> mLastMetadata = new LinkedHashMap<String, String>();
+	/** Stream position (in buffer reader coordinates) of last metadata */
+	private volatile long mMetadataPosition;
+
+	private volatile boolean mOpened;
+	private volatile boolean mClosed;
+
+	/** Stream codec, known after connection was opened */
+	private volatile StreamCodec mCodec = StreamCodec.MP3;
+	/** Stream bitrate in kbps, announced by server after connection was opened */
+	private volatile int mBitrateKbps;
+
+	private int mConnectTimeoutMs = IcyChannelReader.DEFAULT_CONNECT_TIMEOUT_MS;
+	private int mReadTimeoutMs = IcyChannelReader.DEFAULT_READ_TIMEOUT_MS;
+	/** True if network is read in own thread */
+	private boolean mStaged;
+
+	/** Chooses mirror for network readers */
+	private MirrorSelector mMirrors = new MirrorSelector(MirrorSelector.DEFAULT_TTL_MS);
+	/** Last created network reader, closed with connection if it's still connecting */
+	private IcyChannelReader mConnectingReader;
+
+	/** Creates network readers of connected stream */
+	private final MirrorSelector.ReaderFactory mReaderFactory = new MirrorSelector.ReaderFactory() {
+		@Override
+		public IcyChannelReader create(String uri) {
+			IcyChannelReader reader = new IcyChannelReader(uri, new MetadataCallback());
+			reader.setTimeouts(mConnectTimeoutMs, mReadTimeoutMs);
+			reader.setStaged(mStaged);
+
+			synchronized (StreamConnection.this) {
+				if (mClosed) return null;
+
+				mConnectingReader = reader;
+			}
+
+			return reader;
+		}
+	};
+
+	/**
+	 * Create new connection. Call open() to connect
+	 *
+	 * @param quality stream to connect
+	 * @param prebufferMs jitter buffer prebuffer depth in ms
+	 * @param lowWaterMs jitter buffer low-water mark in ms
+	 */
+	public StreamConnection(PlayerManager.StreamQuality quality, int prebufferMs, int lowWaterMs) {
+		this(quality, null, TimeShiftBuffer.POSITION_LIVE, prebufferMs, lowWaterMs);
+	}
+
+	/**
+	 * Create new time-shift connection. Call open() to start reading.
+	 * Time-shift buffer is opened if needed
+	 *
+	 * @param timeShift time-shift buffer
+	 * @param position start position or TimeShiftBuffer.POSITION_LIVE
+	 * @param prebufferMs jitter buffer prebuffer depth in ms
+	 * @param lowWaterMs jitter buffer low-water mark in ms
+	 */
+	public StreamConnection(TimeShiftBuffer timeShift, long position, int prebufferMs, int lowWaterMs) {
+		this(timeShift.getQuality(), timeShift, position, prebufferMs, lowWaterMs);
+	}
+
+	private StreamConnection(PlayerManager.StreamQuality quality, TimeShiftBuffer timeShift, long position,
+	                         int prebufferMs, int lowWaterMs) {
+		mQuality = quality;
+		mBitrateKbps = quality.kbps;
+		mTimeShift = timeShift;
+		mTimeShiftPosition = position;
+		mBuffer = new JitterBuffer(quality.kbps * 1000 / 8, JitterBuffer.DEFAULT_CAPACITY_MS,
+				prebufferMs, lowWaterMs);
+		mFrameSync = new FrameSyncInputStream(mBuffer.getInputStream());
+	}
+
+	/**
+	 * Returns connected stream
+	 *
+	 * @return connected stream
+	 */
+	public PlayerManager.StreamQuality getQuality() {
+		return mQuality;
+	}
+
+	/**
+	 * Returns stream bitrate: announced by server or nominal bitrate of quality
+	 * until connection is opened
+	 *
+	 * @return bitrate in kbps
+	 */
+	public int getBitrateKbps() {
+		return mBitrateKbps;
+	}
+
+	/**
+	 * Returns bitrate announced by reader's server, nominal bitrate of quality otherwise
+	 *
+	 * @param reader connected reader
+	 * @param quality connected stream
+	 * @return bitrate in kbps
+	 */
+	static int negotiatedKbps(IcyChannelReader reader, PlayerManager.StreamQuality quality) {
+		int kbps = reader.getBitrateKbps();
+
+		return (kbps >= MIN_BITRATE_KBPS && kbps <= MAX_BITRATE_KBPS) ? kbps : quality.kbps;
+	}
+
+	/**
+	 * Returns stream codec. Valid after connection was opened
+	 *
+	 * @return stream codec
+	 */
+	public StreamCodec getCodec() {
+		return mCodec;
+	}
+
+	/**
+	 * Returns jitter buffer of this connection
+	 *
+	 * @return jitter buffer
+	 */
+	public JitterBuffer getBuffer() {
+		return mBuffer;
+	}
+
+	/**
+	 * Returns true if connection was opened and isn't closed yet
+	 *
+	 * @return true if connection can be used
+	 */
+	public boolean isOpened() {
+		return mOpened && ! mClosed;
+	}
+
+	/**
+	 * Set network timeouts. Should be called before open()
+	 *
+	 * @param connectTimeoutMs connect timeout in ms
+	 * @param readTimeoutMs max time without data from server in ms
+	 */
+	public void setTimeouts(int connectTimeoutMs, int readTimeoutMs) {
+		mConnectTimeoutMs = connectTimeoutMs;
+		mReadTimeoutMs = readTimeoutMs;
+	}
+
+	/**
+	 * Turn on/off staged mode: network is read in own thread and passed
+	 * to demuxing through bounded queue. Should be called before open()
+	 *
+	 * @param staged true to read network in own thread
+	 */
+	public void setStaged(boolean staged) {
+		mStaged = staged;
+	}
+
+	/**
+	 * Set mirror selector shared between connections. Should be called before open()
+	 *
+	 * @param mirrors mirror selector
+	 */
+	public void setMirrorSelector(MirrorSelector mirrors) {
+		mMirrors = mirrors;
+	}
+
+	/**
+	 * Returns count of network chunks, which wait for demuxing
+	 *
+	 * @return network queue depth, 0 if not in staged mode
+	 */
+	public int getQueuedChunks() {
+		if (mTimeShift != null) {
+			return mTimeShift.getQueuedChunks();
+		}
+
+		IcyChannelReader reader = getNetworkReader();
+
+		return (reader != null) ? reader.getQueuedChunks() : 0;
+	}
+
+	/**
+	 * Returns count of bytes received from network.
+	 * In time-shift mode it's live position of time-shift buffer
+	 *
+	 * @return received bytes
+	 */
+	public long getReceivedBytes() {
+		return (mTimeShift != null) ? mTimeShift.getLivePosition() : mBuffer.getReceivedBytes();
+	}
+
+	/**
+	 * Returns time-shift buffer of this connection
+	 *
+	 * @return time-shift buffer or null if connection reads network directly
+	 */
+	public TimeShiftBuffer getTimeShift() {
+		return mTimeShift;
+	}
+
+	/**
+	 * Returns time-shift position of data, which is passed to decoder now
+	 *
+	 * @return stream position or -1 if not in time-shift mode or not opened
+	 */
+	public long getTimeShiftPosition() {
+		TimeShiftBuffer.Reader reader = mTimeShiftReader;
+
+		if (reader == null) return -1;
+
+		return reader.getPosition() - mBuffer.getFilledBytes();
+	}
+
+	/**
+	 * Connect, read ICY headers and start filling jitter buffer. Blocking
+	 *
+	 * @throws IOException if connection failed
+	 */
+	public void open() throws IOException {
+		if (mTimeShift != null) {
+			openTimeShift();
+			return;
+		}
+
+		IcyChannelReader reader = mMirrors.connect(mQuality, mReaderFactory);
+		if (reader == null) return;
+
+		setCodec(StreamCodec.fromContentType(reader.getHeader("Content-Type")));
+		mBitrateKbps = negotiatedKbps(reader, mQuality);
+		mBuffer.setBytesPerSecond(mBitrateKbps * 1000 / 8);
+
+		SplicingSource source = new SplicingSource(reader, new SplicingSource.Connector() {
+			@Override
+			public JitterBuffer.Source connect() throws IOException {
+				IcyChannelReader reader = mMirrors.connect(mQuality, mReaderFactory);
+				if (reader == null) {
+					throw new IOException("Connection closed");
+				}
+
+				return reader;
+			}
+		});
+
+		synchronized (this) {
+			if (mClosed) {
+				source.close();
+				return;
+			}
+
+			mReader = source;
+			mBuffer.start(source);
+			mOpened = true;
+		}
+	}
+
+	/**
+	 * Open new network connection in background and continue buffering from it,
+	 * old connection is used until new one is ready. In time-shift mode
+	 * time-shift buffer reconnects
+	 *
+	 * @return false if connection isn't opened or already reconnecting
+	 */
+	public boolean reconnect() {
+		if (mTimeShift != null) {
+			return mTimeShift.reconnect();
+		}
+
+		SplicingSource reader;
+
+		synchronized (this) {
+			if (! isOpened()) return false;
+
+			reader = mReader;
+		}
+
+		return reader.reconnect();
+	}
+
+	/**
+	 * Returns mirror uri of current network reader
+	 *
+	 * @return mirror uri or null if not connected
+	 */
+	public String getUri() {
+		if (mTimeShift != null) {
+			return mTimeShift.getUri();
+		}
+
+		IcyChannelReader reader = getNetworkReader();
+
+		return (reader != null) ? reader.getUri() : null;
+	}
+
+	/**
+	 * Returns current network reader
+	 *
+	 * @return network reader or null if not opened
+	 */
+	private synchronized IcyChannelReader getNetworkReader() {
+		JitterBuffer.Source source = (mReader != null) ? mReader.getSource() : null;
+
+		return (source instanceof IcyChannelReader) ? (IcyChannelReader) source : null;
+	}
+
+	/**
+	 * Set negotiated codec: frames of this codec are synced and counted for fast start
+	 *
+	 * @param codec stream codec
+	 */
+	private void setCodec(StreamCodec codec) {
+		mCodec = codec;
+		mBuffer.setCodec(codec);
+		mFrameSync.setCodec(codec);
+	}
+
+	/**
+	 * Open time-shift buffer if needed and start reading it
+	 *
+	 * @throws IOException if time-shift buffer can't be opened
+	 */
+	private void openTimeShift() throws IOException {
+		mTimeShift.open();
+
+		setCodec(mTimeShift.getCodec());
+		mBitrateKbps = mTimeShift.getBitrateKbps();
+		mBuffer.setBytesPerSecond(mBitrateKbps * 1000 / 8);
+
+		TimeShiftBuffer.Reader reader = mTimeShift.openReader(mTimeShiftPosition, new MetadataCallback());
+
+		synchronized (this) {
+			if (mClosed) {
+				reader.close();
+				return;
+			}
+
+			mTimeShiftReader = reader;
+			mBuffer.start(reader);
+			mOpened = true;
+		}
+	}
+
+	/**
+	 * Open connection in background thread and keep it in standby:
+	 * jitter buffer drops oldest data when full, metadata is only stored
+	 */
+	public void openStandby() {
+		mBuffer.setDropOldest(true);
+
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					open();
+				} catch (IOException e) {
+					Log.w(LOG_TAG, "Standby connection to " + mQuality + " failed: " + e);
+					close();
+				}
+			}
+		}, "StandbyConnection").start();
+	}
+
+	/**
+	 * Make connection active: metadata and buffer state are passed to player
+	 *
+	 * @param metadataListener stream metadata listener
+	 * @param bufferListener jitter buffer state listener
+	 */
+	public void activate(IcyChannelReader.MetadataListener metadataListener, JitterBuffer.Listener bufferListener) {
+		mBuffer.setDropOldest(false);
+		mBuffer.setListener(bufferListener);
+
+		Map<String, String> metadata;
+
+		synchronized (this) {
+			mMetadataListener = metadataListener;
+
+			metadata = new LinkedHashMap<String, String>(mLastMetadata);
+		}
+
+		for (Map.Entry<String, String> entry : metadata.entrySet()) {
+			metadataListener.onMetadata(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Returns position of last received metadata in stream, which is read
+	 * from buffer (see FrameSyncInputStream.FrameListener positions).
+	 * Metadata is received ahead of playback by buffered data
+	 *
+	 * @return stream position in bytes
+	 */
+	public long getMetadataPosition() {
+		return mMetadataPosition;
+	}
+
+	/**
+	 * Returns stream, which reads buffered data
+	 *
+	 * @return buffered stream
+	 */
+	public InputStream getInputStream() {
+		return mBuffer.getInputStream();
+	}
+
+	/**
+	 * Returns stream for decoder: frame sync stage (MP3 or ADTS frames)
+	 *
+	 * @return decoder input stream
+	 */
+	public InputStream getDecoderStream() {
+		return mFrameSync;
+	}
+
+	/**
+	 * Returns stream, which reads only valid frames (of stream codec) from buffer.
+	 * Damaged frames are skipped
+	 *
+	 * @return frame sync stream
+	 */
+	public FrameSyncInputStream getFrameSyncStream() {
+		return mFrameSync;
+	}
+
+	/**
+	 * Close connection and release buffer
+	 */
+	public void close() {
+		SplicingSource reader;
+		IcyChannelReader connectingReader;
+
+		synchronized (this) {
+			if (mClosed) return;
+
+			mClosed = true;
+			reader = mReader;
+			connectingReader = mConnectingReader;
+		}
+
+		if (connectingReader != null) {
+			// Release connecting thread
+			connectingReader.close();
+		}
+
+		IcyChannelReader networkReader = getNetworkReader();
+		String queueStats = (networkReader != null) ? networkReader.getQueueStats() : null;
+		if (queueStats != null) {
+			Log.i(LOG_TAG, mQuality + ": network queue " + queueStats);
+		}
+
+		mBuffer.close();
+
+		if (reader != null) {
+			// Buffer closes reader only if it was started
+			reader.close();
+		}
+
+		if (mFrameSync.getSkippedBytes() > 0) {
+			Log.i(LOG_TAG, mQuality + ": skipped " + mFrameSync.getSkippedFrames() + " damaged frames, "
+					+ mFrameSync.getSkippedBytes() + " bytes");
+		}
+	}
+
+	/**
+	 * Receives metadata from ICY stream and forwards it to player if connection is active
+	 */
+	private class MetadataCallback implements IcyChannelReader.MetadataListener {
+
+		@Override
+		public void onMetadata(String key, String value) {
+			IcyChannelReader.MetadataListener listener;
+
+			// Called by filling thread between source reads: all data before metadata is in buffer
+			long position = mBuffer.getStreamPosition();
+
+			synchronized (StreamConnection.this) {
+				mLastMetadata.put(key, value);
+				mMetadataPosition = position;
+
+				listener = mMetadataListener;
+			}
+
+			if (listener != null) {
+				listener.onMetadata(key, value);
+			}
+		}
+	}
+}
@@ -0,0 +1,199 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.components.player;
+
+import com.spoledge.aacdecoder.PCMFeed;
+import com.spoledge.aacdecoder.PlayerCallback;
+
+/**
+ * PCM feed with gain control. Gain is changed smoothly (per sample),
+ * so it can be used for crossfading between two players.
+ *
+ * Output can be paused: it's faded out and then decoder thread is blocked,
+ * so decoder stops reading stream and data stays buffered
+ *
+ * @author dector
+ */
+public class StreamPCMFeed extends PCMFeed {
+
+	/**
+	 * Listener of first decoded data
+	 */
+	public interface Listener {
+
+		/**
+		 * Called from decoder thread when first PCM data is written to feed
+		 */
+		public void onFirstSamples();
+	}
+
+	/** Current gain, changed only from decoder thread */
+	private float mGain;
+	/** Target gain */
+	private volatile float mTargetGain;
+	/** Gain change per sample */
+	private volatile float mGainStep;
+
+	/** First samples listener */
+	private Listener mListener;
+	/** True after first samples were fed */
+	private boolean mStarted;
+
+	/** Guards pause state */
+	private final Object mPauseLock = new Object();
+	/** True while output is paused */
+	private boolean mPaused;
+	/** True if feed was released and decoder should stop */
+	private boolean mReleased;
+
+	/**
+	 * Create new instance
+	 *
+	 * @param sampleRate sample rate in Hz
+	 * @param channels channels count
+	 * @param bufferSizeInBytes audio track buffer size
+	 * @param callback player callback
+	 * @param gain initial gain [0..1]
+	 * @param listener first samples listener, may be null
+	 */
+	public StreamPCMFeed(int sampleRate, int channels, int bufferSizeInBytes, PlayerCallback callback,
+	                     float gain, Listener listener) {
+		super(sampleRate, channels, bufferSizeInBytes, callback);
+
+		mGain = gain;
+		mTargetGain = gain;
+		mListener = listener;
+	}
+
+	/**
+	 * Change gain smoothly
+	 *
+	 * @param gain target gain [0..1]
+	 * @param durationMs fade duration in ms
+	 */
+	public void fadeTo(float gain, int durationMs) {
+		int samples = Math.max(1, msToSamples(durationMs, sampleRate, channels));
+
+		mGainStep = Math.abs(gain - mTargetGain) / samples;
+		mTargetGain = gain;
+	}
+
+	/**
+	 * Fade output out and then block decoder thread
+	 *
+	 * @param fadeMs fade duration in ms
+	 */
+	public void pause(int fadeMs) {
+		fadeTo(0f, fadeMs);
+
+		synchronized (mPauseLock) {
+			mPaused = true;
+		}
+	}
+
+	/**
+	 * Unblock decoder thread. Gain isn't restored, use fadeTo()
+	 */
+	public void resume() {
+		synchronized (mPauseLock) {
+			mPaused = false;
+			mPauseLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Unblock decoder thread and make feed stopped, so decoder ends
+	 */
+	public void release() {
+		synchronized (mPauseLock) {
+			mReleased = true;
+			mPauseLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Apply gain and pass samples to audio track.
+	 * Blocks after output is faded out on pause
+	 *
+	 * @param samples decoded samples
+	 * @param n samples count
+	 * @return false if feed was stopped
+	 */
+	@Override
+	public boolean feed(short[] samples, int n) {
+		applyGain(samples, n);
+
+		if (! mStarted) {
+			mStarted = true;
+
+			if (mListener != null) {
+				mListener.onFirstSamples();
+			}
+		}
+
+		return super.feed(samples, n) && waitWhilePaused();
+	}
+
+	/**
+	 * Block while output is paused and faded out
+	 *
+	 * @return false if feed was released
+	 */
+	private boolean waitWhilePaused() {
+		synchronized (mPauseLock) {
+			while (mPaused && mGain == 0f && ! mReleased) {
+				try {
+					mPauseLock.wait();
+				} catch (InterruptedException e) {
+					return false;
+				}
+			}
+
+			return ! mReleased;
+		}
+	}
+
+	private void applyGain(short[] samples, int n) {
+		float target = mTargetGain;
+		float gain = mGain;
+
+		if (gain == target && gain == 1f) {
+			return;
+		}
+
+		float step = mGainStep;
+
+		for (int i = 0; i < n; i++) {
+			if (gain < target) {
+				gain = Math.min(target, gain + step);
+			} else if (gain > target) {
+				gain = Math.max(target, gain - step);
+			}
+
+			samples[i] = (short) (samples[i] * gain);
+		}
+
+		mGain = gain;
+	}
+}
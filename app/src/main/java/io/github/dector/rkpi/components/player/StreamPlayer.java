@@ -0,0 +1,270 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.components.player;
+
+import android.util.Log;
+
+import com.spoledge.aacdecoder.AACPlayer;
+import com.spoledge.aacdecoder.Decoder;
+import com.spoledge.aacdecoder.PCMFeed;
+import com.spoledge.aacdecoder.PlayerCallback;
+
+/**
+ * Stream player, which decodes data from StreamConnection.
+ * Connection can be opened by player or handed to it already pre-buffered.
+ *
+ * Decoder is selected by stream codec (like MultiPlayer does by Content-Type)
+ *
+ * @author dector
+ */
+public class StreamPlayer extends AACPlayer {
+
+	private static final String LOG_TAG = "Stream player";
+
+	/** Jitter buffer state listener */
+	private JitterBuffer.Listener mBufferListener;
+	/** Stream metadata listener */
+	private IcyChannelReader.MetadataListener mMetadataListener;
+
+	/** Current connection */
+	private volatile StreamConnection mConnection;
+	/** Codec of current connection */
+	private StreamCodec mCodec = StreamCodec.MP3;
+
+	/** Output gain at start of playing */
+	private float mStartGain = 1f;
+	/** First decoded samples listener */
+	private StreamPCMFeed.Listener mSamplesListener;
+	/** Current PCM feed, null until decoding started */
+	private volatile StreamPCMFeed mFeed;
+	/** True if output is paused */
+	private volatile boolean mOutputPaused;
+	/** Decode buffers from BufferPool, null if not decoding */
+	private short[][] mDecodeBuffers;
+
+	/**
+	 * Create new instance
+	 *
+	 * @param callback player callback
+	 * @param bufferListener jitter buffer state listener
+	 * @param metadataListener stream metadata listener
+	 */
+	public StreamPlayer(PlayerCallback callback, JitterBuffer.Listener bufferListener,
+	                    IcyChannelReader.MetadataListener metadataListener) {
+		super(callback);
+
+		mBufferListener = bufferListener;
+		mMetadataListener = metadataListener;
+	}
+
+	/**
+	 * Set output gain at start of playing. Should be called before playAsync()
+	 *
+	 * @param gain gain [0..1]
+	 */
+	public void setStartGain(float gain) {
+		mStartGain = gain;
+	}
+
+	/**
+	 * Set listener, which is notified when first samples are decoded
+	 *
+	 * @param listener first samples listener
+	 */
+	public void setSamplesListener(StreamPCMFeed.Listener listener) {
+		mSamplesListener = listener;
+	}
+
+	/**
+	 * Change output gain smoothly. Ignored if decoding isn't started yet
+	 *
+	 * @param gain target gain [0..1]
+	 * @param durationMs fade duration in ms
+	 */
+	public void fadeTo(float gain, int durationMs) {
+		StreamPCMFeed feed = mFeed;
+
+		if (feed != null) {
+			feed.fadeTo(gain, durationMs);
+		}
+	}
+
+	/**
+	 * Fade output out and stop decoding, stream keeps buffering
+	 *
+	 * @param fadeMs fade duration in ms
+	 */
+	public void pauseOutput(int fadeMs) {
+		mOutputPaused = true;
+
+		StreamPCMFeed feed = mFeed;
+		if (feed != null) {
+			feed.pause(fadeMs);
+		}
+	}
+
+	/**
+	 * Continue decoding after pauseOutput(). Gain isn't restored, use fadeTo()
+	 */
+	public void resumeOutput() {
+		mOutputPaused = false;
+
+		StreamPCMFeed feed = mFeed;
+		if (feed != null) {
+			feed.resume();
+		}
+	}
+
+	/**
+	 * Returns played connection
+	 *
+	 * @return connection or null if not playing yet
+	 */
+	public StreamConnection getConnection() {
+		return mConnection;
+	}
+
+	/**
+	 * Start playing connection asynchronously. Connection is opened if needed
+	 * and closed when playing stopped
+	 *
+	 * @param connection opened or new connection
+	 */
+	public void playAsync(final StreamConnection connection) {
+		mConnection = connection;
+
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					play(connection);
+				} catch (Exception e) {
+					Log.e(LOG_TAG, "playAsync(): ", e);
+
+					if (playerCallback != null) {
+						playerCallback.playerException(e);
+					}
+				}
+			}
+		}, "StreamPlayer").start();
+	}
+
+	/**
+	 * Stop playing and close current connection, so decoder
+	 * isn't blocked by waiting for network data
+	 */
+	@Override
+	public void stop() {
+		super.stop();
+
+		StreamPCMFeed feed = mFeed;
+		if (feed != null) {
+			// Decoder thread may be blocked by pause
+			feed.release();
+		}
+
+		StreamConnection connection = mConnection;
+		if (connection != null) {
+			connection.close();
+		}
+	}
+
+	@Override
+	protected Decoder createDecoder() {
+		Decoder decoder = Decoder.createByName(mCodec.decoderName);
+
+		if (decoder == null) {
+			throw new RuntimeException("Decoder " + mCodec.decoderName + " not found");
+		}
+
+		return decoder;
+	}
+
+	@Override
+	protected short[][] createDecodeBuffers(int count, Decoder.Info info) {
+		int size = PCMFeed.msToSamples(decodeBufferCapacityMs, info.getSampleRate(), info.getChannels());
+
+		releaseDecodeBuffers();
+
+		mDecodeBuffers = new short[count][];
+		for (int i = 0; i < count; i++) {
+			mDecodeBuffers[i] = BufferPool.PCM.acquire(size);
+		}
+
+		return mDecodeBuffers;
+	}
+
+	@Override
+	protected PCMFeed createPCMFeed(Decoder.Info info) {
+		int bufferSizeInBytes = PCMFeed.msToBytes(audioBufferCapacityMs, info.getSampleRate(), info.getChannels());
+
+		mFeed = new StreamPCMFeed(info.getSampleRate(), info.getChannels(), bufferSizeInBytes, playerCallback,
+				mStartGain, mSamplesListener);
+
+		if (mOutputPaused) {
+			mFeed.pause(0);
+		}
+
+		return mFeed;
+	}
+
+	/**
+	 * Play connection in current thread
+	 *
+	 * @param connection opened or new connection
+	 * @throws Exception if connection or decoding failed
+	 */
+	private void play(StreamConnection connection) throws Exception {
+		try {
+			if (! connection.isOpened()) {
+				connection.open();
+			}
+
+			connection.activate(mMetadataListener, mBufferListener);
+
+			mCodec = connection.getCodec();
+			Log.i(LOG_TAG, "Playing " + connection.getQuality() + " (" + mCodec + ", " + connection.getBitrateKbps() + " kbps)");
+
+			play(connection.getDecoderStream(), connection.getBitrateKbps());
+		} finally {
+			connection.close();
+
+			// Decoding and PCM feed threads are finished here
+			releaseDecodeBuffers();
+		}
+	}
+
+	/**
+	 * Return decode buffers to pool
+	 */
+	private void releaseDecodeBuffers() {
+		if (mDecodeBuffers == null) return;
+
+		for (short[] buffer : mDecodeBuffers) {
+			BufferPool.PCM.release(buffer);
+		}
+
+		mDecodeBuffers = null;
+	}
+}
@@ -0,0 +1,413 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.components.player;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.Locale;
+
+/**
+ * Records frames (MP3 or ADTS), which are passed to decoder, into files without re-encoding.
+ *
+ * Frames are copied into ring buffer by decoder thread, which is never blocked:
+ * if writer falls behind, whole frames are dropped. Writer thread saves data
+ * with FileChannel. New file (segment) is started on song change and on frame
+ * format change (stream switch), segment boundary is always placed between frames.
+ *
+ * Song metadata is received ahead of decoder by buffered data, so song change
+ * waits until frames reach stream position of metadata.
+ *
+ * @author dector
+ */
+public class StreamRecorder implements FrameSyncInputStream.FrameListener {
+
+	private static final String LOG_TAG = "Stream recorder";
+
+	/** Ring buffer size, about 30 seconds of 128 kbps stream */
+	private static final int RING_SIZE = 512 * 1024;
+	/** Max length of song name in file name */
+	private static final int MAX_NAME_LENGTH = 64;
+
+	/**
+	 * Segment start mark
+	 */
+	private static class Marker {
+
+		/** Stream position where segment starts */
+		final long position;
+		/** Segment name, may be null */
+		final String name;
+
+		Marker(long position, String name) {
+			this.position = position;
+			this.name = name;
+		}
+	}
+
+	/**
+	 * Song change, which waits for frames
+	 */
+	private static class SongChange {
+
+		/** Position of song metadata in source stream of frames */
+		final long position;
+		/** Song name */
+		final String name;
+
+		SongChange(long position, String name) {
+			this.position = position;
+			this.name = name;
+		}
+	}
+
+	/** Directory for recorded files */
+	private final File mDirectory;
+
+	private final byte[] mRing = new byte[RING_SIZE];
+	/** View of ring buffer for FileChannel */
+	private final ByteBuffer mRingView = ByteBuffer.wrap(mRing);
+
+	/** Total bytes put into ring */
+	private long mWritten;
+	/** Total bytes saved by writer */
+	private long mSaved;
+	/** Bytes of dropped frames */
+	private long mDroppedBytes;
+
+	/** Pending segment starts */
+	private final LinkedList<Marker> mMarkers = new LinkedList<Marker>();
+	/** Song changes, which weren't reached by frames yet */
+	private final LinkedList<SongChange> mSongChanges = new LinkedList<SongChange>();
+	/** Name of next segment */
+	private String mSongName;
+	/** True if last frame was ADTS (AAC) frame */
+	private boolean mAdts;
+
+	private boolean mRecording;
+	private Thread mWriter;
+
+	/** Current segment file */
+	private File mFile;
+
+	/**
+	 * Create new instance
+	 *
+	 * @param directory directory for recorded files
+	 */
+	public StreamRecorder(File directory) {
+		mDirectory = directory;
+	}
+
+	/**
+	 * Start recording. First segment starts with next frame
+	 */
+	public synchronized void start() {
+		if (mRecording) return;
+
+		mRecording = true;
+
+		if (mWriter != null) {
+			// Previous writer is still saving data, it will continue with new segment
+			mMarkers.add(new Marker(mWritten, mSongName));
+			notifyAll();
+			return;
+		}
+
+		mWritten = 0;
+		mSaved = 0;
+		mDroppedBytes = 0;
+		mMarkers.clear();
+		mMarkers.add(new Marker(0, mSongName));
+
+		mWriter = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "StreamRecorder");
+		mWriter.start();
+	}
+
+	/**
+	 * Stop recording. Buffered frames are saved by writer before it finishes
+	 */
+	public synchronized void stop() {
+		mRecording = false;
+		notifyAll();
+	}
+
+	public synchronized boolean isRecording() {
+		return mRecording;
+	}
+
+	/**
+	 * Returns bytes of frames, which were dropped because writer didn't keep up
+	 *
+	 * @return dropped bytes count
+	 */
+	public synchronized long getDroppedBytes() {
+		return mDroppedBytes;
+	}
+
+	/**
+	 * Returns file, which is written now
+	 *
+	 * @return current segment file or null
+	 */
+	public synchronized File getFile() {
+		return mFile;
+	}
+
+	/**
+	 * Start new segment from next frame
+	 *
+	 * @param songName name of song, which is played now
+	 */
+	public synchronized void onSongChanged(String songName) {
+		mSongName = songName;
+
+		if (mRecording) {
+			mMarkers.add(new Marker(mWritten, songName));
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Start new segment from frame, which starts at or after metadata position
+	 *
+	 * @param songName name of new song
+	 * @param position position of song metadata in source stream of frames
+	 */
+	public synchronized void onSongChanged(String songName, long position) {
+		mSongChanges.addLast(new SongChange(position, songName));
+	}
+
+	/**
+	 * Frames will come from other source (new connection): its positions start
+	 * from zero, so waiting song changes are applied at once
+	 */
+	public synchronized void onSourceChanged() {
+		while (! mSongChanges.isEmpty()) {
+			onSongChanged(mSongChanges.removeFirst().name);
+		}
+	}
+
+	/**
+	 * Put frame into ring buffer. Called from decoder thread, never blocks
+	 *
+	 * @param data frame data array
+	 * @param offset frame offset
+	 * @param length frame length
+	 * @param position frame position in source stream
+	 */
+	@Override
+	public synchronized void onFrame(byte[] data, int offset, int length, long position) {
+		while (! mSongChanges.isEmpty() && mSongChanges.getFirst().position <= position) {
+			onSongChanged(mSongChanges.removeFirst().name);
+		}
+
+		if (! mRecording) return;
+
+		boolean adts = isAdts(data[offset + 1]);
+		if (adts != mAdts) {
+			// Other codec can't be appended to the same file
+			mAdts = adts;
+			mMarkers.add(new Marker(mWritten, mSongName));
+		}
+
+		if (mWritten - mSaved + length > RING_SIZE) {
+			mDroppedBytes += length;
+			return;
+		}
+
+		int ringPosition = (int) (mWritten % RING_SIZE);
+		int first = Math.min(length, RING_SIZE - ringPosition);
+
+		System.arraycopy(data, offset, mRing, ringPosition, first);
+		System.arraycopy(data, offset + first, mRing, 0, length - first);
+
+		mWritten += length;
+		notifyAll();
+	}
+
+	/**
+	 * Writer thread loop
+	 */
+	private void writeLoop() {
+		FileChannel channel = null;
+
+		try {
+			while (true) {
+				long start;
+				int count;
+				Marker marker = null;
+				boolean adts;
+
+				synchronized (this) {
+					while (mRecording && mSaved == mWritten) {
+						wait();
+					}
+
+					if (mSaved == mWritten) {
+						mMarkers.clear();
+						mWriter = null;
+						break;
+					}
+
+					// Only last of several song changes without data between is used
+					while (hasMarkerAt(mSaved)) {
+						marker = mMarkers.removeFirst();
+					}
+
+					start = mSaved;
+					adts = isAdts(mRing[(int) ((start + 1) % RING_SIZE)]);
+
+					long end = mWritten;
+					if (! mMarkers.isEmpty()) {
+						end = Math.min(end, mMarkers.getFirst().position);
+					}
+
+					int position = (int) (start % RING_SIZE);
+					count = (int) Math.min(end - start, RING_SIZE - position);
+				}
+
+				if (marker != null) {
+					closeChannel(channel);
+					channel = openSegment(marker.name, adts);
+				}
+
+				if (count > 0 && channel != null) {
+					int position = (int) (start % RING_SIZE);
+					mRingView.limit(position + count);
+					mRingView.position(position);
+
+					while (mRingView.hasRemaining()) {
+						channel.write(mRingView);
+					}
+				}
+
+				synchronized (this) {
+					mSaved += count;
+					notifyAll();
+				}
+			}
+		} catch (InterruptedException e) {
+			Log.w(LOG_TAG, "Writer interrupted");
+
+			synchronized (this) {
+				mRecording = false;
+				mMarkers.clear();
+				mWriter = null;
+			}
+		} catch (IOException e) {
+			Log.e(LOG_TAG, "Recording failed: " + e);
+
+			synchronized (this) {
+				mRecording = false;
+				mMarkers.clear();
+				mWriter = null;
+			}
+		} finally {
+			closeChannel(channel);
+
+			synchronized (this) {
+				if (mDroppedBytes > 0) {
+					Log.w(LOG_TAG, "Dropped " + mDroppedBytes + " bytes while recording");
+				}
+
+				mFile = null;
+			}
+		}
+	}
+
+	private boolean hasMarkerAt(long position) {
+		return ! mMarkers.isEmpty() && mMarkers.getFirst().position <= position;
+	}
+
+	/**
+	 * Returns true if frame is ADTS frame: its layer bits are 0, MPEG audio layers never are
+	 *
+	 * @param headerByte second byte of frame header
+	 * @return true for ADTS, false for MP3
+	 */
+	private static boolean isAdts(byte headerByte) {
+		return (headerByte & 0x06) == 0;
+	}
+
+	/**
+	 * Create file for new segment
+	 *
+	 * @param songName song name or null
+	 * @param adts true if segment starts with ADTS frame
+	 * @return file channel
+	 * @throws IOException if file can't be created
+	 */
+	private FileChannel openSegment(String songName, boolean adts) throws IOException {
+		if (! mDirectory.exists() && ! mDirectory.mkdirs()) {
+			throw new IOException("Can't create " + mDirectory);
+		}
+
+		String name = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+		if (songName != null && songName.length() > 0) {
+			name += " " + toFileName(songName);
+		}
+
+		String extension = (adts) ? ".aac" : ".mp3";
+
+		File file = new File(mDirectory, name + extension);
+		for (int i = 2; file.exists(); i++) {
+			file = new File(mDirectory, name + " (" + i + ")" + extension);
+		}
+
+		synchronized (this) {
+			mFile = file;
+		}
+
+		Log.i(LOG_TAG, "Recording to " + file);
+
+		return new FileOutputStream(file).getChannel();
+	}
+
+	private static String toFileName(String songName) {
+		String name = songName.replaceAll("[\\\\/:*?\"<>|\\p{Cntrl}]", "_").trim();
+
+		return (name.length() > MAX_NAME_LENGTH) ? name.substring(0, MAX_NAME_LENGTH) : name;
+	}
+
+	private static void closeChannel(FileChannel channel) {
+		if (channel == null) return;
+
+		try {
+			channel.close();
+		} catch (IOException ignored) {}
+	}
+}
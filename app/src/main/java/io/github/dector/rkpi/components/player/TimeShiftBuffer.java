@@ -0,0 +1,703 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.components.player;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+
+/**
+ * Disk-backed ring buffer of live stream, which allows to pause and seek back.
+ *
+ * Network data is written continuously into memory-mapped file, oldest data
+ * is overwritten when window is full. Players read it with independent readers,
+ * so playing can be stopped and resumed from any position within window while
+ * stream keeps downloading. Positions are absolute stream byte offsets.
+ *
+ * @author dector
+ */
+public class TimeShiftBuffer {
+
+	private static final String LOG_TAG = "Time shift";
+
+	/** Default window length in ms */
+	public static final int DEFAULT_WINDOW_MS = 10 * 60 * 1000;
+	/** Start position, which means live edge */
+	public static final long POSITION_LIVE = -1;
+
+	/** Max data length returned by reader at once */
+	private static final int MAX_CHUNK_SIZE = 16384;
+	/** Readers don't read oldest data in full window, because it will be overwritten soon */
+	private static final int GUARD_SIZE = 4 * MAX_CHUNK_SIZE;
+	/** Min stored metadata events count */
+	private static final int MIN_METADATA_EVENTS = 16;
+	/** Shortest expected metadata change interval (jingles), used to size stored events */
+	private static final int MIN_METADATA_INTERVAL_MS = 10000;
+	/** Metadata keys changed together (StreamTitle, StreamUrl) */
+	private static final int METADATA_KEYS = 2;
+
+	/**
+	 * Metadata value received at stream position
+	 */
+	private static class MetadataEvent {
+
+		final long position;
+		final String key;
+		final String value;
+
+		MetadataEvent(long position, String key, String value) {
+			this.position = position;
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	private final PlayerManager.StreamQuality mQuality;
+	private final File mFile;
+	private final int mWindowMs;
+	/** Ring capacity and byte rate, known after connection was opened (nominal bitrate before) */
+	private int mCapacity;
+	private int mBytesPerSecond;
+	/** Data length after oldest position, which isn't read in full window */
+	private int mGuardSize;
+	/** Stored metadata events count, enough for full window */
+	private final int mMaxMetadataEvents;
+
+	/** Guards opening, which is blocking */
+	private final Object mOpenLock = new Object();
+
+	private RandomAccessFile mRandomAccessFile;
+	private MappedByteBuffer mMap;
+	/** Network reader, which can switch to new connection */
+	private SplicingSource mNetworkReader;
+
+	/** Position of next received byte */
+	private long mLive;
+	/** Position of oldest stored byte */
+	private long mOldest;
+
+	private boolean mOpened;
+	private boolean mClosed;
+	/** Stream codec, known after buffer was opened */
+	private volatile StreamCodec mCodec = StreamCodec.MP3;
+
+	private int mConnectTimeoutMs = IcyChannelReader.DEFAULT_CONNECT_TIMEOUT_MS;
+	private int mReadTimeoutMs = IcyChannelReader.DEFAULT_READ_TIMEOUT_MS;
+	/** True if network is read in own thread */
+	private boolean mStaged;
+
+	/** Chooses mirror for network readers */
+	private MirrorSelector mMirrors = new MirrorSelector(MirrorSelector.DEFAULT_TTL_MS);
+	/** Last created network reader, closed with buffer if it's still connecting */
+	private IcyChannelReader mConnectingReader;
+
+	/** Creates network readers of buffered stream */
+	private final MirrorSelector.ReaderFactory mReaderFactory = new MirrorSelector.ReaderFactory() {
+		@Override
+		public IcyChannelReader create(String uri) {
+			IcyChannelReader reader = new IcyChannelReader(uri, new MetadataCallback());
+			reader.setTimeouts(mConnectTimeoutMs, mReadTimeoutMs);
+			reader.setStaged(mStaged);
+
+			synchronized (TimeShiftBuffer.this) {
+				if (mClosed) return null;
+
+				mConnectingReader = reader;
+			}
+
+			return reader;
+		}
+	};
+	private boolean mEndOfStream;
+	private IOException mError;
+
+	/** Last metadata events, oldest first */
+	private final LinkedList<MetadataEvent> mMetadata = new LinkedList<MetadataEvent>();
+
+	/**
+	 * Create new instance. Call open() to connect
+	 *
+	 * @param file file for ring buffer, it's deleted on close
+	 * @param quality stream to connect
+	 * @param windowMs window length in ms
+	 */
+	public TimeShiftBuffer(File file, PlayerManager.StreamQuality quality, int windowMs) {
+		mFile = file;
+		mQuality = quality;
+		mWindowMs = windowMs;
+		setBitrate(quality.kbps);
+		mMaxMetadataEvents = Math.max(MIN_METADATA_EVENTS, windowMs / MIN_METADATA_INTERVAL_MS * METADATA_KEYS);
+	}
+
+	/**
+	 * Returns connected stream
+	 *
+	 * @return connected stream
+	 */
+	public PlayerManager.StreamQuality getQuality() {
+		return mQuality;
+	}
+
+	/**
+	 * Set network timeouts. Should be called before open()
+	 *
+	 * @param connectTimeoutMs connect timeout in ms
+	 * @param readTimeoutMs max time without data from server in ms
+	 */
+	public void setTimeouts(int connectTimeoutMs, int readTimeoutMs) {
+		mConnectTimeoutMs = connectTimeoutMs;
+		mReadTimeoutMs = readTimeoutMs;
+	}
+
+	/**
+	 * Turn on/off staged mode: network is read in own thread.
+	 * Should be called before open()
+	 *
+	 * @param staged true to read network in own thread
+	 */
+	public void setStaged(boolean staged) {
+		mStaged = staged;
+	}
+
+	/**
+	 * Set mirror selector shared between connections. Should be called before open()
+	 *
+	 * @param mirrors mirror selector
+	 */
+	public void setMirrorSelector(MirrorSelector mirrors) {
+		mMirrors = mirrors;
+	}
+
+	/**
+	 * Returns mirror uri of current network reader
+	 *
+	 * @return mirror uri or null if not opened
+	 */
+	public String getUri() {
+		IcyChannelReader reader = getNetworkReader();
+
+		return (reader != null) ? reader.getUri() : null;
+	}
+
+	/**
+	 * Returns count of network chunks, which wait for writing to file
+	 *
+	 * @return network queue depth, 0 if not in staged mode
+	 */
+	public int getQueuedChunks() {
+		IcyChannelReader reader = getNetworkReader();
+
+		return (reader != null) ? reader.getQueuedChunks() : 0;
+	}
+
+	/**
+	 * Returns current network reader
+	 *
+	 * @return network reader or null if not opened
+	 */
+	private IcyChannelReader getNetworkReader() {
+		SplicingSource networkReader;
+
+		synchronized (this) {
+			networkReader = mNetworkReader;
+		}
+
+		JitterBuffer.Source source = (networkReader != null) ? networkReader.getSource() : null;
+
+		return (source instanceof IcyChannelReader) ? (IcyChannelReader) source : null;
+	}
+
+	/**
+	 * Map file, connect to stream and start downloading. Blocking.
+	 * Does nothing if already opened
+	 *
+	 * @throws IOException if file can't be mapped or connection failed
+	 */
+	public void open() throws IOException {
+		synchronized (mOpenLock) {
+			synchronized (this) {
+				if (mClosed) throw new IOException("Time shift buffer closed");
+				if (mOpened) return;
+			}
+
+			IcyChannelReader networkReader = mMirrors.connect(mQuality, mReaderFactory);
+			if (networkReader == null) throw new IOException("Time shift buffer closed");
+
+			mCodec = StreamCodec.fromContentType(networkReader.getHeader("Content-Type"));
+
+			int capacity;
+			synchronized (this) {
+				// Window is sized by real stream bitrate
+				setBitrate(StreamConnection.negotiatedKbps(networkReader, mQuality));
+				capacity = mCapacity;
+			}
+
+			MappedByteBuffer map;
+			RandomAccessFile randomAccessFile = new RandomAccessFile(mFile, "rw");
+			try {
+				randomAccessFile.setLength(capacity);
+				map = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+			} catch (IOException e) {
+				networkReader.close();
+				randomAccessFile.close();
+				throw e;
+			}
+
+			synchronized (this) {
+				mRandomAccessFile = randomAccessFile;
+				mMap = map;
+			}
+
+			SplicingSource source = new SplicingSource(networkReader, new SplicingSource.Connector() {
+				@Override
+				public JitterBuffer.Source connect() throws IOException {
+					IcyChannelReader reader = mMirrors.connect(mQuality, mReaderFactory);
+					if (reader == null) {
+						throw new IOException("Time shift buffer closed");
+					}
+
+					return reader;
+				}
+			});
+
+			synchronized (this) {
+				if (mClosed) {
+					source.close();
+					throw new IOException("Time shift buffer closed");
+				}
+
+				mNetworkReader = source;
+				mOpened = true;
+			}
+
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					writeLoop();
+				}
+			}, "TimeShift").start();
+		}
+	}
+
+	/**
+	 * Open new network connection in background and continue downloading from it
+	 * (old connection may be dead after network change)
+	 *
+	 * @return false if buffer isn't opened or already reconnecting
+	 */
+	public boolean reconnect() {
+		SplicingSource networkReader;
+
+		synchronized (this) {
+			if (! mOpened || mClosed || mEndOfStream) return false;
+
+			networkReader = mNetworkReader;
+		}
+
+		return networkReader.reconnect();
+	}
+
+	/**
+	 * Returns stream codec. Valid after buffer was opened
+	 *
+	 * @return stream codec
+	 */
+	public StreamCodec getCodec() {
+		return mCodec;
+	}
+
+	/**
+	 * Returns true if buffer isn't closed and stream is downloaded
+	 *
+	 * @return true if buffer can be used
+	 */
+	public synchronized boolean isAlive() {
+		return ! mClosed && ! mEndOfStream;
+	}
+
+	/**
+	 * Returns position of next received byte
+	 *
+	 * @return live edge position
+	 */
+	public synchronized long getLivePosition() {
+		return mLive;
+	}
+
+	/**
+	 * Returns position of oldest stored byte
+	 *
+	 * @return window start position
+	 */
+	public synchronized long getOldestPosition() {
+		return mOldest;
+	}
+
+	/**
+	 * Returns position, which is behind live edge by desired time (clamped to window)
+	 *
+	 * @param delayMs delay from live edge in ms
+	 * @return stream position
+	 */
+	public synchronized long getPositionForDelay(int delayMs) {
+		long position = mLive - (long) mBytesPerSecond * delayMs / 1000;
+
+		return Math.max(position, mOldest);
+	}
+
+	/**
+	 * Returns delay of position from live edge
+	 *
+	 * @param position stream position
+	 * @return delay in ms
+	 */
+	public synchronized int getDelayMs(long position) {
+		return (int) (Math.max(0, mLive - position) * 1000 / mBytesPerSecond);
+	}
+
+	/**
+	 * Returns window length
+	 *
+	 * @return window length in ms
+	 */
+	public int getWindowMs() {
+		return mWindowMs;
+	}
+
+	/**
+	 * Returns stream bitrate: announced by server after buffer was opened
+	 *
+	 * @return bitrate in kbps
+	 */
+	public synchronized int getBitrateKbps() {
+		return mBytesPerSecond * 8 / 1000;
+	}
+
+	/**
+	 * Size ring by stream bitrate. Called before ring is mapped
+	 *
+	 * @param kbps stream bitrate
+	 */
+	private void setBitrate(int kbps) {
+		mBytesPerSecond = kbps * 1000 / 8;
+		mCapacity = (int) ((long) mBytesPerSecond * mWindowMs / 1000);
+		mGuardSize = Math.min(GUARD_SIZE, mCapacity / 4);
+	}
+
+	/**
+	 * Create reader from position. Last metadata before position is passed to listener
+	 * on first reading, next metadata is passed when reader reaches its position
+	 *
+	 * @param position start position (clamped to window) or POSITION_LIVE
+	 * @param listener metadata listener
+	 * @return new reader
+	 */
+	public Reader openReader(long position, IcyChannelReader.MetadataListener listener) {
+		synchronized (this) {
+			if (position == POSITION_LIVE) {
+				position = mLive;
+			}
+
+			position = Math.min(Math.max(position, mOldest), mLive);
+		}
+
+		return new Reader(position, listener);
+	}
+
+	/**
+	 * Stop downloading, release readers and delete file
+	 */
+	public void close() {
+		SplicingSource networkReader;
+		IcyChannelReader connectingReader;
+		RandomAccessFile randomAccessFile;
+
+		synchronized (this) {
+			if (mClosed) return;
+
+			mClosed = true;
+			notifyAll();
+
+			networkReader = mNetworkReader;
+			connectingReader = mConnectingReader;
+			randomAccessFile = mRandomAccessFile;
+		}
+
+		if (connectingReader != null) {
+			// Release connecting thread
+			connectingReader.close();
+		}
+
+		if (networkReader != null) {
+			networkReader.close();
+		}
+
+		if (randomAccessFile != null) {
+			try {
+				randomAccessFile.close();
+			} catch (IOException ignored) {}
+		}
+
+		if (! mFile.delete()) {
+			Log.w(LOG_TAG, "Can't delete " + mFile);
+		}
+	}
+
+	/**
+	 * Downloading thread loop
+	 */
+	private void writeLoop() {
+		ByteBuffer view = mMap.duplicate();
+
+		try {
+			ByteBuffer data;
+
+			while ((data = mNetworkReader.read()) != null) {
+				while (data.hasRemaining()) {
+					int position;
+					int count;
+
+					synchronized (this) {
+						if (mClosed) return;
+
+						position = (int) (mLive % mCapacity);
+						count = Math.min(data.remaining(), mCapacity - position);
+
+						// Readers shouldn't start reading region, which is overwritten now
+						mOldest = Math.max(mOldest, mLive + count - mCapacity);
+					}
+
+					int limit = data.limit();
+					data.limit(data.position() + count);
+
+					view.clear();
+					view.position(position);
+					view.put(data);
+
+					data.limit(limit);
+
+					synchronized (this) {
+						mLive += count;
+						notifyAll();
+					}
+				}
+			}
+		} catch (IOException e) {
+			synchronized (this) {
+				if (! mClosed) {
+					Log.w(LOG_TAG, "Downloading failed: " + e);
+					mError = e;
+				}
+			}
+		} finally {
+			synchronized (this) {
+				mEndOfStream = true;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Reader of stored stream
+	 */
+	public class Reader implements JitterBuffer.Source {
+
+		private final ByteBuffer mView = mMap.duplicate();
+		private final IcyChannelReader.MetadataListener mListener;
+
+		/** Position of next read byte */
+		private volatile long mPosition;
+		/** Metadata is delivered up to this position */
+		private long mMetadataPosition;
+		/** Metadata events to deliver */
+		private final List<MetadataEvent> mPendingMetadata = new ArrayList<MetadataEvent>();
+		/** True if last metadata before current position should be delivered (at start or after skipping) */
+		private boolean mReplayMetadata = true;
+
+		private boolean mReaderClosed;
+
+		private Reader(long position, IcyChannelReader.MetadataListener listener) {
+			mPosition = position;
+			mMetadataPosition = position;
+			mListener = listener;
+		}
+
+		/**
+		 * Returns position of next read byte
+		 *
+		 * @return stream position
+		 */
+		public long getPosition() {
+			return mPosition;
+		}
+
+		@Override
+		public ByteBuffer read() throws IOException {
+			long position;
+			int count;
+
+			synchronized (TimeShiftBuffer.this) {
+				while (mPosition >= mLive && ! mEndOfStream && ! mClosed && ! mReaderClosed) {
+					try {
+						TimeShiftBuffer.this.wait();
+					} catch (InterruptedException e) {
+						throw new IOException("Interrupted");
+					}
+				}
+
+				if (mClosed || mReaderClosed) {
+					return null;
+				}
+
+				if (mPosition >= mLive) {
+					if (mError != null) throw mError;
+
+					return null;
+				}
+
+				long minPosition = (mLive - mOldest >= mCapacity) ? mOldest + mGuardSize : mOldest;
+				if (mPosition < minPosition) {
+					Log.w(LOG_TAG, "Reader is behind window, skipped " + (minPosition - mPosition) + " bytes");
+					mPosition = Math.min(minPosition, mLive);
+					// Skipped metadata isn't delivered, only last one
+					mReplayMetadata = true;
+				}
+
+				position = mPosition;
+				int ringPosition = (int) (position % mCapacity);
+				count = (int) Math.min(mLive - position, Math.min(MAX_CHUNK_SIZE, mCapacity - ringPosition));
+
+				collectMetadata(position);
+
+				// Chunk ends at next metadata, so it's delivered with its audio
+				for (MetadataEvent event : mMetadata) {
+					if (event.position > position && event.position < position + count) {
+						count = (int) (event.position - position);
+						break;
+					}
+				}
+			}
+
+			deliverMetadata();
+
+			int ringPosition = (int) (position % mCapacity);
+			mView.clear();
+			mView.position(ringPosition);
+			mView.limit(ringPosition + count);
+
+			mPosition = position + count;
+
+			return mView;
+		}
+
+		@Override
+		public void close() {
+			synchronized (TimeShiftBuffer.this) {
+				mReaderClosed = true;
+				TimeShiftBuffer.this.notifyAll();
+			}
+		}
+
+		/**
+		 * Collect metadata events up to position. Called under buffer lock
+		 *
+		 * @param position current position
+		 */
+		private void collectMetadata(long position) {
+			if (mReplayMetadata) {
+				mReplayMetadata = false;
+
+				long lastPosition = -1;
+				for (MetadataEvent event : mMetadata) {
+					if (event.position <= position) {
+						lastPosition = event.position;
+					}
+				}
+
+				for (MetadataEvent event : mMetadata) {
+					if (event.position == lastPosition) {
+						mPendingMetadata.add(event);
+					}
+				}
+
+				mMetadataPosition = position;
+			}
+
+			for (MetadataEvent event : mMetadata) {
+				if (event.position > mMetadataPosition && event.position <= position) {
+					mPendingMetadata.add(event);
+				}
+			}
+
+			mMetadataPosition = position;
+		}
+
+		private void deliverMetadata() {
+			if (mListener != null) {
+				for (MetadataEvent event : mPendingMetadata) {
+					mListener.onMetadata(event.key, event.value);
+				}
+			}
+
+			mPendingMetadata.clear();
+		}
+	}
+
+	/**
+	 * Stores metadata with stream position. Server repeats metadata every
+	 * metaint block, only changed values are stored
+	 */
+	private class MetadataCallback implements IcyChannelReader.MetadataListener {
+
+		@Override
+		public void onMetadata(String key, String value) {
+			synchronized (TimeShiftBuffer.this) {
+				ListIterator<MetadataEvent> iterator = mMetadata.listIterator(mMetadata.size());
+				while (iterator.hasPrevious()) {
+					MetadataEvent event = iterator.previous();
+
+					if (event.key.equals(key)) {
+						if (event.value.equals(value)) return;
+						break;
+					}
+				}
+
+				mMetadata.addLast(new MetadataEvent(mLive, key, value));
+
+				if (mMetadata.size() > mMaxMetadataEvents) {
+					mMetadata.removeFirst();
+				}
+			}
+		}
+	}
+}
@@ -27,6 +27,7 @@ import android.content.Context;
 import android.os.Handler;
 import android.os.Message;
 import android.view.Gravity;
+import android.view.View;
 import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.TextView;
@@ -46,6 +47,9 @@ import io.github.dector.rkpi.views.MarqueeTextView;
  */
 public final class MainLayout extends AbstractScalableLayout implements PlayerStateObserver {
 
+	/** Delay (in seconds), which is shown as live (prebuffered data) */
+	private static final int LIVE_DELAY_S = 5;
+
 	/** Info button */
 	private final Button mInfoButton;
 	/** Play button */
@@ -53,6 +57,8 @@ public final class MainLayout extends AbstractScalableLayout implements PlayerSt
 
 	/** Track name label */
 	private final TextView mTrackNameView;
+	/** Time-shift delay label (click - seek back, long click - go live) */
+	private final TextView mTimeShiftView;
 
 	/** Speaker image */
 	private final ImageView mSpeakerImage;
@@ -64,6 +70,8 @@ public final class MainLayout extends AbstractScalableLayout implements PlayerSt
 
 	/** True if was track name already displayed after playing started */
 	private boolean mTrackNameDisplayed;
+	/** Last displayed player state */
+	private PlayerState mState;
 
 	/**
 	 * Create new instance
@@ -99,6 +107,13 @@ public final class MainLayout extends AbstractScalableLayout implements PlayerSt
 		mTrackNameView.setGravity(Gravity.TOP | Gravity.CENTER_HORIZONTAL);
 		addView(mTrackNameView, new LayoutParams(0, 0, 0, 0));
 
+		mTimeShiftView = new TextView(context);
+		mTimeShiftView.setTypeface(ResManager.getInstance().getNormalTypeface());
+		mTimeShiftView.setTextSize(16);
+		mTimeShiftView.setGravity(Gravity.CENTER);
+		mTimeShiftView.setVisibility(View.GONE);
+		addView(mTimeShiftView, new LayoutParams(0, 0, 0, 0));
+
 		mHandler = createHandler();
 	}
 
@@ -109,6 +124,8 @@ public final class MainLayout extends AbstractScalableLayout implements PlayerSt
 				PlayerState state = PlayerState.values()[msg.what];
 				Object data = msg.obj;
 
+				mState = state;
+
 				switch (state) {
 					case STOPPED:
 						getPlayButton().setBackgroundResource(R.drawable.play);
@@ -144,6 +161,11 @@ public final class MainLayout extends AbstractScalableLayout implements PlayerSt
 							mTrackNameView.setText(trackTitle);
 						}
 						break;
+					case RECONNECTING:
+						getPlayButton().setBackgroundResource(R.drawable.pause);
+						mTrackNameView.setText(R.string.reconnecting);
+						mTrackNameDisplayed = false;
+						break;
 					default:
 						break;
 				}
@@ -173,6 +195,36 @@ public final class MainLayout extends AbstractScalableLayout implements PlayerSt
         return mTrackNameView;
     }
 
+	/**
+	 * Returns time-shift delay label
+	 *
+	 * @return time-shift label
+	 */
+	public TextView getTimeShiftView() {
+		return mTimeShiftView;
+	}
+
+	/**
+	 * Show delay of played audio from live edge
+	 *
+	 * @param delayMs delay in ms, negative to hide label (time-shift is disabled)
+	 */
+	public void setTimeShiftDelay(int delayMs) {
+		if (delayMs < 0) {
+			mTimeShiftView.setVisibility(View.GONE);
+			return;
+		}
+
+		int seconds = delayMs / 1000;
+		if (seconds < LIVE_DELAY_S) {
+			mTimeShiftView.setText(R.string.time_shift_live);
+		} else {
+			mTimeShiftView.setText(getResources().getString(R.string.time_shift_delay, seconds / 60, seconds % 60));
+		}
+
+		mTimeShiftView.setVisibility(View.VISIBLE);
+	}
+
 	/**
 	 * Configure layout with selected orientation
 	 *
@@ -265,6 +317,20 @@ public final class MainLayout extends AbstractScalableLayout implements PlayerSt
 				break;
 		}
 		mTrackNameView.setLayoutParams(lp);
+
+		lp = (LayoutParams) mTimeShiftView.getLayoutParams();
+		switch (orientation) {
+			case PORTRAIT_PHONE:
+				lp = new LayoutParams(140, 605, 200, 40).textSize(24);
+				break;
+			case PORTRAIT_TABLET:
+				lp = new LayoutParams(250, 945, 300, 30).textSize(30);
+				break;
+			case LANDSCAPE_TABLET:
+				lp = new LayoutParams(620, 305, 500, 35).textSize(30);
+				break;
+		}
+		mTimeShiftView.setLayoutParams(lp);
 	}
 
 	/**
@@ -279,6 +345,27 @@ public final class MainLayout extends AbstractScalableLayout implements PlayerSt
 		message.sendToTarget();
 	}
 
+	/**
+	 * Show buffering progress until track name is displayed
+	 *
+	 * @param filledMs buffered data length in ms
+	 * @param prebufferMs prebuffer depth in ms
+	 * @param buffering true if playback is held until prebuffer depth is collected
+	 */
+	@Override
+	public void onBufferChanged(final int filledMs, final int prebufferMs, final boolean buffering) {
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (mState == PlayerState.PLAYING && buffering && ! mTrackNameDisplayed && prebufferMs > 0) {
+					int percent = Math.min(100, filledMs * 100 / prebufferMs);
+
+					mTrackNameView.setText(getResources().getString(R.string.buffering, percent));
+				}
+			}
+		});
+	}
+
 	/**
 	 * Layout orientation
 	 */
@@ -26,6 +26,9 @@ package io.github.dector.rkpi.services;
 import android.app.Service;
 import android.content.Intent;
 import android.os.IBinder;
+import android.util.Log;
+
+import io.github.dector.rkpi.common.AppConfig;
 
 import io.github.dector.rkpi.common.PrefManager;
 import io.github.dector.rkpi.components.notifications.NotificationManager;
@@ -33,13 +36,14 @@ import io.github.dector.rkpi.components.notifications.Request;
 import io.github.dector.rkpi.components.notifications.RequestObserver;
 import io.github.dector.rkpi.components.notifications.RequestReceiver;
 import io.github.dector.rkpi.components.player.PlayerManager;
+import io.github.dector.rkpi.components.player.PlayerState;
 import io.github.dector.rkpi.components.player.PlayerStateObserver;
 import io.github.dector.rkpi.components.player.StateManager;
 
 /**
  * @author dector
  */
-public class ApplicationService extends Service implements RequestObserver {
+public class ApplicationService extends Service implements RequestObserver, ConnectivityReceiver.Listener {
 
     private boolean inited;
 
@@ -56,6 +60,9 @@ public class ApplicationService extends Service implements RequestObserver {
     /** Broadcast receiver to handle commands from notifications */
     private RequestReceiver mReceiver;
 
+    /** Broadcast receiver to reconnect stream after network change */
+    private ConnectivityReceiver mConnectivityReceiver;
+
 	public ApplicationService() {
 		mBinder = new Binder();
 	}
@@ -68,11 +75,16 @@ public class ApplicationService extends Service implements RequestObserver {
             mNotificationManager = new NotificationManager(this);
 
             mStateManager = new StateManager();
+            if (AppConfig.DEBUG) {
+                mStateManager.addObserver(new StateLogger());
+            }
             mStateManager.addObserver(mNotificationManager);
             mStateManager.forceNotify();
 
 	        mPlayerManager = new PlayerManager(this, mStateManager);
 
+	        mConnectivityReceiver = new ConnectivityReceiver(this, this);
+
             if (PrefManager.isForegroundEnabled()) {
                 startForeground();
             }
@@ -95,6 +107,17 @@ public class ApplicationService extends Service implements RequestObserver {
 		return Service.START_NOT_STICKY;
 	}
 
+	/**
+	 * Returns delay of played audio from live edge
+	 *
+	 * @return delay in ms, -1 if time-shift is disabled
+	 */
+	public int getTimeShiftDelayMs() {
+		if (! inited || ! PrefManager.isTimeShift()) return -1;
+
+		return mPlayerManager.getTimeShiftDelayMs();
+	}
+
 	public boolean isStoppable() {
 		return ! mPlayerManager.isPlaying();
 	}
@@ -113,6 +136,10 @@ public class ApplicationService extends Service implements RequestObserver {
         mReceiver.clearObservers();
         mReceiver.unregisterAndRelease();
 
+        if (mConnectivityReceiver != null) {
+            mConnectivityReceiver.unregisterAndRelease();
+        }
+
         super.onDestroy();
     }
 
@@ -135,12 +162,31 @@ public class ApplicationService extends Service implements RequestObserver {
 	    mPlayerManager.onRequestPerformed(request);
 	}
 
+    @Override
+    public void onNetworkChanged() {
+        mPlayerManager.onNetworkChanged();
+    }
+
     private void startForeground() {
         mNotificationManager.show();
 
         startForeground(1, mNotificationManager.getNotification());
     }
 
+    /**
+     * Logs player state changes (debug only)
+     */
+    private static class StateLogger implements PlayerStateObserver {
+
+        @Override
+        public void onStateChanged(PlayerState newState, Object data) {
+            Log.d("State metadata", "State changed to " + newState + " [" + data + "]");
+        }
+
+        @Override
+        public void onBufferChanged(int filledMs, int prebufferMs, boolean buffering) {}
+    }
+
     public class Binder extends android.os.Binder {
 		public ApplicationService getService() {
 			return ApplicationService.this;
@@ -0,0 +1,138 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.services;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.util.Log;
+
+/**
+ * BroadcastReceiver, which tracks active network and reports switching
+ * to other network (Wi-Fi to cellular and back). Connections of old network
+ * may be dead after switch without any error
+ *
+ * @author dector
+ */
+public class ConnectivityReceiver extends BroadcastReceiver {
+
+	private static final String LOG_TAG = "Connectivity";
+
+	/**
+	 * Active network listener
+	 */
+	public interface Listener {
+
+		/**
+		 * Other network was connected. Called from main thread
+		 */
+		public void onNetworkChanged();
+	}
+
+	/** Stored application context */
+	private Context mContext;
+
+	private Listener mListener;
+
+	/** Type of last connected network or -1 if there was no network */
+	private int mNetworkType = -1;
+	/** True if last network is still connected */
+	private boolean mConnected;
+
+	/**
+	 * Create new instance and register receiver
+	 *
+	 * @param context application context
+	 * @param listener active network listener
+	 */
+	public ConnectivityReceiver(Context context, Listener listener) {
+		mContext = context;
+		mListener = listener;
+
+		NetworkInfo networkInfo = getActiveNetworkInfo(context);
+		if (networkInfo != null && networkInfo.isConnected()) {
+			mNetworkType = networkInfo.getType();
+			mConnected = true;
+		}
+
+		context.registerReceiver(this, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+	}
+
+	/**
+	 * Prepare receiver to be destroyed: unregister receiver
+	 * and release stored context
+	 */
+	public void unregisterAndRelease() {
+		mContext.unregisterReceiver(this);
+		mContext = null;
+		mListener = null;
+	}
+
+	/**
+	 * BroadcastReceiver's method. Called when connectivity changed.
+	 * Notifies listener if other network became active
+	 *
+	 * @param context The Context in which the receiver is running.
+	 * @param intent The Intent being received.
+	 */
+	@Override
+	public void onReceive(Context context, Intent intent) {
+		NetworkInfo networkInfo = getActiveNetworkInfo(context);
+
+		if (networkInfo == null || ! networkInfo.isConnected()) {
+			mConnected = false;
+			return;
+		}
+
+		int type = networkInfo.getType();
+		// Connections of lost network are dead even if the same network type is back
+		if (type == mNetworkType && mConnected) return;
+
+		Log.i(LOG_TAG, "Active network changed to " + networkInfo.getTypeName());
+
+		boolean changed = mNetworkType != -1;
+		mNetworkType = type;
+		mConnected = true;
+
+		if (changed && mListener != null) {
+			mListener.onNetworkChanged();
+		}
+	}
+
+	/**
+	 * Returns active network info
+	 *
+	 * @param context context
+	 * @return active network info or null if there is no active network
+	 */
+	private static NetworkInfo getActiveNetworkInfo(Context context) {
+		ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(
+				Context.CONNECTIVITY_SERVICE);
+
+		return connectivityManager.getActiveNetworkInfo();
+	}
+}
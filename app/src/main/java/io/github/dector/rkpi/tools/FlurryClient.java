@@ -27,7 +27,6 @@ import android.content.Context;
 
 import com.flurry.android.FlurryAgent;
 
-import java.util.HashMap;
 import java.util.Map;
 
 import io.github.dector.rkpi.BuildConfig;
@@ -37,41 +36,18 @@ import io.github.dector.rkpi.BuildConfig;
  */
 public class FlurryClient {
 
-	public static class EventBuilder {
-
-		private Event mEvent;
-		private boolean mFinished;
-		private Map<String, String> mParams;
-
-		public EventBuilder(Event event) {
-			mEvent = event;
-			mParams = new HashMap<String, String>();
-		}
-
-		public EventBuilder finished() {
-			mFinished = true;
-
-			return this;
+	/** Sends built events to Flurry */
+	private static final EventBuilder.Sink SINK = new EventBuilder.Sink() {
+		@Override
+		public void log(String id, Map<String, String> params) {
+			FlurryAgent.logEvent(id, params);
 		}
 
-		public EventBuilder param(String key, String value) {
-			if (mParams == null) {
-				mParams = new HashMap<String, String>();
-			}
-
-			mParams.put(key, value);
-
-			return this;
+		@Override
+		public void logEnd(String id) {
+			FlurryAgent.endTimedEvent(id);
 		}
-
-		public void log() {
-			if (mFinished) {
-				FlurryClient.logEnd(mEvent);
-			} else {
-				FlurryClient.log(mEvent, mParams);
-			}
-		}
-	}
+	};
 
 	public static enum Event {
 		TOGGLE_PRESSED("Toggle pressed"),
@@ -84,11 +60,22 @@ public class FlurryClient {
 		APP_CLOSED("App closed"),
 		APP_LAUNCHED("App launched"),
 		INIT_APP("Init app"),
-		APP_ORIENTATION("App orientation");
+		APP_ORIENTATION("App orientation"),
+		AUDIO_STARTED("Audio started"),
+		PLAYBACK_HEALTH("Playback health"),
+		STREAM_STALLED("Stream stalled");
 
 		public static final String KEY_WHERE            = "Where";
 		public static final String KEY_WHAT             = "What";
 		public static final String KEY_TYPE             = "Type";
+		public static final String KEY_TIME_TO_START    = "Time to start";
+		public static final String KEY_TIME_TO_AUDIO    = "Time to audio";
+		public static final String KEY_ENGINE           = "Engine";
+		public static final String KEY_UNDERRUNS        = "Underruns";
+		public static final String KEY_STALLS           = "Stalls";
+		public static final String KEY_REBUFFER_PERCENT = "Rebuffer percent";
+		public static final String KEY_MAX_STALL        = "Max stall";
+		public static final String KEY_STALL_DURATION   = "Stall duration";
 
 		public static final String VALUE_WHERE_APP      = "App";
 		public static final String VALUE_WHERE_TRAY     = "Tray";
@@ -112,7 +99,7 @@ public class FlurryClient {
 		}
 
 		public EventBuilder builder() {
-			return new EventBuilder(this);
+			return new EventBuilder(id, SINK);
 		}
 	}
 
@@ -42,6 +42,11 @@ public class AbstractScalableLayout extends ViewGroup {
 	/** Base layout height */
 	protected int mLayoutHeight;
 
+	/** Children bounds calculator */
+	private final LayoutScaler mScaler = new LayoutScaler();
+	/** Scaled child bounds, reused for all children */
+	private final int[] mBounds = new int[4];
+
 	/**
 	 * New instance
 	 *
@@ -56,51 +61,22 @@ public class AbstractScalableLayout extends ViewGroup {
 	 */
 	@Override
 	protected void onLayout(boolean changed, int l, int t, int r, int b) {
-		int width = r - l;
-		int height = b - t;
-
-		float scaleX = (float) width / mLayoutWidth;
-		float scaleY = (float) height / mLayoutHeight;
-		float scaleProp = Math.min(scaleX, scaleY);
-
-		final boolean scaledByY = scaleY < scaleX;
+		mScaler.setSize(mLayoutWidth, mLayoutHeight, r - l, b - t);
 
 		for (int i = 0; i < getChildCount(); i++) {
 			View v = getChildAt(i);
 			LayoutParams lp = (LayoutParams) v.getLayoutParams();
 
-			float concreteXScale = (lp.scaleProportional) ? scaleProp : scaleX;
-			float concreteYScale = (lp.scaleProportional) ? scaleProp : scaleY;
-
-			int scaledWidth = (int) (lp.width * concreteXScale);
-			int scaledHeight = (int) (lp.height * concreteYScale);
-
-			/*int leftOffset = 0;
-			if (lp.scaleProportional) {
-//				leftOffset = (scaledByY)
-//						? scaledWidth - (int) (lp.width * scaleX) : ;
-				leftOffset = ((int) (lp.width * scaleX) - scaledWidth) / 2;
-				Log.d("Offset", "Left: " + leftOffset);
-			}*/
-
-			/*int leftOffset = (lp.alignRight)
-					? ((scaledByY) ? Math.abs(scaledWidth - (int) (lp.width * scaleX)) : 0)
-					: 0;*/
-
-			int left = /*leftOffset +*/ ((lp.centerHorizontal)
-					? (width - scaledWidth) / 2
-					: (int) (lp.x * scaleX));
-			int top = (lp.centerVertical)
-					? (height - scaledHeight) / 2
-					: (int) (lp.y * scaleY);
-			int right = left + scaledWidth;
-			int bottom = top + scaledHeight;
+			mScaler.scale(lp.x, lp.y, lp.width, lp.height,
+					lp.scaleProportional, lp.centerHorizontal, lp.centerVertical, mBounds);
 
 			if (lp.textSize > 0 && v instanceof TextView) {
-				((TextView) v).setTextSize(TypedValue.COMPLEX_UNIT_PX, (int) (lp.textSize * concreteYScale));
+				((TextView) v).setTextSize(TypedValue.COMPLEX_UNIT_PX,
+						(int) (lp.textSize * mScaler.getScaleY(lp.scaleProportional)));
 			}
 
-			v.layout(left, top, right, bottom);
+			v.layout(mBounds[LayoutScaler.LEFT], mBounds[LayoutScaler.TOP],
+					mBounds[LayoutScaler.RIGHT], mBounds[LayoutScaler.BOTTOM]);
 
 			/*if (v.getTag() != null) {
 				Log.d("Tag", v.getTag().toString() + " " + v.getWidth() + " " + v.getX());
@@ -328,6 +328,24 @@ public class AppViewPager extends ViewPager {
             return mMainLayout.getTrackNameView();
         }
 
+		/**
+		 * Returns time-shift delay label
+		 *
+		 * @return time-shift label
+		 */
+		public TextView getTimeShiftView() {
+			return mMainLayout.getTimeShiftView();
+		}
+
+		/**
+		 * Show delay of played audio from live edge
+		 *
+		 * @param delayMs delay in ms, negative to hide label
+		 */
+		public void setTimeShiftDelay(int delayMs) {
+			mMainLayout.setTimeShiftDelay(delayMs);
+		}
+
 		/**
 		 * Update layout when player state changed
 		 *
@@ -338,5 +356,17 @@ public class AppViewPager extends ViewPager {
 		public void onStateChanged(PlayerState newState, Object data) {
 			mMainLayout.onStateChanged(newState, data);
 		}
+
+		/**
+		 * Update layout when buffer state changed
+		 *
+		 * @param filledMs buffered data length in ms
+		 * @param prebufferMs prebuffer depth in ms
+		 * @param buffering true if playback is held until prebuffer depth is collected
+		 */
+		@Override
+		public void onBufferChanged(int filledMs, int prebufferMs, boolean buffering) {
+			mMainLayout.onBufferChanged(filledMs, prebufferMs, buffering);
+		}
 	}
 }
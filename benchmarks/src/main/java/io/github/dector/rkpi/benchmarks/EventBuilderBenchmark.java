@@ -0,0 +1,73 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+
+import io.github.dector.rkpi.tools.EventBuilder;
+
+/**
+ * Analytics event construction, done on user actions and playback events.
+ * Event params are the same as in "Playback health" event
+ *
+ * @author dector
+ */
+@State(Scope.Thread)
+public class EventBuilderBenchmark extends BaseBenchmark {
+
+	private EventBuilder.Sink mSink;
+
+	/** Last logged params, so event building can't be optimized out */
+	public Map<String, String> lastParams;
+
+	@Setup
+	public void setUp() {
+		mSink = new EventBuilder.Sink() {
+			@Override
+			public void log(String id, Map<String, String> params) {
+				lastParams = params;
+			}
+
+			@Override
+			public void logEnd(String id) {
+				lastParams = null;
+			}
+		};
+	}
+
+	@Benchmark
+	public void build() {
+		new EventBuilder("Playback health", mSink)
+				.param("Underruns", String.valueOf(3))
+				.param("Stalls", String.valueOf(1))
+				.param("Rebuffer percent", String.valueOf(0.5f))
+				.param("Max stall", String.valueOf(1200))
+				.log();
+	}
+}
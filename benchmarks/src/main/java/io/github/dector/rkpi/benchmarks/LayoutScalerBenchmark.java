@@ -0,0 +1,57 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.github.dector.rkpi.views.LayoutScaler;
+
+/**
+ * Layout math of scalable layout for one layout pass (without Android views)
+ *
+ * @author dector
+ */
+@State(Scope.Thread)
+public class LayoutScalerBenchmark extends BaseBenchmark {
+
+	/** Children count in main layout */
+	private static final int CHILDREN = 12;
+
+	private final LayoutScaler mScaler = new LayoutScaler();
+	private final int[] mBounds = new int[4];
+
+	@Benchmark
+	public void layout(Blackhole blackhole) {
+		mScaler.setSize(480, 800, 720, 1280);
+
+		for (int i = 0; i < CHILDREN; i++) {
+			mScaler.scale(i * 10, i * 60, 200, 50, (i & 1) == 0, i == 0, false, mBounds);
+			blackhole.consume(mScaler.getScaleY(false));
+			blackhole.consume(mBounds);
+		}
+	}
+}
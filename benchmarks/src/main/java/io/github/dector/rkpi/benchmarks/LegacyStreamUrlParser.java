@@ -0,0 +1,75 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.benchmarks;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+
+import io.github.dector.rkpi.components.player.SongInfo;
+
+/**
+ * Previous "StreamUrl" parser (split() and URLDecoder), kept as benchmark baseline
+ *
+ * @author dector
+ *
+ * @see io.github.dector.rkpi.components.player.StreamUrlParser
+ */
+public class LegacyStreamUrlParser {
+
+	private LegacyStreamUrlParser() {}
+
+	/**
+	 * Parse song info
+	 *
+	 * @param value "StreamUrl" metadata value
+	 * @return song info (empty if value doesn't contain artist and title)
+	 */
+	public static SongInfo parse(String value) {
+		SongInfo songInfo = new SongInfo();
+
+		String[] urlElements = value.split("&");
+		for (String s : urlElements) {
+			if (s == null) continue;
+
+			String[] parts = s.split("=");
+			if (parts.length >= 2) {
+				if (parts[0].equals("artist")) {
+					try {
+						songInfo.setArtist(URLDecoder.decode(parts[1], "Windows-1251"));
+					} catch (UnsupportedEncodingException e) {
+						e.printStackTrace();
+					}
+				} else if (parts[0].equals("title")) {
+					try {
+						songInfo.setTitle(URLDecoder.decode(parts[1], "Windows-1251"));
+					} catch (UnsupportedEncodingException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		}
+
+		return songInfo;
+	}
+}
@@ -0,0 +1,89 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.github.dector.rkpi.components.player.PlayerState;
+import io.github.dector.rkpi.components.player.PlayerStateObserver;
+import io.github.dector.rkpi.components.player.SongInfo;
+import io.github.dector.rkpi.components.player.StateManager;
+
+/**
+ * Player state fan-out to observers, done on every state and song change
+ * and on every jitter buffer update
+ *
+ * @author dector
+ */
+@State(Scope.Thread)
+public class StateManagerBenchmark extends BaseBenchmark {
+
+	/** Subscribed observers: notification, activity, ... */
+	@Param({ "2", "8" })
+	public int observers;
+
+	private StateManager mStateManager;
+	private SongInfo mSongInfo;
+
+	/** Last received values, so notifications can't be optimized out */
+	public Object lastData;
+	public int lastFilledMs;
+
+	@Setup
+	public void setUp() {
+		mStateManager = new StateManager();
+
+		for (int i = 0; i < observers; i++) {
+			mStateManager.addObserver(new PlayerStateObserver() {
+				@Override
+				public void onStateChanged(PlayerState newState, Object data) {
+					lastData = data;
+				}
+
+				@Override
+				public void onBufferChanged(int filledMs, int prebufferMs, boolean buffering) {
+					lastFilledMs = filledMs;
+				}
+			});
+		}
+
+		mSongInfo = new SongInfo();
+		mSongInfo.setArtist("James Brown");
+		mSongInfo.setTitle("I Got You (I Feel Good)");
+	}
+
+	@Benchmark
+	public void setState() {
+		mStateManager.setState(PlayerState.PLAYING, mSongInfo);
+	}
+
+	@Benchmark
+	public void setBufferState() {
+		mStateManager.setBufferState(1500, 2000, false);
+	}
+}
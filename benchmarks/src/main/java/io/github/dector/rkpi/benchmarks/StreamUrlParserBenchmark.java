@@ -0,0 +1,61 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import io.github.dector.rkpi.components.player.SongInfo;
+import io.github.dector.rkpi.components.player.StreamUrlParser;
+
+/**
+ * "StreamUrl" metadata parsing, done on every metadata block.
+ * Run with "-prof gc" to compare allocations
+ *
+ * @author dector
+ */
+@State(Scope.Thread)
+public class StreamUrlParserBenchmark extends BaseBenchmark {
+
+	/** Metadata as sent by Radio KPI server */
+	@Param({
+			"&artist=%D2%E5%F1%F2%EE%E2%E8%E9+%E2%E8%EA%EE%ED%E0%E2%E5%F6%FC&title=%CF%B3%F1%ED%FF+1",
+			"&artist=James%20Brown&title=I%20Got%20You%20%28I%20Feel%20Good%29"
+	})
+	public String value;
+
+	private final StreamUrlParser mParser = new StreamUrlParser();
+
+	@Benchmark
+	public SongInfo parse() {
+		return mParser.parse(value);
+	}
+
+	@Benchmark
+	public SongInfo parseLegacy() {
+		return LegacyStreamUrlParser.parse(value);
+	}
+}
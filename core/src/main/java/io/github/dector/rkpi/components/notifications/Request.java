@@ -35,6 +35,11 @@ public enum Request {
     PLAYER_PLAY, PLAYER_PAUSE, PLAYER_TOGGLE,   // Player control
     TOGGLE_FOREGROUND,					        // Notifications showing toggle
 	TOGGLE_HQ, SET_LQ_STREAM, SET_HQ_STREAM,    // Manage used stream
+	TOGGLE_ADAPTIVE_STREAM,                     // Automatic stream selection toggle
+	TOGGLE_WARM_STANDBY,                        // Alternate stream pre-buffering toggle
+	TOGGLE_RECORDING,                           // Played stream recording toggle
+	TOGGLE_TIME_SHIFT,                          // Time-shift (pause live stream) toggle
+	TIME_SHIFT_BACK, TIME_SHIFT_LIVE,           // Time-shift seek back and jump to live
 	EXIT;									    // Close application
 
 	/** Broadcast request prefix */
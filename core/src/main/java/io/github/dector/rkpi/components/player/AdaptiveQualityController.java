@@ -0,0 +1,322 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.components.player;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Picks stream quality (lower or higher bitrate stream) from measured network
+ * throughput and buffer health.
+ *
+ * Steps down to lower stream as soon as buffer runs low while network doesn't
+ * deliver current bitrate (before underrun happens). Steps up only after network
+ * had enough headroom for a while. Different thresholds and min time between
+ * switches prevent flapping.
+ *
+ * Live stream is paced by server, so steady throughput converges to stream bitrate
+ * and can't show headroom. Link capacity is measured while burst after connection
+ * start is received (server sends it as fast as network allows), step up
+ * also needs buffer to stay full. For the same reason throughput near bitrate
+ * and low buffer are normal on healthy link: step down needs real deficit,
+ * throughput below bitrate or buffer draining over a window.
+ *
+ * @author dector
+ */
+public class AdaptiveQualityController {
+
+	/** Step down if buffer is lower and network has deficit */
+	private static final int DOWN_BUFFER_MS = 4000;
+	/** Step down regardless of throughput if buffer is lower */
+	private static final int CRITICAL_BUFFER_MS = 1500;
+	/** Throughput / bitrate ratio (in %), below which network has deficit */
+	private static final int DOWN_THROUGHPUT_PERCENT = 95;
+	/** Buffer trend is measured over this window */
+	private static final int TREND_WINDOW_MS = 5000;
+	/** Network has deficit if buffer lost at least this during trend window (10% of playback time) */
+	private static final int DOWN_DRAIN_MS = 500;
+
+	/** Step up only if buffer is higher */
+	private static final int UP_BUFFER_MS = 6000;
+	/** Link capacity / target bitrate ratio (in %) needed to step up */
+	private static final int UP_CAPACITY_PERCENT = 150;
+	/** Step up conditions should hold at least this time */
+	private static final int UP_HOLD_MS = 20000;
+
+	/** Decisions aren't made after connection (re)start, while burst is received and buffer is filled */
+	private static final int START_GRACE_MS = 5000;
+	/** Min time between two switches */
+	private static final int MIN_SWITCH_INTERVAL_MS = 30000;
+
+	/** Throughput is measured over at least this network time, single samples are too uneven */
+	private static final int THROUGHPUT_WINDOW_MS = 2000;
+	/** Throughput estimate smoothing factor (in %) for new window */
+	private static final int SMOOTHING_PERCENT = 30;
+
+	/** Decisions history size */
+	private static final int MAX_DECISIONS = 20;
+
+	/**
+	 * Stream switch decision. Stored for diagnostics
+	 */
+	public static class Decision {
+
+		/** Decision time (monotonic, in ms) */
+		public final long time;
+		/** Bitrate of stream before switch in kbps */
+		public final int fromKbps;
+		/** Bitrate of selected stream in kbps */
+		public final int toKbps;
+		/** Estimated throughput in kbps */
+		public final int throughputKbps;
+		/** Buffered data in ms */
+		public final int bufferedMs;
+		/** Human-readable reason */
+		public final String reason;
+
+		public Decision(long time, int fromKbps, int toKbps, int throughputKbps, int bufferedMs, String reason) {
+			this.time = time;
+			this.fromKbps = fromKbps;
+			this.toKbps = toKbps;
+			this.throughputKbps = throughputKbps;
+			this.bufferedMs = bufferedMs;
+			this.reason = reason;
+		}
+
+		@Override
+		public String toString() {
+			return time + ": " + fromKbps + " -> " + toKbps + " kbps (" + reason
+					+ ", throughput=" + throughputKbps + "kbps, buffered=" + bufferedMs + "ms)";
+		}
+	}
+
+	/** Bitrate of lower stream in kbps */
+	private final int mLowerKbps;
+	/** Bitrate of higher stream in kbps */
+	private final int mHigherKbps;
+
+	/** Bitrate of stream which is played now in kbps, 0 if nothing is played */
+	private int mKbps;
+
+	/** Smoothed throughput estimate in kbps, -1 if unknown */
+	private int mThroughputKbps = -1;
+	/** Link capacity: max throughput while burst was received, in kbps, -1 if unknown */
+	private int mCapacityKbps = -1;
+
+	/** Last sample: received bytes counter */
+	private long mLastBytes;
+	/** Last sample: network time counter (ms) */
+	private long mLastNetworkMs;
+	/** Throughput window start: received bytes counter */
+	private long mWindowBytes;
+	/** Throughput window start: network time counter (ms) */
+	private long mWindowNetworkMs;
+
+	/** Time of connection start or last switch */
+	private long mLastSwitchTime;
+	/** Time when step up conditions became true, -1 if they aren't */
+	private long mUpSince = -1;
+
+	/** Start of current trend window, -1 if it isn't started */
+	private long mTrendStart = -1;
+	/** Buffered data at start of current trend window in ms */
+	private int mTrendStartBufferedMs;
+	/** Buffer change over last complete trend window in ms */
+	private int mTrendMs;
+
+	/** Last decisions */
+	private final LinkedList<Decision> mDecisions = new LinkedList<Decision>();
+
+	/**
+	 * Create new controller
+	 *
+	 * @param lowerKbps bitrate of lower stream in kbps
+	 * @param higherKbps bitrate of higher stream in kbps
+	 */
+	public AdaptiveQualityController(int lowerKbps, int higherKbps) {
+		mLowerKbps = lowerKbps;
+		mHigherKbps = higherKbps;
+	}
+
+	/**
+	 * Start measuring new connection
+	 *
+	 * @param kbps bitrate of played stream in kbps
+	 * @param now current time in ms (monotonic)
+	 */
+	public synchronized void reset(int kbps, long now) {
+		mKbps = kbps;
+		mLastSwitchTime = now;
+		mUpSince = -1;
+		mTrendStart = -1;
+		mTrendMs = 0;
+		mLastBytes = 0;
+		mLastNetworkMs = 0;
+		mWindowBytes = 0;
+		mWindowNetworkMs = 0;
+		mThroughputKbps = -1;
+		mCapacityKbps = -1;
+	}
+
+	/**
+	 * Process next measurement and decide, which stream should be played
+	 *
+	 * @param now current time in ms (monotonic)
+	 * @param receivedBytes bytes received from network for this connection
+	 * @param networkMs time spent waiting for network for this connection
+	 * @param bufferedMs buffered data (jitter buffer and audio track) in ms
+	 * @return bitrate of stream to switch to in kbps or 0 if current stream should be kept
+	 */
+	public synchronized int onSample(long now, long receivedBytes, long networkMs, int bufferedMs) {
+		if (mKbps == 0) return 0;
+
+		boolean starting = now - mLastSwitchTime < START_GRACE_MS;
+
+		updateThroughput(receivedBytes, networkMs, starting);
+
+		if (starting || mThroughputKbps < 0) {
+			return 0;
+		}
+
+		updateTrend(now, bufferedMs);
+
+		if (mKbps == mHigherKbps) {
+			if (bufferedMs < CRITICAL_BUFFER_MS) {
+				return switchTo(now, mLowerKbps, bufferedMs, "buffer critical");
+			}
+
+			if (bufferedMs < DOWN_BUFFER_MS) {
+				if (mThroughputKbps * 100 < mKbps * DOWN_THROUGHPUT_PERCENT) {
+					return switchTo(now, mLowerKbps, bufferedMs, "throughput too low");
+				}
+
+				if (mTrendMs <= -DOWN_DRAIN_MS) {
+					return switchTo(now, mLowerKbps, bufferedMs, "buffer draining " + mTrendMs + "ms");
+				}
+			}
+		} else if (mKbps == mLowerKbps) {
+			boolean canStepUp = bufferedMs > UP_BUFFER_MS
+					&& mCapacityKbps * 100 > mHigherKbps * UP_CAPACITY_PERCENT;
+
+			if (! canStepUp) {
+				mUpSince = -1;
+			} else if (mUpSince < 0) {
+				mUpSince = now;
+			} else if (now - mUpSince >= UP_HOLD_MS && now - mLastSwitchTime >= MIN_SWITCH_INTERVAL_MS) {
+				return switchTo(now, mHigherKbps, bufferedMs, "headroom");
+			}
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Returns smoothed throughput estimate
+	 *
+	 * @return throughput in kbps or -1 if unknown
+	 */
+	public synchronized int getThroughputKbps() {
+		return mThroughputKbps;
+	}
+
+	/**
+	 * Returns link capacity estimate, measured while burst was received
+	 *
+	 * @return capacity in kbps or -1 if unknown
+	 */
+	public synchronized int getCapacityKbps() {
+		return mCapacityKbps;
+	}
+
+	/**
+	 * Returns last decisions, oldest first
+	 *
+	 * @return copy of decisions history
+	 */
+	public synchronized List<Decision> getDecisions() {
+		return new ArrayList<Decision>(mDecisions);
+	}
+
+	private void updateThroughput(long receivedBytes, long networkMs, boolean burst) {
+		long bytes = receivedBytes - mLastBytes;
+		long ms = networkMs - mLastNetworkMs;
+
+		mLastBytes = receivedBytes;
+		mLastNetworkMs = networkMs;
+
+		// Burst comes in short fast samples
+		if (burst && bytes > 0 && ms > 0) {
+			mCapacityKbps = Math.max(mCapacityKbps, (int) (bytes * 8 / ms));
+		}
+
+		bytes = receivedBytes - mWindowBytes;
+		ms = networkMs - mWindowNetworkMs;
+
+		// Window without data (stall) counts as zero throughput
+		if (ms < THROUGHPUT_WINDOW_MS) return;
+
+		mWindowBytes = receivedBytes;
+		mWindowNetworkMs = networkMs;
+
+		int sampleKbps = (int) (bytes * 8 / ms);
+
+		if (mThroughputKbps < 0) {
+			mThroughputKbps = sampleKbps;
+		} else {
+			mThroughputKbps = (sampleKbps * SMOOTHING_PERCENT + mThroughputKbps * (100 - SMOOTHING_PERCENT)) / 100;
+		}
+	}
+
+	/**
+	 * Measure buffer change over fixed windows. Buffer of paced stream on healthy
+	 * link stays level, real deficit drains it
+	 */
+	private void updateTrend(long now, int bufferedMs) {
+		if (mTrendStart < 0) {
+			mTrendStart = now;
+			mTrendStartBufferedMs = bufferedMs;
+		} else if (now - mTrendStart >= TREND_WINDOW_MS) {
+			mTrendMs = bufferedMs - mTrendStartBufferedMs;
+			mTrendStart = now;
+			mTrendStartBufferedMs = bufferedMs;
+		}
+	}
+
+	private int switchTo(long now, int kbps, int bufferedMs, String reason) {
+		mDecisions.addLast(new Decision(now, mKbps, kbps, mThroughputKbps, bufferedMs,
+				reason + ", capacity=" + mCapacityKbps + "kbps"));
+		if (mDecisions.size() > MAX_DECISIONS) {
+			mDecisions.removeFirst();
+		}
+
+		mKbps = kbps;
+		mLastSwitchTime = now;
+		mUpSince = -1;
+		mTrendStart = -1;
+		mTrendMs = 0;
+
+		return kbps;
+	}
+}
@@ -0,0 +1,150 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.components.player;
+
+/**
+ * ADTS (AAC, HE-AAC) frame header parser. Instance is reused for parsing
+ * to avoid allocations on stream reading path
+ *
+ * @author dector
+ */
+public class AdtsFrameHeader implements AudioFrameHeader {
+
+	/** Header length in bytes (without CRC) */
+	public static final int HEADER_SIZE = 7;
+
+	/** Samples in one raw data block */
+	private static final int SAMPLES_PER_BLOCK = 1024;
+
+	/** Sample rates (Hz) by index */
+	private static final int[] SAMPLE_RATES = {
+			96000, 88200, 64000, 48000, 44100, 32000, 24000, 22050, 16000, 12000, 11025, 8000, 7350
+	};
+
+	private int mVersion;
+	private int mProfile;
+	private int mSampleRate;
+	private int mChannels;
+	private int mFrameLength;
+	private int mBlocks;
+
+	@Override
+	public int getHeaderSize() {
+		return HEADER_SIZE;
+	}
+
+	/**
+	 * Parse header from array. Reserved values are treated as invalid.
+	 * For HE-AAC sample rate of AAC core is returned (frame duration is the same)
+	 *
+	 * @param data source array
+	 * @param offset header offset, at least HEADER_SIZE bytes should be available
+	 * @return true if header is valid
+	 */
+	@Override
+	public boolean parse(byte[] data, int offset) {
+		int b1 = data[offset + 1] & 0xff;
+		int b2 = data[offset + 2] & 0xff;
+		int b3 = data[offset + 3] & 0xff;
+
+		// Sync word and layer 0 (MPEG audio layers are never 0)
+		if ((data[offset] & 0xff) != 0xff || (b1 & 0xf6) != 0xf0) return false;
+
+		int sampleRateIndex = (b2 >> 2) & 0x0f;
+		int channels = ((b2 & 0x01) << 2) | (b3 >> 6);
+		int frameLength = ((b3 & 0x03) << 11) | ((data[offset + 4] & 0xff) << 3) | ((data[offset + 5] & 0xff) >> 5);
+		// CRC follows header if protection is present
+		int headerLength = ((b1 & 0x01) == 0) ? HEADER_SIZE + 2 : HEADER_SIZE;
+
+		if (sampleRateIndex >= SAMPLE_RATES.length || frameLength <= headerLength) {
+			return false;
+		}
+
+		mVersion = (b1 >> 3) & 0x01;
+		mProfile = b2 >> 6;
+		mSampleRate = SAMPLE_RATES[sampleRateIndex];
+		mChannels = channels;
+		mFrameLength = frameLength;
+		mBlocks = (data[offset + 6] & 0x03) + 1;
+
+		return true;
+	}
+
+	/**
+	 * Returns true if frames can belong to the same stream
+	 *
+	 * @param other parsed header
+	 * @return true if version, profile, sample rate and channels match
+	 */
+	@Override
+	public boolean isCompatible(AudioFrameHeader other) {
+		if (! (other instanceof AdtsFrameHeader)) return false;
+
+		AdtsFrameHeader header = (AdtsFrameHeader) other;
+
+		return mVersion == header.mVersion && mProfile == header.mProfile
+				&& mSampleRate == header.mSampleRate && mChannels == header.mChannels;
+	}
+
+	@Override
+	public void set(AudioFrameHeader other) {
+		AdtsFrameHeader header = (AdtsFrameHeader) other;
+
+		mVersion = header.mVersion;
+		mProfile = header.mProfile;
+		mSampleRate = header.mSampleRate;
+		mChannels = header.mChannels;
+		mFrameLength = header.mFrameLength;
+		mBlocks = header.mBlocks;
+	}
+
+	public int getSampleRate() {
+		return mSampleRate;
+	}
+
+	/**
+	 * Returns channel configuration
+	 *
+	 * @return channels count, 0 if defined in stream
+	 */
+	public int getChannels() {
+		return mChannels;
+	}
+
+	@Override
+	public int getFrameLength() {
+		return mFrameLength;
+	}
+
+	@Override
+	public int getDurationUs() {
+		return (int) (mBlocks * SAMPLES_PER_BLOCK * 1000000L / mSampleRate);
+	}
+
+	@Override
+	public String toString() {
+		return "ADTS frame [" + mSampleRate + "Hz, " + mChannels + "ch, " + mBlocks + " blocks, "
+				+ mFrameLength + " bytes]";
+	}
+}
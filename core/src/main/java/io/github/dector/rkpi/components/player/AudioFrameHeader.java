@@ -0,0 +1,78 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.components.player;
+
+/**
+ * Compressed audio frame header parser (MP3, ADTS). Used by frame sync stage
+ * and fast start to find frame boundaries without decoding
+ *
+ * @author dector
+ */
+public interface AudioFrameHeader {
+
+	/**
+	 * Returns bytes needed to parse header
+	 *
+	 * @return header length in bytes
+	 */
+	public int getHeaderSize();
+
+	/**
+	 * Parse header from array
+	 *
+	 * @param data source array
+	 * @param offset header offset, at least getHeaderSize() bytes should be available
+	 * @return true if header is valid
+	 */
+	public boolean parse(byte[] data, int offset);
+
+	/**
+	 * Returns true if frames can belong to the same stream
+	 *
+	 * @param other parsed header
+	 * @return true if stream parameters match
+	 */
+	public boolean isCompatible(AudioFrameHeader other);
+
+	/**
+	 * Copy parsed values from other header of the same format
+	 *
+	 * @param other parsed header
+	 */
+	public void set(AudioFrameHeader other);
+
+	/**
+	 * Returns full frame length including header
+	 *
+	 * @return frame length in bytes
+	 */
+	public int getFrameLength();
+
+	/**
+	 * Returns frame duration
+	 *
+	 * @return frame duration in microseconds
+	 */
+	public int getDurationUs();
+}
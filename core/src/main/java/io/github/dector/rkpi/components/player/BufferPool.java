@@ -0,0 +1,289 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.components.player;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import io.github.dector.rkpi.common.AppConfig;
+
+/**
+ * Pool of reusable buffers for network and decode path, so reconnects,
+ * standby connections and engine switches don't produce garbage
+ * (GC pauses cause audible clicks on low-end devices).
+ *
+ * Pool keeps not more than capacity free buffers. Buffers are matched
+ * by exact length, other buffers are allocated and counted.
+ *
+ * Acquired buffers are tracked by weak references: buffer, which was
+ * collected by GC without release, is reported as leak
+ * (with acquire stack trace in debug build).
+ *
+ * @author dector
+ */
+public abstract class BufferPool<T> {
+
+	/** Core is plain Java: java.util.logging is forwarded to logcat on Android */
+	private static final Logger LOG = Logger.getLogger("Buffer pool");
+
+	/** Jitter buffer rings (network data) */
+	public static final BufferPool<byte[]> BYTES = new BufferPool<byte[]>("bytes", 4) {
+		@Override
+		protected byte[] allocate(int length) {
+			return new byte[length];
+		}
+
+		@Override
+		protected int lengthOf(byte[] buffer) {
+			return buffer.length;
+		}
+	};
+
+	/** Decoder PCM buffers */
+	public static final BufferPool<short[]> PCM = new BufferPool<short[]>("pcm", 8) {
+		@Override
+		protected short[] allocate(int length) {
+			return new short[length];
+		}
+
+		@Override
+		protected int lengthOf(short[] buffer) {
+			return buffer.length;
+		}
+	};
+
+	/** Network reader storage (direct, off-heap): main, standby, time-shift and probe readers */
+	public static final BufferPool<ByteBuffer> DIRECT = new BufferPool<ByteBuffer>("direct", 4) {
+		@Override
+		protected ByteBuffer allocate(int length) {
+			return ByteBuffer.allocateDirect(length);
+		}
+
+		@Override
+		protected int lengthOf(ByteBuffer buffer) {
+			return buffer.capacity();
+		}
+	};
+
+	/** Buffers allocated by all pools */
+	private static final AtomicLong sAllocations = new AtomicLong();
+
+	private final String mName;
+	/** Max count of free buffers */
+	private final int mCapacity;
+
+	/** Free buffers, oldest first */
+	private final List<T> mFree = new ArrayList<T>();
+	/** Acquired buffers */
+	private final List<Lease<T>> mLeases = new ArrayList<Lease<T>>();
+	/** Receives leases of collected buffers */
+	private final ReferenceQueue<T> mCollected = new ReferenceQueue<T>();
+
+	private long mAllocations;
+	private int mLeaks;
+
+	/**
+	 * Create new pool
+	 *
+	 * @param name pool name for logs
+	 * @param capacity max count of free buffers
+	 */
+	protected BufferPool(String name, int capacity) {
+		mName = name;
+		mCapacity = capacity;
+	}
+
+	/**
+	 * Returns count of buffers allocated by all pools.
+	 * Should not grow during steady-state playing
+	 *
+	 * @return allocations count
+	 */
+	public static long getAllocations() {
+		return sAllocations.get();
+	}
+
+	/**
+	 * Take free buffer or allocate new one
+	 *
+	 * @param length buffer length
+	 * @return buffer, which should be released after use
+	 */
+	public synchronized T acquire(int length) {
+		pollLeaks();
+
+		T buffer = takeFree(length);
+
+		if (buffer == null) {
+			buffer = allocate(length);
+
+			mAllocations++;
+			sAllocations.incrementAndGet();
+		}
+
+		Throwable site = (AppConfig.DEBUG) ? new Throwable("Acquired from " + mName + " pool") : null;
+		mLeases.add(new Lease<T>(buffer, mCollected, site));
+
+		return buffer;
+	}
+
+	/**
+	 * Return buffer to pool. Buffer shouldn't be used after that.
+	 * Oldest free buffer is dropped if pool is full
+	 *
+	 * @param buffer acquired buffer
+	 */
+	public synchronized void release(T buffer) {
+		pollLeaks();
+
+		if (! removeLease(buffer)) {
+			LOG.warning(mName + ": released buffer, which isn't acquired");
+			return;
+		}
+
+		if (mFree.size() >= mCapacity) {
+			mFree.remove(0);
+		}
+
+		mFree.add(buffer);
+	}
+
+	/**
+	 * Returns count of acquired and not released buffers
+	 *
+	 * @return acquired buffers count
+	 */
+	public synchronized int getAcquired() {
+		pollLeaks();
+
+		return mLeases.size();
+	}
+
+	/**
+	 * Returns count of buffers allocated by this pool
+	 *
+	 * @return allocations count
+	 */
+	public synchronized long getPoolAllocations() {
+		return mAllocations;
+	}
+
+	/**
+	 * Returns count of buffers, which were lost without release
+	 *
+	 * @return leaks count
+	 */
+	public synchronized int getLeaks() {
+		pollLeaks();
+
+		return mLeaks;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return mName + " [free=" + mFree.size() + ", acquired=" + mLeases.size() + ", allocations="
+				+ mAllocations + ", leaks=" + mLeaks + "]";
+	}
+
+	/**
+	 * Create new buffer
+	 *
+	 * @param length buffer length
+	 * @return new buffer
+	 */
+	protected abstract T allocate(int length);
+
+	/**
+	 * Returns buffer length
+	 *
+	 * @param buffer buffer
+	 * @return buffer length
+	 */
+	protected abstract int lengthOf(T buffer);
+
+	private T takeFree(int length) {
+		for (int i = mFree.size() - 1; i >= 0; i--) {
+			if (lengthOf(mFree.get(i)) == length) {
+				return mFree.remove(i);
+			}
+		}
+
+		return null;
+	}
+
+	private boolean removeLease(T buffer) {
+		Iterator<Lease<T>> iterator = mLeases.iterator();
+
+		while (iterator.hasNext()) {
+			Lease<T> lease = iterator.next();
+
+			if (lease.get() == buffer) {
+				lease.clear();
+				iterator.remove();
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Report buffers, which were collected by GC without release
+	 */
+	private void pollLeaks() {
+		Reference<? extends T> reference;
+
+		while ((reference = mCollected.poll()) != null) {
+			Lease<?> lease = (Lease<?>) reference;
+
+			if (mLeases.remove(lease)) {
+				mLeaks++;
+				LOG.log(Level.WARNING, mName + ": buffer wasn't released", lease.mSite);
+			}
+		}
+	}
+
+	/**
+	 * Acquired buffer record
+	 */
+	private static class Lease<T> extends WeakReference<T> {
+
+		/** Acquire stack trace or null */
+		private final Throwable mSite;
+
+		public Lease(T buffer, ReferenceQueue<T> queue, Throwable site) {
+			super(buffer, queue);
+
+			mSite = site;
+		}
+	}
+}
@@ -0,0 +1,335 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.components.player;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream stage in front of decoder, which passes only valid frames
+ * (MP3 or ADTS, depending on stream codec).
+ *
+ * Frame is accepted if its header is valid and next frame header (right after it)
+ * is valid and compatible too. Otherwise frame is treated as damaged: stream is
+ * scanned byte by byte until next good frame (resync without reconnect).
+ *
+ * Whole frames can be dropped on request to reduce playback latency.
+ *
+ * @author dector
+ */
+public class FrameSyncInputStream extends InputStream {
+
+	/**
+	 * Receives every accepted frame. Called from reading (decoder) thread,
+	 * so it should not block
+	 */
+	public interface FrameListener {
+
+		/**
+		 * Called when frame is accepted
+		 *
+		 * @param data array with frame
+		 * @param offset frame offset
+		 * @param length frame length
+		 * @param position frame position in source stream
+		 */
+		public void onFrame(byte[] data, int offset, int length, long position);
+	}
+
+	/** Internal buffer size, enough for the longest frame (ADTS frame length is 13 bit) and next header */
+	private static final int BUFFER_SIZE = 16384;
+
+	private final InputStream mSource;
+
+	private final byte[] mBuffer = new byte[BUFFER_SIZE];
+	/** Start of unread data in buffer */
+	private int mStart;
+	/** End of data in buffer */
+	private int mEnd;
+	/** Bytes of accepted frame, which wasn't read yet */
+	private int mFrameRemaining;
+	/** True if source ended */
+	private boolean mEndOfStream;
+	/** Bytes read from source */
+	private long mSourceBytes;
+
+	private AudioFrameHeader mHeader = new Mp3FrameHeader();
+	private AudioFrameHeader mNextHeader = new Mp3FrameHeader();
+
+	/** Accepted frames listener */
+	private volatile FrameListener mFrameListener;
+
+	/** Accepted frames */
+	private volatile long mFrames;
+	/** Frames with valid header, which were rejected */
+	private volatile long mSkippedFrames;
+	/** Bytes, which weren't passed to decoder */
+	private volatile long mSkippedBytes;
+
+	/** Requested playing time to drop in microseconds, taken by reading thread */
+	private volatile long mDropRequestUs;
+	/** Playing time to drop in microseconds, changed only by reading thread */
+	private long mDropRemainingUs;
+	/** Good frames dropped on request */
+	private volatile long mDroppedFrames;
+	/** Playing time of dropped frames in microseconds */
+	private volatile long mDroppedUs;
+
+	/**
+	 * Create new instance. MP3 frames are expected until codec is set
+	 *
+	 * @param source stream of audio data (without ICY metadata)
+	 */
+	public FrameSyncInputStream(InputStream source) {
+		mSource = source;
+	}
+
+	/**
+	 * Set stream codec. Should be called before reading
+	 *
+	 * @param codec stream codec
+	 */
+	public void setCodec(StreamCodec codec) {
+		mHeader = codec.createFrameHeader();
+		mNextHeader = codec.createFrameHeader();
+	}
+
+	/**
+	 * Set listener of accepted frames
+	 *
+	 * @param listener frames listener or null
+	 */
+	public void setFrameListener(FrameListener listener) {
+		mFrameListener = listener;
+	}
+
+	/**
+	 * Returns count of frames passed to decoder
+	 *
+	 * @return accepted frames count
+	 */
+	public long getFrames() {
+		return mFrames;
+	}
+
+	/**
+	 * Returns count of damaged frames, which were skipped
+	 *
+	 * @return skipped frames count
+	 */
+	public long getSkippedFrames() {
+		return mSkippedFrames;
+	}
+
+	/**
+	 * Returns count of bytes, which were skipped while searching for frame sync
+	 *
+	 * @return skipped bytes count
+	 */
+	public long getSkippedBytes() {
+		return mSkippedBytes;
+	}
+
+	/**
+	 * Drop next good frames instead of passing them to decoder. Frames are dropped
+	 * while their total duration is less than requested. Frames are still passed
+	 * to frame listener. Replaces previous request, if it wasn't taken yet
+	 *
+	 * @param durationMs playing time to drop in ms
+	 */
+	public void dropFrames(int durationMs) {
+		mDropRequestUs = durationMs * 1000L;
+	}
+
+	/**
+	 * Returns count of good frames, which were dropped on request
+	 *
+	 * @return dropped frames count
+	 */
+	public long getDroppedFrames() {
+		return mDroppedFrames;
+	}
+
+	/**
+	 * Returns playing time of frames, which were dropped on request
+	 *
+	 * @return dropped time in ms
+	 */
+	public long getDroppedMs() {
+		return mDroppedUs / 1000;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (mFrameRemaining == 0 && ! nextFrame()) {
+			return -1;
+		}
+
+		mFrameRemaining--;
+
+		return mBuffer[mStart++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] data, int offset, int length) throws IOException {
+		if (length == 0) return 0;
+
+		if (mFrameRemaining == 0 && ! nextFrame()) {
+			return -1;
+		}
+
+		int count = Math.min(length, mFrameRemaining);
+		System.arraycopy(mBuffer, mStart, data, offset, count);
+
+		mStart += count;
+		mFrameRemaining -= count;
+
+		return count;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return mFrameRemaining;
+	}
+
+	@Override
+	public void close() throws IOException {
+		mSource.close();
+	}
+
+	/**
+	 * Find next good frame and make it available for reading
+	 *
+	 * @return false if stream ended
+	 * @throws IOException if source failed
+	 */
+	private boolean nextFrame() throws IOException {
+		while (true) {
+			int headerSize = mHeader.getHeaderSize();
+
+			if (! fill(headerSize)) {
+				skip(mEnd - mStart);
+				return false;
+			}
+
+			if (! mHeader.parse(mBuffer, mStart)) {
+				skip(1);
+				continue;
+			}
+
+			int frameLength = mHeader.getFrameLength();
+			boolean hasNext = fill(frameLength + headerSize);
+
+			if (mEnd - mStart < frameLength) {
+				// Truncated last frame
+				mSkippedFrames++;
+				skip(mEnd - mStart);
+				return false;
+			}
+
+			if (hasNext && ! (mNextHeader.parse(mBuffer, mStart + frameLength)
+					&& mNextHeader.isCompatible(mHeader))) {
+				mSkippedFrames++;
+				skip(1);
+				continue;
+			}
+
+			FrameListener listener = mFrameListener;
+			if (listener != null) {
+				listener.onFrame(mBuffer, mStart, frameLength, mSourceBytes - (mEnd - mStart));
+			}
+
+			if (shouldDrop()) {
+				int durationUs = mHeader.getDurationUs();
+
+				mDropRemainingUs -= durationUs;
+				mDroppedUs += durationUs;
+				mDroppedFrames++;
+				mStart += frameLength;
+				continue;
+			}
+
+			mFrameRemaining = frameLength;
+			mFrames++;
+
+			return true;
+		}
+	}
+
+	/**
+	 * Take drop request and check if next frame should be dropped
+	 *
+	 * @return true if requested time isn't dropped yet
+	 */
+	private boolean shouldDrop() {
+		long request = mDropRequestUs;
+
+		if (request > 0) {
+			mDropRequestUs = 0;
+			mDropRemainingUs = request;
+		}
+
+		return mDropRemainingUs > 0;
+	}
+
+	/**
+	 * Drop bytes from buffer start
+	 *
+	 * @param count bytes count
+	 */
+	private void skip(int count) {
+		mStart += count;
+		mSkippedBytes += count;
+	}
+
+	/**
+	 * Read source until buffer has at least needed bytes
+	 *
+	 * @param needed bytes count
+	 * @return false if source ended before
+	 * @throws IOException if source failed
+	 */
+	private boolean fill(int needed) throws IOException {
+		if (mEnd - mStart >= needed) return true;
+
+		if (mStart + needed > mBuffer.length) {
+			System.arraycopy(mBuffer, mStart, mBuffer, 0, mEnd - mStart);
+			mEnd -= mStart;
+			mStart = 0;
+		}
+
+		while (mEnd - mStart < needed && ! mEndOfStream) {
+			int count = mSource.read(mBuffer, mEnd, mBuffer.length - mEnd);
+
+			if (count < 0) {
+				mEndOfStream = true;
+			} else {
+				mEnd += count;
+				mSourceBytes += count;
+			}
+		}
+
+		return mEnd - mStart >= needed;
+	}
+}
@@ -0,0 +1,859 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.components.player;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * ICY (Shoutcast/Icecast) stream reader based on SocketChannel.
+ *
+ * Network data is read into one direct buffer. Audio payload is returned as
+ * a view of this buffer (without copying), inline metadata blocks are cut out
+ * by moving view bounds and parsed separately.
+ *
+ * After request is sent channel works in non-blocking mode with selector,
+ * so reading fails if server sends nothing during read timeout.
+ *
+ * In staged mode network reading runs in own thread and passes chunks
+ * to demuxing stage (caller of read()) through bounded lock-free queue,
+ * so slow demuxing or buffering doesn't delay reading socket and vice versa.
+ * Network stage waits when queue is full
+ *
+ * Network buffer and chunks are one direct block from BufferPool, taken on
+ * connect and returned when reader is closed and no stage uses it
+ * (reconnects, standby connections and probes don't allocate off-heap memory).
+ *
+ * @author dector
+ */
+public class IcyChannelReader implements JitterBuffer.Source {
+
+	/** Network buffer size */
+	private static final int BUFFER_SIZE = 16384;
+	/** Max redirects to follow */
+	private static final int MAX_REDIRECTS = 5;
+	/** Network chunk size in staged mode */
+	private static final int CHUNK_SIZE = 8192;
+	/** Network chunks count in staged mode, power of two */
+	private static final int QUEUE_CHUNKS = 8;
+	/** Metadata block length is stored in 16 bytes units */
+	private static final int METADATA_BLOCK_UNIT = 16;
+
+	private static final String USER_AGENT = "RadioKPI";
+
+	/** Default connect timeout in ms */
+	public static final int DEFAULT_CONNECT_TIMEOUT_MS = 10000;
+	/** Default read timeout in ms */
+	public static final int DEFAULT_READ_TIMEOUT_MS = 10000;
+
+	/**
+	 * Receives stream metadata
+	 */
+	public interface MetadataListener {
+
+		/**
+		 * Called when metadata value received
+		 *
+		 * @param key metadata key (StreamTitle, StreamUrl)
+		 * @param value metadata value
+		 */
+		public void onMetadata(String key, String value);
+	}
+
+	/**
+	 * Network stage chunk with preallocated audio view
+	 */
+	private static final class Chunk {
+
+		/** Network data */
+		final ByteBuffer data;
+		/** Audio payload view of network data */
+		final ByteBuffer audio;
+
+		Chunk(ByteBuffer data) {
+			this.data = data;
+			this.audio = data.duplicate();
+		}
+	}
+
+	private final String mUri;
+	private final MetadataListener mListener;
+
+	private volatile SocketChannel mChannel;
+	/** Waits for channel data */
+	private volatile Selector mSelector;
+	private volatile boolean mClosed;
+
+	private int mConnectTimeoutMs = DEFAULT_CONNECT_TIMEOUT_MS;
+	private int mReadTimeoutMs = DEFAULT_READ_TIMEOUT_MS;
+
+	/** Network buffer and chunks storage from BufferPool, null before connect and after release */
+	private ByteBuffer mStorage;
+	/** Calls and threads, which use storage now */
+	private int mStorageUsers;
+	/** Network buffer (in reading mode between calls) */
+	private ByteBuffer mBuffer;
+	/** Audio payload view of network buffer */
+	private ByteBuffer mBufferAudio;
+	/** Data being demuxed: network buffer or chunk from network stage (in reading mode between calls) */
+	private ByteBuffer mData;
+	/** Audio payload view of demuxed data */
+	private ByteBuffer mAudio;
+
+	/** Response headers (lower case names) */
+	private final Map<String, String> mHeaders = new HashMap<String, String>();
+
+	/** Audio bytes between metadata blocks, 0 if stream has no metadata */
+	private int mMetaInterval;
+	/** Audio bytes until next metadata block */
+	private int mAudioRemaining;
+	/** Metadata block storage, grows if needed */
+	private byte[] mMetadata = new byte[METADATA_BLOCK_UNIT * 32];
+
+	/** True if network reading runs in own thread */
+	private boolean mStaged;
+	/** Chunks with network data, from network stage to demuxing stage */
+	private volatile SpscQueue<Chunk> mFilledChunks;
+	/** Empty chunks, from demuxing stage back to network stage */
+	private volatile SpscQueue<Chunk> mFreeChunks;
+	/** Chunk being demuxed, recycled when next one is taken */
+	private Chunk mChunk;
+	/** Network stage failure */
+	private volatile IOException mNetworkError;
+
+	/** Connect latency of last request in ms */
+	private int mConnectMs;
+	/** Time from sending last request to response headers in ms */
+	private int mFirstByteMs;
+
+	/**
+	 * Create new reader. Call connect() to open it
+	 *
+	 * @param uri stream uri (http)
+	 * @param listener metadata listener
+	 */
+	public IcyChannelReader(String uri, MetadataListener listener) {
+		mUri = uri;
+		mListener = listener;
+	}
+
+	/**
+	 * Set network timeouts. Should be called before connect()
+	 *
+	 * @param connectTimeoutMs connect timeout in ms
+	 * @param readTimeoutMs max time without data from server in ms
+	 */
+	public void setTimeouts(int connectTimeoutMs, int readTimeoutMs) {
+		mConnectTimeoutMs = connectTimeoutMs;
+		mReadTimeoutMs = readTimeoutMs;
+	}
+
+	/**
+	 * Turn on/off staged mode: network is read in own thread.
+	 * Should be called before connect()
+	 *
+	 * @param staged true to read network in own thread
+	 */
+	public void setStaged(boolean staged) {
+		mStaged = staged;
+	}
+
+	/**
+	 * Returns requested stream uri
+	 *
+	 * @return stream uri
+	 */
+	public String getUri() {
+		return mUri;
+	}
+
+	/**
+	 * Returns true if reader was closed
+	 *
+	 * @return true if closed
+	 */
+	public boolean isClosed() {
+		return mClosed;
+	}
+
+	/**
+	 * Returns connect latency. Valid after connect()
+	 *
+	 * @return connect latency in ms
+	 */
+	public int getConnectMs() {
+		return mConnectMs;
+	}
+
+	/**
+	 * Returns time from sending request to response headers. Valid after connect()
+	 *
+	 * @return time to first byte in ms
+	 */
+	public int getFirstByteMs() {
+		return mFirstByteMs;
+	}
+
+	/**
+	 * Returns count of network chunks, which wait for demuxing
+	 *
+	 * @return queue depth, 0 if not in staged mode
+	 */
+	public int getQueuedChunks() {
+		SpscQueue<Chunk> queue = mFilledChunks;
+
+		return (queue != null) ? queue.size() : 0;
+	}
+
+	/**
+	 * Returns network queue statistics for logs: depth and waiting time of stages.
+	 * Network stage waits for free chunks if demuxing is slow
+	 *
+	 * @return queue statistics or null if not in staged mode
+	 */
+	public String getQueueStats() {
+		SpscQueue<Chunk> filledChunks = mFilledChunks;
+		SpscQueue<Chunk> freeChunks = mFreeChunks;
+
+		if (filledChunks == null || freeChunks == null) return null;
+
+		return "depth=" + filledChunks.size() + "/" + filledChunks.getCapacity() + ", max="
+				+ filledChunks.getMaxSize() + ", network waited " + freeChunks.getConsumerWaitMs()
+				+ "ms, demuxing waited " + filledChunks.getConsumerWaitMs() + "ms";
+	}
+
+	/**
+	 * Connect, send request and read response headers. Blocking.
+	 * Redirects are followed
+	 *
+	 * @throws IOException if connection failed or server responded with error
+	 */
+	public void connect() throws IOException {
+		if (! enterStorage()) {
+			throw new IOException("Reader closed");
+		}
+
+		try {
+			String uri = mUri;
+
+			for (int i = 0; i <= MAX_REDIRECTS; i++) {
+				int status = request(uri);
+
+				if (status == 200) {
+					mMetaInterval = parseInt(mHeaders.get("icy-metaint"));
+					mAudioRemaining = mMetaInterval;
+
+					if (mStaged) {
+						startNetworkStage();
+					}
+
+					return;
+				}
+
+				String location = mHeaders.get("location");
+				closeChannel();
+
+				if (status / 100 != 3 || location == null) {
+					throw new IOException("Server responded " + status + " for " + uri);
+				}
+
+				uri = location;
+			}
+
+			throw new IOException("Too many redirects for " + mUri);
+		} finally {
+			exitStorage();
+		}
+	}
+
+	/**
+	 * Returns response header value
+	 *
+	 * @param name header name (case insensitive)
+	 * @return header value or null
+	 */
+	public String getHeader(String name) {
+		return mHeaders.get(name.toLowerCase(Locale.US));
+	}
+
+	/**
+	 * Returns stream bitrate announced by server (icy-br header)
+	 *
+	 * @return bitrate in kbps or 0 if server didn't announce it
+	 */
+	public int getBitrateKbps() {
+		String value = getHeader("icy-br");
+		if (value == null) return 0;
+
+		// Some servers send "min,max"
+		int separator = value.indexOf(',');
+
+		return parseInt((separator >= 0) ? value.substring(0, separator) : value);
+	}
+
+	/**
+	 * Returns metadata interval
+	 *
+	 * @return audio bytes between metadata blocks, 0 if stream has no metadata
+	 */
+	public int getMetaInterval() {
+		return mMetaInterval;
+	}
+
+	/**
+	 * Returns next audio payload. Metadata blocks are parsed and skipped
+	 *
+	 * @return view of network buffer, which is valid until next call or close(), or null if stream ended
+	 * @throws IOException if reading failed or reader was closed
+	 */
+	@Override
+	public ByteBuffer read() throws IOException {
+		if (mData == null || ! enterStorage()) {
+			throw new IOException("Reader closed");
+		}
+
+		try {
+			while (true) {
+				if (! mData.hasRemaining() && ! readChannel()) {
+					return null;
+				}
+
+				if (mMetaInterval > 0 && mAudioRemaining == 0) {
+					if (! readMetadata()) {
+						return null;
+					}
+
+					mAudioRemaining = mMetaInterval;
+					continue;
+				}
+
+				int count = mData.remaining();
+				if (mMetaInterval > 0) {
+					count = Math.min(count, mAudioRemaining);
+					mAudioRemaining -= count;
+				}
+
+				mAudio.limit(mData.position() + count);
+				mAudio.position(mData.position());
+				mData.position(mData.position() + count);
+
+				return mAudio;
+			}
+		} finally {
+			exitStorage();
+		}
+	}
+
+	/**
+	 * Close connection. Blocked reading is released
+	 */
+	@Override
+	public void close() {
+		mClosed = true;
+
+		Selector selector = mSelector;
+		if (selector != null) {
+			selector.wakeup();
+		}
+
+		closeChannel();
+
+		// Release stages waiting for chunks
+		SpscQueue<Chunk> freeChunks = mFreeChunks;
+		if (freeChunks != null) {
+			freeChunks.close();
+		}
+
+		SpscQueue<Chunk> filledChunks = mFilledChunks;
+		if (filledChunks != null) {
+			filledChunks.close();
+		}
+
+		releaseStorage();
+	}
+
+	/**
+	 * Take storage from pool if needed and mark it as used
+	 *
+	 * @return false if reader is closed (storage can't be used)
+	 */
+	private synchronized boolean enterStorage() {
+		if (mClosed) return false;
+
+		if (mStorage == null) {
+			int size = (mStaged) ? BUFFER_SIZE + QUEUE_CHUNKS * CHUNK_SIZE : BUFFER_SIZE;
+			mStorage = BufferPool.DIRECT.acquire(size);
+
+			mBuffer = slice(mStorage, 0, BUFFER_SIZE);
+			mBuffer.flip();
+			mBufferAudio = mBuffer.duplicate();
+			mData = mBuffer;
+			mAudio = mBufferAudio;
+		}
+
+		mStorageUsers++;
+
+		return true;
+	}
+
+	/**
+	 * Mark storage as unused by finished call or thread
+	 */
+	private void exitStorage() {
+		synchronized (this) {
+			mStorageUsers--;
+		}
+
+		releaseStorage();
+	}
+
+	/**
+	 * Return storage to pool when it's not used anymore: reader is closed
+	 * and no stage uses it
+	 */
+	private void releaseStorage() {
+		ByteBuffer storage;
+
+		synchronized (this) {
+			if (mStorage == null || ! mClosed || mStorageUsers > 0) return;
+
+			storage = mStorage;
+			mStorage = null;
+		}
+
+		BufferPool.DIRECT.release(storage);
+	}
+
+	private static ByteBuffer slice(ByteBuffer storage, int offset, int length) {
+		ByteBuffer view = storage.duplicate();
+		view.clear();
+		view.position(offset);
+		view.limit(offset + length);
+
+		return view.slice();
+	}
+
+	/**
+	 * Start network reading thread. Data after headers stays in network
+	 * buffer and is demuxed first
+	 */
+	private void startNetworkStage() {
+		SpscQueue<Chunk> freeChunks = new SpscQueue<Chunk>(QUEUE_CHUNKS);
+		for (int i = 0; i < QUEUE_CHUNKS; i++) {
+			freeChunks.offer(new Chunk(slice(mStorage, BUFFER_SIZE + i * CHUNK_SIZE, CHUNK_SIZE)));
+		}
+
+		// Network stage is storage user until its thread ends
+		synchronized (this) {
+			mStorageUsers++;
+		}
+
+		mFreeChunks = freeChunks;
+		mFilledChunks = new SpscQueue<Chunk>(QUEUE_CHUNKS);
+
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				networkLoop();
+			}
+		}, "IcyNetwork").start();
+	}
+
+	/**
+	 * Network stage loop: read channel into free chunks and pass them to demuxing
+	 */
+	private void networkLoop() {
+		try {
+			while (! mClosed) {
+				Chunk chunk = mFreeChunks.take();
+
+				if (chunk == null || ! readChannel(chunk.data) || ! mFilledChunks.put(chunk)) {
+					break;
+				}
+			}
+		} catch (IOException e) {
+			if (! mClosed) {
+				mNetworkError = e;
+			}
+		} finally {
+			mFilledChunks.close();
+			exitStorage();
+		}
+	}
+
+	/**
+	 * Take next chunk from network stage and demux it in place, without copying.
+	 * Previous chunk is consumed by now (audio view returned by read() is valid
+	 * only until next call), so it's returned to network stage
+	 *
+	 * @return false if stream ended
+	 * @throws IOException if network stage failed
+	 */
+	private boolean takeChunk() throws IOException {
+		if (mChunk != null) {
+			mFreeChunks.offer(mChunk);
+			mChunk = null;
+
+			// Network buffer is drained before first chunk is taken
+			mData = mBuffer;
+			mAudio = mBufferAudio;
+		}
+
+		Chunk chunk = mFilledChunks.take();
+
+		if (mClosed) {
+			throw new IOException("Reader closed");
+		}
+
+		if (chunk == null) {
+			IOException error = mNetworkError;
+			if (error != null) {
+				throw error;
+			}
+
+			return false;
+		}
+
+		mChunk = chunk;
+		mData = chunk.data;
+		mAudio = chunk.audio;
+
+		return true;
+	}
+
+	/**
+	 * Open channel, send request and parse response headers.
+	 * Data after headers is left in network buffer
+	 *
+	 * @param uri requested uri
+	 * @return response status code
+	 * @throws IOException if connection failed
+	 */
+	private int request(String uri) throws IOException {
+		URI parsed;
+		try {
+			parsed = new URI(uri);
+		} catch (URISyntaxException e) {
+			throw new IOException("Bad stream uri " + uri);
+		}
+
+		String host = parsed.getHost();
+		int port = (parsed.getPort() > 0) ? parsed.getPort() : 80;
+		String path = (parsed.getRawPath() == null || parsed.getRawPath().length() == 0) ? "/" : parsed.getRawPath();
+		if (parsed.getRawQuery() != null) {
+			path += "?" + parsed.getRawQuery();
+		}
+
+		SocketChannel channel = SocketChannel.open();
+		mChannel = channel;
+		if (mClosed) {
+			closeChannel();
+			throw new IOException("Reader closed");
+		}
+
+		long connectStart = System.nanoTime();
+		channel.socket().connect(new InetSocketAddress(host, port), mConnectTimeoutMs);
+		long requestStart = System.nanoTime();
+		mConnectMs = (int) ((requestStart - connectStart) / 1000000L);
+
+		String request = "GET " + path + " HTTP/1.0\r\n"
+				+ "Host: " + host + ((parsed.getPort() > 0) ? ":" + port : "") + "\r\n"
+				+ "User-Agent: " + USER_AGENT + "\r\n"
+				+ "Icy-MetaData: 1\r\n"
+				+ "Connection: close\r\n"
+				+ "\r\n";
+
+		ByteBuffer requestBuffer = ByteBuffer.wrap(request.getBytes("ISO-8859-1"));
+		while (requestBuffer.hasRemaining()) {
+			channel.write(requestBuffer);
+		}
+
+		Selector selector = Selector.open();
+		mSelector = selector;
+		if (mClosed) {
+			closeChannel();
+			throw new IOException("Reader closed");
+		}
+
+		try {
+			channel.configureBlocking(false);
+			channel.register(selector, SelectionKey.OP_READ);
+		} catch (ClosedSelectorException e) {
+			throw closedException(e);
+		}
+
+		mBuffer.clear().flip();
+
+		int status = readHeaders();
+		mFirstByteMs = (int) ((System.nanoTime() - requestStart) / 1000000L);
+
+		return status;
+	}
+
+	/**
+	 * Read status line and headers
+	 *
+	 * @return response status code
+	 * @throws IOException if response is malformed
+	 */
+	private int readHeaders() throws IOException {
+		mHeaders.clear();
+
+		String statusLine = readLine();
+		// "HTTP/1.0 200 OK" or "ICY 200 OK"
+		String[] parts = statusLine.split(" ");
+		if (parts.length < 2) {
+			throw new IOException("Bad status line: " + statusLine);
+		}
+
+		int status = parseInt(parts[1]);
+
+		String line;
+		while ((line = readLine()).length() > 0) {
+			int separator = line.indexOf(':');
+			if (separator > 0) {
+				mHeaders.put(line.substring(0, separator).trim().toLowerCase(Locale.US),
+						line.substring(separator + 1).trim());
+			}
+		}
+
+		return status;
+	}
+
+	/**
+	 * Read header line (ISO-8859-1, CRLF or LF terminated)
+	 *
+	 * @return line without terminator
+	 * @throws IOException if stream ended
+	 */
+	private String readLine() throws IOException {
+		StringBuilder line = new StringBuilder();
+
+		while (true) {
+			if (! mData.hasRemaining() && ! readChannel()) {
+				throw new IOException("Unexpected end of headers");
+			}
+
+			char c = (char) (mData.get() & 0xff);
+
+			if (c == '\n') {
+				int length = line.length();
+				if (length > 0 && line.charAt(length - 1) == '\r') {
+					line.setLength(length - 1);
+				}
+
+				return line.toString();
+			}
+
+			if (line.length() >= BUFFER_SIZE) {
+				throw new IOException("Header line is too long");
+			}
+
+			line.append(c);
+		}
+	}
+
+	/**
+	 * Read metadata block: length byte and length * 16 bytes of text
+	 *
+	 * @return false if stream ended
+	 * @throws IOException if reading failed
+	 */
+	private boolean readMetadata() throws IOException {
+		if (! mData.hasRemaining() && ! readChannel()) {
+			return false;
+		}
+
+		int length = (mData.get() & 0xff) * METADATA_BLOCK_UNIT;
+		if (length == 0) {
+			return true;
+		}
+
+		if (mMetadata.length < length) {
+			mMetadata = new byte[length];
+		}
+
+		int offset = 0;
+		while (offset < length) {
+			if (! mData.hasRemaining() && ! readChannel()) {
+				return false;
+			}
+
+			int count = Math.min(length - offset, mData.remaining());
+			mData.get(mMetadata, offset, count);
+			offset += count;
+		}
+
+		parseMetadata(mMetadata, length);
+
+		return true;
+	}
+
+	/**
+	 * Parse metadata text: StreamTitle='...';StreamUrl='...';
+	 * Block is padded with zeros
+	 *
+	 * @param data metadata bytes
+	 * @param length block length
+	 */
+	private void parseMetadata(byte[] data, int length) {
+		while (length > 0 && data[length - 1] == 0) {
+			length--;
+		}
+
+		String text;
+		try {
+			text = new String(data, 0, length, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			return;
+		}
+
+		for (String item : text.split(";")) {
+			int separator = item.indexOf('=');
+			if (separator < 0) continue;
+
+			String key = item.substring(0, separator);
+			String value = item.substring(separator + 1);
+
+			if (value.length() >= 2 && value.charAt(0) == '\'' && value.charAt(value.length() - 1) == '\'') {
+				value = value.substring(1, value.length() - 1);
+			}
+
+			if (mListener != null) {
+				mListener.onMetadata(key, value);
+			}
+		}
+	}
+
+	/**
+	 * Get next network data into network buffer: from network stage
+	 * in staged mode, from channel otherwise
+	 *
+	 * @return false if stream ended
+	 * @throws IOException if reading failed
+	 */
+	private boolean readChannel() throws IOException {
+		if (mFilledChunks != null) {
+			return takeChunk();
+		}
+
+		return readChannel(mBuffer);
+	}
+
+	/**
+	 * Read next network data into buffer. Waits for data not longer than read timeout.
+	 * Selector can be closed by close() from other thread at any moment:
+	 * unchecked selector exceptions are reported as IOException, so reading thread isn't killed
+	 *
+	 * @param buffer destination buffer, in reading mode after return
+	 * @return false if stream ended
+	 * @throws IOException if reading failed or reader was closed
+	 * @throws SocketTimeoutException if server sent nothing during read timeout
+	 */
+	private boolean readChannel(ByteBuffer buffer) throws IOException {
+		buffer.clear();
+
+		long deadline = System.nanoTime() + mReadTimeoutMs * 1000000L;
+
+		int count;
+		try {
+			while ((count = mChannel.read(buffer)) == 0) {
+				long waitMs = (deadline - System.nanoTime()) / 1000000L;
+
+				if (mClosed) {
+					throw new IOException("Reader closed");
+				}
+
+				if (waitMs <= 0) {
+					throw new SocketTimeoutException("No data from " + mUri + " for " + mReadTimeoutMs + " ms");
+				}
+
+				mSelector.select(waitMs);
+				mSelector.selectedKeys().clear();
+			}
+		} catch (ClosedSelectorException e) {
+			throw closedException(e);
+		} catch (CancelledKeyException e) {
+			throw closedException(e);
+		}
+
+		buffer.flip();
+
+		return count > 0;
+	}
+
+	/**
+	 * Returns exception for reading interrupted by close()
+	 *
+	 * @param cause unchecked exception thrown by closed selector
+	 * @return exception to throw
+	 */
+	private IOException closedException(RuntimeException cause) {
+		IOException e = new IOException(mClosed ? "Reader closed" : "Selector closed");
+		e.initCause(cause);
+
+		return e;
+	}
+
+	private void closeChannel() {
+		SocketChannel channel = mChannel;
+
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException ignored) {}
+		}
+
+		Selector selector = mSelector;
+
+		if (selector != null) {
+			try {
+				selector.close();
+			} catch (IOException ignored) {}
+		}
+	}
+
+	private static int parseInt(String value) {
+		if (value == null) return 0;
+
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,689 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.components.player;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Jitter buffer between network stream and decoder.
+ * Backed by ring buffer, which is allocated once on creation.
+ *
+ * Reading is blocked until buffer collects prebuffer depth. If decoder
+ * asks for data while buffer is drained below low-water mark, buffer
+ * switches to rebuffering and holds data until prebuffer depth is collected again.
+ *
+ * In fast start mode first reading is allowed as soon as few valid frames (MP3 or ADTS)
+ * are collected. Buffer then grows to prebuffer depth while playing, and only
+ * complete drain causes rebuffering until it's reached.
+ *
+ * @author dector
+ */
+public class JitterBuffer {
+
+	/** Default prebuffer depth in ms */
+	public static final int DEFAULT_PREBUFFER_MS = 3000;
+	/** Default low-water mark in ms */
+	public static final int DEFAULT_LOW_WATER_MS = 500;
+	/** Default ring buffer capacity in ms */
+	public static final int DEFAULT_CAPACITY_MS = 10000;
+	/** Default count of frames needed to start in fast start mode */
+	public static final int DEFAULT_FAST_START_FRAMES = 8;
+
+	/** Longest frame header, which is parsed in fast start mode */
+	private static final int MAX_HEADER_SIZE = 16;
+	/** Size of chunk read from network per iteration */
+	private static final int READ_CHUNK_SIZE = 4096;
+	/** Listener is notified when fill level changed at least by this value (in %) */
+	private static final int NOTIFY_STEP_PERCENT = 5;
+
+	/**
+	 * Source of network data
+	 */
+	public interface Source {
+
+		/**
+		 * Read next data. Blocking
+		 *
+		 * @return buffer with data, which is valid until next call, or null if source ended
+		 * @throws IOException if reading failed
+		 */
+		public ByteBuffer read() throws IOException;
+
+		/**
+		 * Close source. Blocked reading should be released
+		 */
+		public void close();
+	}
+
+	/**
+	 * Buffer state listener. Called from filling thread
+	 */
+	public interface Listener {
+
+		/**
+		 * Called when fill level or buffering state changed
+		 *
+		 * @param buffer changed buffer
+		 */
+		public void onBufferChanged(JitterBuffer buffer);
+	}
+
+	/** Ring buffer storage from BufferPool, null after release */
+	private byte[] mBuffer;
+	/** Ring buffer length */
+	private int mCapacity;
+	/** Ring buffer capacity in ms */
+	private final int mCapacityMs;
+	/** True while filling thread is running */
+	private boolean mFilling;
+	/** Stream byte rate, used to convert ms to bytes */
+	private int mBytesPerSecond;
+
+	/** Bytes needed before reading is allowed */
+	private int mPrebufferBytes;
+	/** Fill level which switches buffer to rebuffering */
+	private int mLowWaterBytes;
+
+	private int mReadPos;
+	private int mWritePos;
+	private int mFilled;
+
+	/** True while collecting prebuffer depth */
+	private boolean mBuffering = true;
+	/** Frames needed for first reading in fast start mode, 0 if fast start is off or done */
+	private int mFastStartFrames;
+	/** True after fast start, until buffer grows to prebuffer depth */
+	private boolean mGrowing;
+	/** Header parser for fast start */
+	private AudioFrameHeader mFrameHeader = new Mp3FrameHeader();
+	/** First found header for fast start */
+	private AudioFrameHeader mFirstFrameHeader = new Mp3FrameHeader();
+	/** Header bytes copied from ring buffer for parsing */
+	private final byte[] mHeaderBytes = new byte[MAX_HEADER_SIZE];
+	/** True if oldest data is dropped when buffer is full (instead of blocking source) */
+	private boolean mDropOldest;
+	/** True if source ended */
+	private boolean mEndOfStream;
+	/** True if buffer was closed */
+	private boolean mClosed;
+	/** Source exception to be rethrown to reader */
+	private IOException mError;
+
+	/** Bytes received from source */
+	private long mReceivedBytes;
+	/** Bytes dropped when buffer was full, they are never read */
+	private long mDroppedBytes;
+	/** Time spent waiting for source data in ns */
+	private long mNetworkNanos;
+
+	/** Network data source */
+	private Source mSource;
+	/** Buffer state listener */
+	private Listener mListener;
+	/** Last fill level (in %) sent to listener */
+	private int mNotifiedPercent = -1;
+	/** Last buffering state sent to listener */
+	private boolean mNotifiedBuffering;
+
+	/**
+	 * Create new instance and take ring buffer from pool
+	 *
+	 * @param bytesPerSecond stream byte rate
+	 * @param capacityMs ring buffer capacity in ms
+	 * @param prebufferMs prebuffer depth in ms
+	 * @param lowWaterMs low-water mark in ms
+	 */
+	public JitterBuffer(int bytesPerSecond, int capacityMs, int prebufferMs, int lowWaterMs) {
+		mBytesPerSecond = bytesPerSecond;
+		mCapacityMs = capacityMs;
+		mCapacity = msToBytes(capacityMs);
+		mBuffer = BufferPool.BYTES.acquire(mCapacity);
+
+		mPrebufferBytes = Math.min(msToBytes(prebufferMs), mCapacity);
+		mLowWaterBytes = Math.min(msToBytes(lowWaterMs), mPrebufferBytes);
+	}
+
+	/**
+	 * Set stream byte rate negotiated with server. Depths in ms are kept,
+	 * ring buffer is resized. Should be called before start()
+	 *
+	 * @param bytesPerSecond stream byte rate
+	 */
+	public synchronized void setBytesPerSecond(int bytesPerSecond) {
+		if (bytesPerSecond <= 0 || bytesPerSecond == mBytesPerSecond || mBuffer == null || mFilling) return;
+
+		int prebufferMs = bytesToMs(mPrebufferBytes);
+		int lowWaterMs = bytesToMs(mLowWaterBytes);
+
+		mBytesPerSecond = bytesPerSecond;
+		mCapacity = msToBytes(mCapacityMs);
+
+		BufferPool.BYTES.release(mBuffer);
+		mBuffer = BufferPool.BYTES.acquire(mCapacity);
+
+		mPrebufferBytes = Math.min(msToBytes(prebufferMs), mCapacity);
+		mLowWaterBytes = Math.min(msToBytes(lowWaterMs), mPrebufferBytes);
+	}
+
+	/**
+	 * Set buffer state listener
+	 *
+	 * @param listener buffer state listener
+	 */
+	public void setListener(Listener listener) {
+		mListener = listener;
+	}
+
+	/**
+	 * Set full buffer behaviour. Dropping oldest data keeps buffer
+	 * at live edge, when nobody reads it (standby connection)
+	 *
+	 * @param dropOldest true to drop oldest data, false to block source
+	 */
+	public synchronized void setDropOldest(boolean dropOldest) {
+		mDropOldest = dropOldest;
+		notifyAll();
+	}
+
+	/**
+	 * Turn on fast start mode. Should be called before start()
+	 *
+	 * @param frames count of valid frames needed for first reading, 0 to turn off
+	 */
+	public synchronized void setFastStartFrames(int frames) {
+		mFastStartFrames = frames;
+	}
+
+	/**
+	 * Set stream codec, which frames are counted in fast start mode.
+	 * MP3 is expected by default. Should be called before start()
+	 *
+	 * @param codec stream codec
+	 */
+	public synchronized void setCodec(StreamCodec codec) {
+		mFrameHeader = codec.createFrameHeader();
+		mFirstFrameHeader = codec.createFrameHeader();
+	}
+
+	/**
+	 * Start filling thread, which reads data from source stream
+	 *
+	 * @param source network stream
+	 */
+	public void start(InputStream source) {
+		start(new StreamSource(source));
+	}
+
+	/**
+	 * Start filling thread, which reads data from source
+	 *
+	 * @param source network data source
+	 */
+	public void start(Source source) {
+		mSource = source;
+
+		synchronized (this) {
+			mFilling = true;
+		}
+
+		Thread filler = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				fill();
+			}
+		}, "JitterBuffer");
+		filler.start();
+	}
+
+	/**
+	 * Returns stream, which reads buffered data. Closing it closes buffer and source stream
+	 *
+	 * @return buffered stream
+	 */
+	public InputStream getInputStream() {
+		return new BufferedStream();
+	}
+
+	/**
+	 * Returns buffered data length in ms
+	 *
+	 * @return buffered data length in ms
+	 */
+	public synchronized int getFilledMs() {
+		return bytesToMs(mFilled);
+	}
+
+	/**
+	 * Returns buffered data length in bytes
+	 *
+	 * @return buffered data length in bytes
+	 */
+	public synchronized int getFilledBytes() {
+		return mFilled;
+	}
+
+	/**
+	 * Returns ring buffer capacity in ms
+	 *
+	 * @return ring buffer capacity in ms
+	 */
+	public int getCapacityMs() {
+		return mCapacityMs;
+	}
+
+	/**
+	 * Returns prebuffer depth in ms
+	 *
+	 * @return prebuffer depth in ms
+	 */
+	public synchronized int getPrebufferMs() {
+		return bytesToMs(mPrebufferBytes);
+	}
+
+	/**
+	 * Returns bytes count received from source
+	 *
+	 * @return received bytes count
+	 */
+	public synchronized long getReceivedBytes() {
+		return mReceivedBytes;
+	}
+
+	/**
+	 * Returns position of next received byte in stream, which is read from buffer
+	 * (bytes dropped when buffer was full aren't counted). Source metadata,
+	 * which comes between data chunks, belongs to this position
+	 *
+	 * @return stream position in bytes
+	 */
+	public synchronized long getStreamPosition() {
+		return mReceivedBytes - mDroppedBytes;
+	}
+
+	/**
+	 * Returns time spent waiting for source data. Together with received
+	 * bytes gives throughput, which isn't limited by playback speed
+	 *
+	 * @return network time in ms
+	 */
+	public synchronized long getNetworkMs() {
+		return mNetworkNanos / 1000000;
+	}
+
+	/**
+	 * Returns true if reading is held until prebuffer depth is collected
+	 *
+	 * @return true if buffering now
+	 */
+	public synchronized boolean isBuffering() {
+		return mBuffering;
+	}
+
+	/**
+	 * Close buffer and source stream. Blocked reader and filler are released
+	 */
+	public void close() {
+		synchronized (this) {
+			if (mClosed) return;
+
+			mClosed = true;
+			notifyAll();
+
+			releaseStorage();
+		}
+
+		if (mSource != null) {
+			mSource.close();
+		}
+	}
+
+	/**
+	 * Return ring buffer to pool when it's not used anymore: buffer is closed
+	 * and filling thread ended. Reader doesn't touch storage after close
+	 */
+	private void releaseStorage() {
+		if (mBuffer != null && mClosed && ! mFilling) {
+			BufferPool.BYTES.release(mBuffer);
+			mBuffer = null;
+		}
+	}
+
+	/**
+	 * Filling thread loop
+	 */
+	private void fill() {
+		try {
+			while (! isClosed()) {
+				long startTime = System.nanoTime();
+				ByteBuffer data = mSource.read();
+
+				if (data == null) {
+					break;
+				}
+
+				synchronized (this) {
+					mNetworkNanos += System.nanoTime() - startTime;
+					mReceivedBytes += data.remaining();
+				}
+
+				write(data);
+			}
+		} catch (IOException e) {
+			synchronized (this) {
+				if (! mClosed) {
+					mError = e;
+				}
+			}
+		} finally {
+			synchronized (this) {
+				mEndOfStream = true;
+				mFilling = false;
+				notifyAll();
+
+				releaseStorage();
+			}
+		}
+	}
+
+	private synchronized boolean isClosed() {
+		return mClosed;
+	}
+
+	/**
+	 * Put data to ring buffer. Blocks while buffer is full
+	 *
+	 * @param data source data, will be consumed
+	 * @throws InterruptedIOException if filling thread was interrupted
+	 */
+	private void write(ByteBuffer data) throws InterruptedIOException {
+		while (data.hasRemaining()) {
+			int length = data.remaining();
+			int count;
+
+			synchronized (this) {
+				while (mFilled == mCapacity && ! mClosed) {
+					if (mDropOldest) {
+						int dropped = Math.min(length, mFilled);
+						mDroppedBytes += dropped;
+
+						mReadPos = (mReadPos + dropped) % mCapacity;
+						mFilled -= dropped;
+					} else {
+						waitForChange();
+					}
+				}
+
+				if (mClosed) return;
+
+				count = Math.min(length, Math.min(mCapacity - mFilled, mCapacity - mWritePos));
+				data.get(mBuffer, mWritePos, count);
+
+				mWritePos = (mWritePos + count) % mCapacity;
+				mFilled += count;
+
+				if (mFilled >= mPrebufferBytes) {
+					mBuffering = false;
+					mGrowing = false;
+					mFastStartFrames = 0;
+				} else if (mBuffering && mFastStartFrames > 0 && hasFrames(mFastStartFrames)) {
+					mBuffering = false;
+					mGrowing = true;
+					mFastStartFrames = 0;
+				}
+
+				notifyAll();
+			}
+
+			notifyListener();
+		}
+	}
+
+	/**
+	 * Get data from ring buffer. Blocks while buffering
+	 *
+	 * @param data destination array
+	 * @param offset offset in destination array
+	 * @param length max data length
+	 * @return read bytes count or -1 if stream ended
+	 * @throws IOException if source stream failed
+	 */
+	private int read(byte[] data, int offset, int length) throws IOException {
+		int count;
+
+		synchronized (this) {
+			if (mFilled < ((mGrowing) ? 1 : mLowWaterBytes) && ! mEndOfStream) {
+				mBuffering = true;
+				mGrowing = false;
+			}
+
+			while (mBuffering && ! mEndOfStream && ! mClosed) {
+				waitForChange();
+			}
+
+			if (mClosed || (mFilled == 0 && mEndOfStream)) {
+				if (mError != null) {
+					throw mError;
+				}
+
+				return -1;
+			}
+
+			count = Math.min(length, Math.min(mFilled, mCapacity - mReadPos));
+			System.arraycopy(mBuffer, mReadPos, data, offset, count);
+
+			mReadPos = (mReadPos + count) % mCapacity;
+			mFilled -= count;
+
+			notifyAll();
+		}
+
+		notifyListener();
+
+		return count;
+	}
+
+	/**
+	 * Check if buffer starts with enough consecutive valid frames
+	 * (garbage before first frame is allowed)
+	 *
+	 * @param frames needed frames count
+	 * @return true if frames are collected
+	 */
+	private boolean hasFrames(int frames) {
+		for (int start = 0; start + mFrameHeader.getHeaderSize() <= mFilled; start++) {
+			if (countFrames(start, frames) >= frames) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Count complete consecutive frames
+	 *
+	 * @param start offset from read position
+	 * @param maxFrames stop counting after this count
+	 * @return frames count
+	 */
+	private int countFrames(int start, int maxFrames) {
+		int pos = start;
+		int count = 0;
+		int headerSize = mFrameHeader.getHeaderSize();
+
+		while (count < maxFrames && pos + headerSize <= mFilled) {
+			for (int i = 0; i < headerSize; i++) {
+				mHeaderBytes[i] = (byte) peek(pos + i);
+			}
+
+			if (! mFrameHeader.parse(mHeaderBytes, 0)) {
+				break;
+			}
+
+			if (count == 0) {
+				mFirstFrameHeader.set(mFrameHeader);
+			} else if (! mFrameHeader.isCompatible(mFirstFrameHeader)) {
+				break;
+			}
+
+			pos += mFrameHeader.getFrameLength();
+			if (pos > mFilled) {
+				break;
+			}
+
+			count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Returns buffered byte without reading it
+	 *
+	 * @param offset offset from read position
+	 * @return unsigned byte value
+	 */
+	private int peek(int offset) {
+		return mBuffer[(mReadPos + offset) % mCapacity] & 0xff;
+	}
+
+	/**
+	 * Wait for data or free space
+	 *
+	 * @throws InterruptedIOException if thread was interrupted
+	 */
+	private void waitForChange() throws InterruptedIOException {
+		try {
+			wait();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		}
+	}
+
+	/**
+	 * Notify listener if fill level changed enough or buffering state changed
+	 */
+	private void notifyListener() {
+		Listener listener = mListener;
+		if (listener == null) return;
+
+		boolean notify;
+
+		synchronized (this) {
+			int percent = mFilled * 100 / mCapacity;
+
+			notify = mBuffering != mNotifiedBuffering
+					|| Math.abs(percent - mNotifiedPercent) >= NOTIFY_STEP_PERCENT;
+
+			if (notify) {
+				mNotifiedPercent = percent;
+				mNotifiedBuffering = mBuffering;
+			}
+		}
+
+		if (notify) {
+			listener.onBufferChanged(this);
+		}
+	}
+
+	private int msToBytes(int ms) {
+		return (int) ((long) mBytesPerSecond * ms / 1000);
+	}
+
+	private int bytesToMs(int bytes) {
+		return (int) ((long) bytes * 1000 / mBytesPerSecond);
+	}
+
+	/**
+	 * Source, which reads classic input stream
+	 */
+	private static class StreamSource implements Source {
+
+		private final InputStream mStream;
+		private final byte[] mChunk = new byte[READ_CHUNK_SIZE];
+		private final ByteBuffer mChunkBuffer = ByteBuffer.wrap(mChunk);
+
+		public StreamSource(InputStream stream) {
+			mStream = stream;
+		}
+
+		@Override
+		public ByteBuffer read() throws IOException {
+			int count = mStream.read(mChunk, 0, mChunk.length);
+			if (count < 0) {
+				return null;
+			}
+
+			mChunkBuffer.clear();
+			mChunkBuffer.limit(count);
+
+			return mChunkBuffer;
+		}
+
+		@Override
+		public void close() {
+			try {
+				mStream.close();
+			} catch (IOException ignored) {}
+		}
+	}
+
+	/**
+	 * Stream, which is passed to decoder
+	 */
+	private class BufferedStream extends InputStream {
+
+		/** Reused for single byte reading */
+		private final byte[] mSingle = new byte[1];
+
+		@Override
+		public int read() throws IOException {
+			int count = read(mSingle, 0, 1);
+
+			return (count < 0) ? -1 : mSingle[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] data, int offset, int length) throws IOException {
+			if (length == 0) return 0;
+
+			return JitterBuffer.this.read(data, offset, length);
+		}
+
+		@Override
+		public int available() {
+			synchronized (JitterBuffer.this) {
+				return (mBuffering) ? 0 : mFilled;
+			}
+		}
+
+		@Override
+		public void close() {
+			JitterBuffer.this.close();
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.components.player;
+
+/**
+ * Keeps playback close to live edge.
+ *
+ * Latency is measured as time between network read position and heard audio:
+ * jitter buffer plus audio output buffer. It grows after rebuffering (data,
+ * which was late, is still played later) and never shrinks by itself, so
+ * shown metadata gets ahead of audio. If latency stays above max level for
+ * a while, buffered frames are dropped to return it to target level.
+ *
+ * Playing speed can't be changed: audio track is owned by decoder library.
+ *
+ * @author dector
+ */
+public class LatencyController {
+
+	/** Default target latency. Higher than adaptive mode step up level, so both can work together */
+	public static final int DEFAULT_TARGET_MS = 7000;
+	/** Catch up if latency is higher than target by this value */
+	public static final int DEFAULT_MAX_EXCESS_MS = 2000;
+
+	/** Max latency conditions should hold at least this time */
+	private static final int HOLD_MS = 10000;
+	/** Jitter buffer data, which is never dropped */
+	private static final int MIN_BUFFER_MS = 1000;
+
+	private final int mTargetMs;
+	private final int mMaxMs;
+
+	/** Time when latency became higher than max, -1 if it isn't */
+	private long mAboveSince = -1;
+	/** Last measured latency in ms */
+	private int mLatencyMs;
+	/** Total dropped time in ms */
+	private long mDroppedMs;
+	/** Catch up count */
+	private int mCatchUps;
+
+	/**
+	 * Create new instance
+	 *
+	 * @param targetMs latency after catch up in ms
+	 * @param maxExcessMs catch up if latency is higher than target by this value
+	 */
+	public LatencyController(int targetMs, int maxExcessMs) {
+		mTargetMs = targetMs;
+		mMaxMs = targetMs + maxExcessMs;
+	}
+
+	/**
+	 * Forget measured state. Should be called on connection (re)start
+	 */
+	public synchronized void reset() {
+		mAboveSince = -1;
+		mLatencyMs = 0;
+	}
+
+	/**
+	 * Process latency sample
+	 *
+	 * @param time sample time (monotonic, in ms)
+	 * @param bufferedMs jitter buffer data in ms
+	 * @param outputMs audio output buffer data in ms
+	 * @return playing time to drop in ms, 0 if latency is fine
+	 */
+	public synchronized int onSample(long time, int bufferedMs, int outputMs) {
+		mLatencyMs = bufferedMs + outputMs;
+
+		if (mLatencyMs <= mMaxMs) {
+			mAboveSince = -1;
+			return 0;
+		}
+
+		if (mAboveSince < 0) {
+			mAboveSince = time;
+			return 0;
+		}
+
+		if (time - mAboveSince < HOLD_MS) {
+			return 0;
+		}
+
+		int dropMs = Math.min(mLatencyMs - mTargetMs, bufferedMs - MIN_BUFFER_MS);
+		if (dropMs <= 0) {
+			return 0;
+		}
+
+		mAboveSince = -1;
+		mDroppedMs += dropMs;
+		mCatchUps++;
+
+		return dropMs;
+	}
+
+	/**
+	 * Returns last measured latency
+	 *
+	 * @return latency in ms
+	 */
+	public synchronized int getLatencyMs() {
+		return mLatencyMs;
+	}
+
+	/**
+	 * Returns total time, which was dropped to catch up
+	 *
+	 * @return dropped time in ms
+	 */
+	public synchronized long getDroppedMs() {
+		return mDroppedMs;
+	}
+
+	/**
+	 * Returns catch up count
+	 *
+	 * @return catch up count
+	 */
+	public synchronized int getCatchUps() {
+		return mCatchUps;
+	}
+}
@@ -0,0 +1,226 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.components.player;
+
+/**
+ * MPEG audio frame header parser. Instance is reused for parsing
+ * to avoid allocations on stream reading path
+ *
+ * @author dector
+ */
+public class Mp3FrameHeader implements AudioFrameHeader {
+
+	/** Header length in bytes */
+	public static final int HEADER_SIZE = 4;
+
+	public static final int VERSION_1 = 3;
+	public static final int VERSION_2 = 2;
+	public static final int VERSION_2_5 = 0;
+
+	public static final int LAYER_1 = 3;
+	public static final int LAYER_2 = 2;
+	public static final int LAYER_3 = 1;
+
+	/** Bitrates (kbps) for MPEG 1: [layer][index] */
+	private static final int[][] BITRATES_V1 = {
+			{},
+			{ 0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320 },
+			{ 0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384 },
+			{ 0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448 }
+	};
+
+	/** Bitrates (kbps) for MPEG 2 and 2.5: [layer][index] */
+	private static final int[][] BITRATES_V2 = {
+			{},
+			{ 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 },
+			{ 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 },
+			{ 0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256 }
+	};
+
+	/** Sample rates (Hz): [version][index] */
+	private static final int[][] SAMPLE_RATES = {
+			{ 11025, 12000, 8000 },
+			{},
+			{ 22050, 24000, 16000 },
+			{ 44100, 48000, 32000 }
+	};
+
+	private int mVersion;
+	private int mLayer;
+	private int mBitrateKbps;
+	private int mSampleRate;
+	private int mChannels;
+	private int mFrameLength;
+	private int mSamplesPerFrame;
+
+	@Override
+	public int getHeaderSize() {
+		return HEADER_SIZE;
+	}
+
+	/**
+	 * Parse header from array
+	 *
+	 * @param data source array
+	 * @param offset header offset, at least HEADER_SIZE bytes should be available
+	 * @return true if header is valid
+	 */
+	@Override
+	public boolean parse(byte[] data, int offset) {
+		return parse(data[offset] & 0xff, data[offset + 1] & 0xff, data[offset + 2] & 0xff, data[offset + 3] & 0xff);
+	}
+
+	/**
+	 * Parse header from separate bytes. Free format and reserved values are treated as invalid
+	 *
+	 * @return true if header is valid
+	 */
+	public boolean parse(int b0, int b1, int b2, int b3) {
+		if (b0 != 0xff || (b1 & 0xe0) != 0xe0) return false;
+
+		int version = (b1 >> 3) & 0x03;
+		int layer = (b1 >> 1) & 0x03;
+		int bitrateIndex = (b2 >> 4) & 0x0f;
+		int sampleRateIndex = (b2 >> 2) & 0x03;
+		int padding = (b2 >> 1) & 0x01;
+		int channelMode = (b3 >> 6) & 0x03;
+		int emphasis = b3 & 0x03;
+
+		if (version == 1 || layer == 0 || bitrateIndex == 0 || bitrateIndex == 15
+				|| sampleRateIndex == 3 || emphasis == 2) {
+			return false;
+		}
+
+		int bitrate = (version == VERSION_1) ? BITRATES_V1[layer][bitrateIndex] : BITRATES_V2[layer][bitrateIndex];
+		int sampleRate = SAMPLE_RATES[version][sampleRateIndex];
+
+		int frameLength;
+		int samples;
+
+		if (layer == LAYER_1) {
+			frameLength = (12000 * bitrate / sampleRate + padding) * 4;
+			samples = 384;
+		} else if (layer == LAYER_3 && version != VERSION_1) {
+			frameLength = 72000 * bitrate / sampleRate + padding;
+			samples = 576;
+		} else {
+			frameLength = 144000 * bitrate / sampleRate + padding;
+			samples = 1152;
+		}
+
+		mVersion = version;
+		mLayer = layer;
+		mBitrateKbps = bitrate;
+		mSampleRate = sampleRate;
+		mChannels = (channelMode == 3) ? 1 : 2;
+		mFrameLength = frameLength;
+		mSamplesPerFrame = samples;
+
+		return true;
+	}
+
+	/**
+	 * Returns true if frames can belong to the same stream
+	 * (bitrate may differ in VBR streams)
+	 *
+	 * @param other parsed header
+	 * @return true if version, layer and sample rate match
+	 */
+	@Override
+	public boolean isCompatible(AudioFrameHeader other) {
+		if (! (other instanceof Mp3FrameHeader)) return false;
+
+		Mp3FrameHeader header = (Mp3FrameHeader) other;
+
+		return mVersion == header.mVersion && mLayer == header.mLayer && mSampleRate == header.mSampleRate;
+	}
+
+	/**
+	 * Copy parsed values from other header
+	 *
+	 * @param other parsed header
+	 */
+	@Override
+	public void set(AudioFrameHeader other) {
+		Mp3FrameHeader header = (Mp3FrameHeader) other;
+
+		mVersion = header.mVersion;
+		mLayer = header.mLayer;
+		mBitrateKbps = header.mBitrateKbps;
+		mSampleRate = header.mSampleRate;
+		mChannels = header.mChannels;
+		mFrameLength = header.mFrameLength;
+		mSamplesPerFrame = header.mSamplesPerFrame;
+	}
+
+	public int getVersion() {
+		return mVersion;
+	}
+
+	public int getLayer() {
+		return mLayer;
+	}
+
+	public int getBitrateKbps() {
+		return mBitrateKbps;
+	}
+
+	public int getSampleRate() {
+		return mSampleRate;
+	}
+
+	public int getChannels() {
+		return mChannels;
+	}
+
+	/**
+	 * Returns full frame length including header
+	 *
+	 * @return frame length in bytes
+	 */
+	@Override
+	public int getFrameLength() {
+		return mFrameLength;
+	}
+
+	public int getSamplesPerFrame() {
+		return mSamplesPerFrame;
+	}
+
+	/**
+	 * Returns frame duration
+	 *
+	 * @return frame duration in microseconds
+	 */
+	@Override
+	public int getDurationUs() {
+		return (int) (mSamplesPerFrame * 1000000L / mSampleRate);
+	}
+
+	@Override
+	public String toString() {
+		return "MPEG frame [" + mBitrateKbps + "kbps, " + mSampleRate + "Hz, " + mChannels + "ch, "
+				+ mFrameLength + " bytes]";
+	}
+}
@@ -31,5 +31,6 @@ package io.github.dector.rkpi.components.player;
 public enum PlayerState {
 	STOPPED,	// Not playing
 	PLAYING,	// Playing
+	RECONNECTING,	// Connection lost, waiting for next attempt
 	ERROR		// Like stopped, but isn't normal
 }
@@ -37,4 +37,13 @@ public interface PlayerStateObserver {
 	 * @param data additional data (song info for example)
 	 */
 	public void onStateChanged(PlayerState newState, Object data);
+
+	/**
+	 * Called when jitter buffer fill level or buffering state changed
+	 *
+	 * @param filledMs buffered data length in ms
+	 * @param prebufferMs prebuffer depth in ms
+	 * @param buffering true if playback is held until prebuffer depth is collected
+	 */
+	public void onBufferChanged(int filledMs, int prebufferMs, boolean buffering);
 }
@@ -0,0 +1,134 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.components.player;
+
+import java.util.Random;
+
+/**
+ * Reconnect policy: exponential backoff with random jitter,
+ * limited by max retry window since first failure.
+ *
+ * Jitter spreads reconnects of many clients after server restart,
+ * so they don't hit server in lock-step.
+ *
+ * @author dector
+ */
+public class ReconnectPolicy {
+
+	/** Default delay before first retry in ms */
+	public static final int DEFAULT_BASE_DELAY_MS = 500;
+	/** Default max delay between retries in ms */
+	public static final int DEFAULT_MAX_DELAY_MS = 15000;
+	/** Default max time to retry since first failure in ms */
+	public static final int DEFAULT_RETRY_WINDOW_MS = 120000;
+
+	/** Attempts after which delay isn't doubled anymore (prevents overflow) */
+	private static final int MAX_BACKOFF_SHIFT = 16;
+
+	private final int mBaseDelayMs;
+	private final int mMaxDelayMs;
+	private final int mRetryWindowMs;
+
+	private final Random mRandom;
+
+	/** Failed attempts since last reset */
+	private int mAttempt;
+	/** Time of first failure since last reset, -1 if there wasn't any */
+	private long mFirstFailureTime = -1;
+
+	/**
+	 * Create new instance with default delays
+	 *
+	 * @param retryWindowMs max time to retry since first failure in ms
+	 */
+	public ReconnectPolicy(int retryWindowMs) {
+		this(DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS, retryWindowMs, new Random());
+	}
+
+	/**
+	 * Create new instance
+	 *
+	 * @param baseDelayMs delay before first retry in ms
+	 * @param maxDelayMs max delay between retries in ms
+	 * @param retryWindowMs max time to retry since first failure in ms
+	 * @param random jitter source
+	 */
+	public ReconnectPolicy(int baseDelayMs, int maxDelayMs, int retryWindowMs, Random random) {
+		mBaseDelayMs = baseDelayMs;
+		mMaxDelayMs = maxDelayMs;
+		mRetryWindowMs = retryWindowMs;
+		mRandom = random;
+	}
+
+	/**
+	 * Register failure and return delay before next retry.
+	 * Delay is picked randomly from [backoff / 2, backoff], where backoff
+	 * doubles with every attempt until max delay is reached
+	 *
+	 * @param now current time in ms (monotonic)
+	 * @return delay in ms or -1 if retry window is exceeded
+	 */
+	public synchronized long nextDelay(long now) {
+		if (mFirstFailureTime < 0) {
+			mFirstFailureTime = now;
+		}
+
+		long backoff = Math.min(mMaxDelayMs, (long) mBaseDelayMs << Math.min(mAttempt, MAX_BACKOFF_SHIFT));
+		long delay = backoff / 2 + (long) (mRandom.nextDouble() * (backoff / 2 + 1));
+
+		if (now - mFirstFailureTime + delay > mRetryWindowMs) {
+			return -1;
+		}
+
+		mAttempt++;
+
+		return delay;
+	}
+
+	/**
+	 * Returns true if there were failures since last reset
+	 *
+	 * @return true if retrying now
+	 */
+	public synchronized boolean isRetrying() {
+		return mFirstFailureTime >= 0;
+	}
+
+	/**
+	 * Returns failed attempts count since last reset
+	 *
+	 * @return failed attempts count
+	 */
+	public synchronized int getAttempt() {
+		return mAttempt;
+	}
+
+	/**
+	 * Forget all failures. Called when connection is healthy again
+	 */
+	public synchronized void reset() {
+		mAttempt = 0;
+		mFirstFailureTime = -1;
+	}
+}
@@ -88,6 +88,32 @@ public class SongInfo {
 		return artist == null && title == null;
 	}
 
+	/**
+	 * Returns true if artist and title are equal
+	 *
+	 * @param o other object
+	 * @return true if other object is song info with the same artist and title
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (! (o instanceof SongInfo)) return false;
+
+		SongInfo other = (SongInfo) o;
+
+		return equal(artist, other.artist) && equal(title, other.title);
+	}
+
+	@Override
+	public int hashCode() {
+		int result = (artist != null) ? artist.hashCode() : 0;
+		return 31 * result + ((title != null) ? title.hashCode() : 0);
+	}
+
+	private static boolean equal(String a, String b) {
+		return (a == null) ? b == null : a.equals(b);
+	}
+
 	/**
 	 * Returns string interpretation as <pre>Artist - Title</pre>
 	 *
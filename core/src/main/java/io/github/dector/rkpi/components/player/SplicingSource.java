@@ -0,0 +1,399 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.components.player;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.logging.Logger;
+
+/**
+ * Jitter buffer source, which can switch to new connection of the same stream
+ * without breaking decoded data (after network change or connection failure).
+ *
+ * New connection is opened in background while old data is still played.
+ * Server sends the same bytes to all clients and starts new connection with
+ * burst of recent data, so end of old data is searched in the beginning of
+ * new one: data continues exactly after it (frames stay intact). If overlap
+ * isn't found, new data is passed as is and frame sync stage resyncs on the
+ * first whole frame.
+ *
+ * @author dector
+ */
+public class SplicingSource implements JitterBuffer.Source {
+
+	private static final Logger LOG = Logger.getLogger("Splicing source");
+
+	/** Length of old data end, which is searched in new data */
+	private static final int MATCH_SIZE = 1024;
+	/** Max new data length to search overlap in */
+	private static final int SEARCH_SIZE = 65536;
+
+	/**
+	 * Opens new connection of the same stream
+	 */
+	public interface Connector {
+
+		/**
+		 * Connect to stream. Called from background thread
+		 *
+		 * @return connected source
+		 * @throws IOException if connection failed
+		 */
+		public JitterBuffer.Source connect() throws IOException;
+	}
+
+	private final Connector mConnector;
+
+	/** Source, which is read now */
+	private JitterBuffer.Source mSource;
+	/** Connected source, which will replace current one */
+	private JitterBuffer.Source mNextSource;
+	/** True while new source is connecting */
+	private boolean mReconnecting;
+	/** True if current source returned data, so it can be replaced automatically on failure */
+	private boolean mSourceHasData;
+	private boolean mClosed;
+
+	/** Last data of current source (reading thread only) */
+	private final byte[] mTail = new byte[MATCH_SIZE];
+	private int mTailLength;
+
+	/** True while overlap is searched in new data */
+	private boolean mMatching;
+	/** Beginning of new data, where overlap is searched */
+	private final byte[] mSearch = new byte[SEARCH_SIZE];
+	private int mSearchLength;
+	/** Search continues from this offset */
+	private int mSearchFrom;
+	private final ByteBuffer mSearchView = ByteBuffer.wrap(mSearch);
+	/** Data of new source, which should be returned after search result */
+	private ByteBuffer mPending;
+
+	/** Finished splices count */
+	private volatile int mSplices;
+
+	/**
+	 * Create new instance
+	 *
+	 * @param source connected source
+	 * @param connector opens new connections of the same stream
+	 */
+	public SplicingSource(JitterBuffer.Source source, Connector connector) {
+		mSource = source;
+		mConnector = connector;
+	}
+
+	/**
+	 * Open new connection in background and switch to it. Current source is read
+	 * until new one is connected
+	 *
+	 * @return false if already reconnecting or closed
+	 */
+	public boolean reconnect() {
+		synchronized (this) {
+			if (mReconnecting || mClosed) return false;
+
+			mReconnecting = true;
+		}
+
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				connectNext();
+			}
+		}, "SplicingReconnect").start();
+
+		return true;
+	}
+
+	/**
+	 * Returns source, which is read now
+	 *
+	 * @return current source
+	 */
+	public synchronized JitterBuffer.Source getSource() {
+		return mSource;
+	}
+
+	/**
+	 * Returns finished splices count
+	 *
+	 * @return splices count
+	 */
+	public int getSplices() {
+		return mSplices;
+	}
+
+	@Override
+	public ByteBuffer read() throws IOException {
+		while (true) {
+			if (mPending != null) {
+				ByteBuffer pending = mPending;
+				mPending = null;
+
+				rememberTail(pending);
+				return pending;
+			}
+
+			JitterBuffer.Source source;
+
+			synchronized (this) {
+				if (mClosed) return null;
+
+				if (mNextSource != null) {
+					mSource = mNextSource;
+					mNextSource = null;
+					mSourceHasData = false;
+
+					mMatching = mTailLength == MATCH_SIZE;
+					mSearchLength = 0;
+					mSearchFrom = 0;
+				}
+
+				source = mSource;
+			}
+
+			ByteBuffer data;
+			try {
+				data = source.read();
+			} catch (IOException e) {
+				if (waitForNextSource()) continue;
+
+				throw e;
+			} catch (RuntimeException e) {
+				// Source, which is closed by splice from other thread, may fail with unchecked exception
+				if (isReplaced()) continue;
+
+				throw e;
+			}
+
+			if (data == null) {
+				if (waitForNextSource()) continue;
+
+				return null;
+			}
+
+			mSourceHasData = true;
+
+			if (mMatching) {
+				data = match(data);
+
+				if (data == null) continue;
+			}
+
+			rememberTail(data);
+			return data;
+		}
+	}
+
+	@Override
+	public void close() {
+		JitterBuffer.Source source;
+		JitterBuffer.Source nextSource;
+
+		synchronized (this) {
+			mClosed = true;
+			notifyAll();
+
+			source = mSource;
+			nextSource = mNextSource;
+			mNextSource = null;
+		}
+
+		source.close();
+
+		if (nextSource != null) {
+			nextSource.close();
+		}
+	}
+
+	/**
+	 * Connect new source and replace current one. Called from background thread
+	 */
+	private void connectNext() {
+		JitterBuffer.Source next = null;
+
+		try {
+			next = mConnector.connect();
+		} catch (IOException e) {
+			LOG.warning("Reconnect failed: " + e);
+		}
+
+		JitterBuffer.Source old;
+
+		synchronized (this) {
+			mReconnecting = false;
+			notifyAll();
+
+			if (next == null) return;
+
+			if (mClosed) {
+				old = next;
+			} else {
+				if (mNextSource != null) {
+					mNextSource.close();
+				}
+
+				mNextSource = next;
+				old = mSource;
+			}
+		}
+
+		// Release reading thread if it's blocked by old source
+		old.close();
+	}
+
+	/**
+	 * Returns true if current source is replaced by next source or splicing source is closed
+	 *
+	 * @return true if current source isn't read anymore
+	 */
+	private synchronized boolean isReplaced() {
+		return mNextSource != null || mClosed;
+	}
+
+	/**
+	 * Current source failed or ended. Start reconnect if it was working,
+	 * and wait for new source
+	 *
+	 * @return true if new source is available
+	 */
+	private boolean waitForNextSource() {
+		boolean autoReconnect;
+
+		synchronized (this) {
+			// Source may be closed because it's replaced already
+			autoReconnect = mSourceHasData && mNextSource == null;
+		}
+
+		mSourceHasData = false;
+
+		if (autoReconnect && reconnect()) {
+			LOG.info("Source ended, reconnecting");
+		}
+
+		synchronized (this) {
+			while (mReconnecting && mNextSource == null && ! mClosed) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					return false;
+				}
+			}
+
+			return mNextSource != null && ! mClosed;
+		}
+	}
+
+	/**
+	 * Collect beginning of new data and search end of old data in it
+	 *
+	 * @param data new data
+	 * @return data to return from reading or null if more data needed
+	 */
+	private ByteBuffer match(ByteBuffer data) {
+		int count = Math.min(data.remaining(), SEARCH_SIZE - mSearchLength);
+		data.get(mSearch, mSearchLength, count);
+		mSearchLength += count;
+
+		int found = findTail();
+		boolean full = mSearchLength == SEARCH_SIZE || data.hasRemaining();
+
+		if (found < 0 && ! full) {
+			return null;
+		}
+
+		mMatching = false;
+		mSplices++;
+
+		if (found >= 0) {
+			LOG.info("Spliced with overlap, skipped " + found + " bytes of new data");
+		} else {
+			LOG.info("Spliced without overlap, data between connections is lost");
+			found = 0;
+		}
+
+		if (data.hasRemaining()) {
+			mPending = data;
+		}
+
+		mSearchView.limit(mSearchLength);
+		mSearchView.position(found);
+
+		return mSearchView;
+	}
+
+	/**
+	 * Search end of old data in collected new data
+	 *
+	 * @return offset right after found data or -1
+	 */
+	private int findTail() {
+		int last = mSearchLength - MATCH_SIZE;
+
+		for (int i = mSearchFrom; i <= last; i++) {
+			int j = 0;
+
+			while (j < MATCH_SIZE && mSearch[i + j] == mTail[j]) {
+				j++;
+			}
+
+			if (j == MATCH_SIZE) {
+				return i + MATCH_SIZE;
+			}
+		}
+
+		mSearchFrom = Math.max(0, last + 1);
+
+		return -1;
+	}
+
+	/**
+	 * Store last bytes of returned data
+	 *
+	 * @param data returned data (position isn't changed)
+	 */
+	private void rememberTail(ByteBuffer data) {
+		int count = data.remaining();
+		int start = data.position();
+
+		if (count >= MATCH_SIZE) {
+			for (int i = 0; i < MATCH_SIZE; i++) {
+				mTail[i] = data.get(start + count - MATCH_SIZE + i);
+			}
+
+			mTailLength = MATCH_SIZE;
+			return;
+		}
+
+		int keep = Math.min(mTailLength, MATCH_SIZE - count);
+		System.arraycopy(mTail, mTailLength - keep, mTail, 0, keep);
+
+		for (int i = 0; i < count; i++) {
+			mTail[keep + i] = data.get(start + i);
+		}
+
+		mTailLength = keep + count;
+	}
+}
@@ -0,0 +1,248 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.components.player;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free queue between two pipeline stages: one producer thread
+ * and one consumer thread. Elements are passed without locks, threads are
+ * parked only when queue is full (backpressure) or empty.
+ *
+ * Queue depth and waiting times are counted, so slow stage can be found:
+ * producer waits if consumer is slow, consumer waits if producer is slow
+ *
+ * @author dector
+ */
+public class SpscQueue<T> {
+
+	private final Object[] mSlots;
+	private final int mMask;
+
+	/** Index of next taken element (written by consumer) */
+	private final AtomicLong mHead = new AtomicLong();
+	/** Index of next added element (written by producer) */
+	private final AtomicLong mTail = new AtomicLong();
+
+	private volatile Thread mWaitingProducer;
+	private volatile Thread mWaitingConsumer;
+	private volatile boolean mClosed;
+
+	/** Max observed depth (written by producer) */
+	private volatile int mMaxSize;
+	private volatile long mProducerWaitNanos;
+	private volatile long mConsumerWaitNanos;
+
+	/**
+	 * Create new queue
+	 *
+	 * @param capacity max elements count, power of two
+	 */
+	public SpscQueue(int capacity) {
+		if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+			throw new IllegalArgumentException("Capacity should be power of two: " + capacity);
+		}
+
+		mSlots = new Object[capacity];
+		mMask = capacity - 1;
+	}
+
+	/**
+	 * Add element if there is free space. Producer thread only
+	 *
+	 * @param element element to add
+	 * @return false if queue is full or closed
+	 */
+	public boolean offer(T element) {
+		if (mClosed) return false;
+
+		long tail = mTail.get();
+		int size = (int) (tail - mHead.get());
+
+		if (size == mSlots.length) return false;
+
+		mSlots[(int) tail & mMask] = element;
+		mTail.set(tail + 1);
+
+		if (size + 1 > mMaxSize) {
+			mMaxSize = size + 1;
+		}
+
+		wake(mWaitingConsumer);
+
+		return true;
+	}
+
+	/**
+	 * Add element, wait while queue is full. Producer thread only
+	 *
+	 * @param element element to add
+	 * @return false if queue was closed
+	 * @throws InterruptedIOException if thread was interrupted
+	 */
+	public boolean put(T element) throws InterruptedIOException {
+		while (! offer(element)) {
+			if (mClosed) return false;
+
+			long start = System.nanoTime();
+
+			mWaitingProducer = Thread.currentThread();
+			// Consumer may take element before producer is published
+			if (size() == mSlots.length && ! mClosed) {
+				LockSupport.park(this);
+			}
+			mWaitingProducer = null;
+
+			mProducerWaitNanos += System.nanoTime() - start;
+
+			if (Thread.interrupted()) {
+				throw new InterruptedIOException();
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Take element if queue isn't empty. Consumer thread only
+	 *
+	 * @return element or null if queue is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public T poll() {
+		long head = mHead.get();
+
+		if (head == mTail.get()) return null;
+
+		int index = (int) head & mMask;
+		T element = (T) mSlots[index];
+		mSlots[index] = null;
+		mHead.set(head + 1);
+
+		wake(mWaitingProducer);
+
+		return element;
+	}
+
+	/**
+	 * Take element, wait while queue is empty. Consumer thread only
+	 *
+	 * @return element or null if queue was closed and all elements were taken
+	 * @throws InterruptedIOException if thread was interrupted
+	 */
+	public T take() throws InterruptedIOException {
+		T element;
+
+		while ((element = poll()) == null) {
+			if (mClosed && size() == 0) return null;
+
+			long start = System.nanoTime();
+
+			mWaitingConsumer = Thread.currentThread();
+			// Producer may add element before consumer is published
+			if (size() == 0 && ! mClosed) {
+				LockSupport.park(this);
+			}
+			mWaitingConsumer = null;
+
+			mConsumerWaitNanos += System.nanoTime() - start;
+
+			if (Thread.interrupted()) {
+				throw new InterruptedIOException();
+			}
+		}
+
+		return element;
+	}
+
+	/**
+	 * Close queue: elements can't be added anymore, consumer takes
+	 * remaining elements. Waiting threads are released
+	 */
+	public void close() {
+		mClosed = true;
+
+		wake(mWaitingProducer);
+		wake(mWaitingConsumer);
+	}
+
+	/**
+	 * Returns elements count
+	 *
+	 * @return queue depth
+	 */
+	public int size() {
+		return (int) (mTail.get() - mHead.get());
+	}
+
+	/**
+	 * Returns max elements count
+	 *
+	 * @return queue capacity
+	 */
+	public int getCapacity() {
+		return mSlots.length;
+	}
+
+	/**
+	 * Returns max observed elements count
+	 *
+	 * @return max queue depth
+	 */
+	public int getMaxSize() {
+		return mMaxSize;
+	}
+
+	/**
+	 * Returns time producer waited for free space (consumer was slower)
+	 *
+	 * @return producer waiting time in ms
+	 */
+	public long getProducerWaitMs() {
+		return mProducerWaitNanos / 1000000L;
+	}
+
+	/**
+	 * Returns time consumer waited for elements (producer was slower)
+	 *
+	 * @return consumer waiting time in ms
+	 */
+	public long getConsumerWaitMs() {
+		return mConsumerWaitNanos / 1000000L;
+	}
+
+	@Override
+	public String toString() {
+		return "depth=" + size() + "/" + mSlots.length + ", max=" + mMaxSize + ", producer waited "
+				+ getProducerWaitMs() + "ms, consumer waited " + getConsumerWaitMs() + "ms";
+	}
+
+	private static void wake(Thread thread) {
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+}
@@ -0,0 +1,120 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.components.player;
+
+/**
+ * Detects stalled stream: connection is open, but no data comes
+ * (server keeps socket open and sends nothing). Player passes received
+ * bytes as progress, so server which sends garbage isn't detected here:
+ * frame sync skips it until buffer runs dry and connection fails.
+ *
+ * Progress counter is sampled periodically. Every stall is reported once,
+ * next stall can be detected only after progress or restart.
+ *
+ * @author dector
+ */
+public class StallWatchdog {
+
+	/** Default max time without progress in ms */
+	public static final int DEFAULT_STALL_TIMEOUT_MS = 8000;
+	/** Recommended check interval in ms */
+	public static final int CHECK_INTERVAL_MS = 1000;
+
+	private final int mTimeoutMs;
+
+	/** Last seen progress counter */
+	private long mProgress = -1;
+	/** Time of last progress, -1 if not watching */
+	private long mProgressTime = -1;
+	/** True if current stall was reported */
+	private boolean mReported;
+	/** Detected stalls count */
+	private int mStalls;
+
+	/**
+	 * Create new instance
+	 *
+	 * @param timeoutMs max time without progress in ms
+	 */
+	public StallWatchdog(int timeoutMs) {
+		mTimeoutMs = timeoutMs;
+	}
+
+	/**
+	 * Start watching from now. Should be called on connection (re)start
+	 * and when data isn't expected for a while (paused)
+	 *
+	 * @param time current time (monotonic, in ms)
+	 */
+	public synchronized void restart(long time) {
+		mProgress = -1;
+		mProgressTime = time;
+		mReported = false;
+	}
+
+	/**
+	 * Stop watching
+	 */
+	public synchronized void stop() {
+		mProgressTime = -1;
+	}
+
+	/**
+	 * Check progress
+	 *
+	 * @param time current time (monotonic, in ms)
+	 * @param progress progress counter (received bytes, decoded frames)
+	 * @return stall duration in ms if new stall was detected, -1 otherwise
+	 */
+	public synchronized long check(long time, long progress) {
+		if (mProgressTime < 0) return -1;
+
+		if (progress != mProgress) {
+			mProgress = progress;
+			mProgressTime = time;
+			mReported = false;
+			return -1;
+		}
+
+		long stalledMs = time - mProgressTime;
+
+		if (mReported || stalledMs < mTimeoutMs) {
+			return -1;
+		}
+
+		mReported = true;
+		mStalls++;
+
+		return stalledMs;
+	}
+
+	/**
+	 * Returns detected stalls count
+	 *
+	 * @return stalls count
+	 */
+	public synchronized int getStalls() {
+		return mStalls;
+	}
+}
@@ -23,10 +23,8 @@
  */
 package io.github.dector.rkpi.components.player;
 
-import android.util.Log;
-
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Observable player state manager
@@ -43,7 +41,7 @@ public class StateManager {
 	/** Additional data (song info for example) */
 	private Object mData;
 
-	/** Subscribed observers */
+	/** Subscribed observers (buffer state is sent from filling thread) */
 	private List<PlayerStateObserver> mObservers;
 
 	/**
@@ -52,7 +50,7 @@ public class StateManager {
 	public StateManager() {
 		mState = PlayerState.STOPPED;
 
-		mObservers = new ArrayList<PlayerStateObserver>();
+		mObservers = new CopyOnWriteArrayList<PlayerStateObserver>();
 	}
 
 	/**
@@ -106,11 +104,22 @@ public class StateManager {
 		mState = newState;
 		mData = data;
 
-		Log.d("State metadata", "State changed to " + newState + " [" + data + "]");
-
 		notifyObservers();
 	}
 
+	/**
+	 * Send jitter buffer state to all observers
+	 *
+	 * @param filledMs buffered data length in ms
+	 * @param prebufferMs prebuffer depth in ms
+	 * @param buffering true if playback is held until prebuffer depth is collected
+	 */
+	public void setBufferState(int filledMs, int prebufferMs, boolean buffering) {
+		for (PlayerStateObserver observer : mObservers) {
+			observer.onBufferChanged(filledMs, prebufferMs, buffering);
+		}
+	}
+
 	/**
 	 * Returns current player state
 	 *
@@ -120,6 +129,15 @@ public class StateManager {
 		return mState;
 	}
 
+	/**
+	 * Returns additional data of current state
+	 *
+	 * @return additional data (for example song info) or null
+	 */
+	public Object getData() {
+		return mData;
+	}
+
     public boolean isPlaying() {
         return getState() == PlayerState.PLAYING;
     }
@@ -0,0 +1,84 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.components.player;
+
+import java.util.Locale;
+
+/**
+ * Stream audio codec, selected by response Content-Type
+ *
+ * @author dector
+ */
+public enum StreamCodec {
+	MP3("OpenCORE-MP3"),
+	/** AAC, HE-AAC and HE-AACv2 (ADTS) */
+	AAC("OpenCORE");
+
+	/** Native decoder name in aacdecoder library */
+	public final String decoderName;
+
+	private StreamCodec(String decoderName) {
+		this.decoderName = decoderName;
+	}
+
+	/**
+	 * Create frame header parser for frame sync stage
+	 *
+	 * @return new header parser
+	 */
+	public AudioFrameHeader createFrameHeader() {
+		return (this == AAC) ? new AdtsFrameHeader() : new Mp3FrameHeader();
+	}
+
+	/**
+	 * Returns codec for Content-Type: audio/mpeg, audio/aacp, audio/x-aac etc.
+	 * Unknown types are treated as MP3 (as most of ICY servers send)
+	 *
+	 * @param contentType response Content-Type, may be null
+	 * @return stream codec
+	 */
+	public static StreamCodec fromContentType(String contentType) {
+		if (contentType == null) return MP3;
+
+		String type = contentType.trim().toLowerCase(Locale.US);
+
+		int separator = type.indexOf(';');
+		if (separator >= 0) {
+			type = type.substring(0, separator).trim();
+		}
+
+		if (! type.startsWith("audio/")) return MP3;
+
+		type = type.substring("audio/".length());
+		if (type.startsWith("x-")) {
+			type = type.substring("x-".length());
+		}
+
+		if (type.startsWith("aac") || type.equals("mp4") || type.equals("mp4a-latm")) {
+			return AAC;
+		}
+
+		return MP3;
+	}
+}
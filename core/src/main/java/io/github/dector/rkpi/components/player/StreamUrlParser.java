@@ -0,0 +1,165 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.components.player;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Parser of song info from "StreamUrl" metadata value.
+ * Artist and title are url-encoded in Windows-1251
+ *
+ * For example:
+ * &artist=James%20Brown&title=I%20Got%20You%20%28I%20Feel%20Good%29
+ *
+ * Value is scanned in single pass and fields are decoded into reusable buffer,
+ * so only result strings are allocated (parsing is done on decoder thread).
+ * Pairs are matched like split("&") and split("=") did: value ends at next '='.
+ * Malformed escapes are kept as is
+ *
+ * @author dector
+ */
+public class StreamUrlParser {
+
+	/** Metadata key, which value is parsed */
+	public static final String KEY = "StreamUrl";
+
+	private static final String KEY_ARTIST = "artist";
+	private static final String KEY_TITLE = "title";
+
+	/** Scanned pair field */
+	private static final int FIELD_NONE = 0;
+	private static final int FIELD_ARTIST = 1;
+	private static final int FIELD_TITLE = 2;
+
+	/** Windows-1251 byte to char table */
+	private static final char[] CP1251 = new char[256];
+
+	static {
+		byte[] bytes = new byte[256];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) i;
+		}
+
+		try {
+			new String(bytes, "Windows-1251").getChars(0, bytes.length, CP1251, 0);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** Decoded field buffer, grows to longest value */
+	private char[] mChars = new char[64];
+
+	/**
+	 * Parse song info
+	 *
+	 * @param value "StreamUrl" metadata value
+	 * @return song info (empty if value doesn't contain artist and title)
+	 */
+	public synchronized SongInfo parse(String value) {
+		SongInfo songInfo = new SongInfo();
+		int length = value.length();
+
+		if (mChars.length < length) {
+			mChars = new char[length];
+		}
+
+		char[] chars = mChars;
+
+		int pairStart = 0;
+		// Key separator position in current pair, -1 while scanning key
+		int separator = -1;
+		int field = FIELD_NONE;
+		// True while scanning value (till next '=')
+		boolean inValue = false;
+		// True if pair has anything besides separators after key
+		boolean hasValue = false;
+		int count = 0;
+
+		for (int i = 0; i <= length; i++) {
+			char c = (i < length) ? value.charAt(i) : '&';
+
+			if (c == '&') {
+				if (field == FIELD_ARTIST && hasValue) {
+					songInfo.setArtist(new String(chars, 0, count));
+				} else if (field == FIELD_TITLE && hasValue) {
+					songInfo.setTitle(new String(chars, 0, count));
+				}
+
+				pairStart = i + 1;
+				separator = -1;
+				field = FIELD_NONE;
+				inValue = false;
+				hasValue = false;
+				count = 0;
+			} else if (separator < 0) {
+				if (c == '=') {
+					separator = i;
+					field = matchKey(value, pairStart, i);
+					inValue = true;
+				}
+			} else if (c == '=') {
+				inValue = false;
+			} else {
+				hasValue = true;
+
+				if (inValue && field != FIELD_NONE) {
+					if (c == '+') {
+						c = ' ';
+					} else if (c == '%' && i + 2 < length) {
+						int high = Character.digit(value.charAt(i + 1), 16);
+						int low = Character.digit(value.charAt(i + 2), 16);
+
+						if (high >= 0 && low >= 0) {
+							c = CP1251[(high << 4) | low];
+							i += 2;
+						}
+					}
+
+					chars[count++] = c;
+				}
+			}
+		}
+
+		return songInfo;
+	}
+
+	/**
+	 * Returns field of key in range
+	 *
+	 * @param value metadata value
+	 * @param start key start
+	 * @param end key end (exclusive)
+	 * @return field id
+	 */
+	private static int matchKey(String value, int start, int end) {
+		if (end - start == KEY_ARTIST.length() && value.startsWith(KEY_ARTIST, start)) {
+			return FIELD_ARTIST;
+		} else if (end - start == KEY_TITLE.length() && value.startsWith(KEY_TITLE, start)) {
+			return FIELD_TITLE;
+		} else {
+			return FIELD_NONE;
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.tools;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Analytics event builder: collects event params and sends event to sink
+ *
+ * @author dector
+ *
+ * @see FlurryClient.Event#builder()
+ */
+public class EventBuilder {
+
+	/**
+	 * Receiver of built events
+	 */
+	public interface Sink {
+
+		/**
+		 * Log event with params
+		 *
+		 * @param id event id
+		 * @param params event params
+		 */
+		public void log(String id, Map<String, String> params);
+
+		/**
+		 * Finish timed event
+		 *
+		 * @param id event id
+		 */
+		public void logEnd(String id);
+	}
+
+	private String mId;
+	private Sink mSink;
+	private boolean mFinished;
+	private Map<String, String> mParams;
+
+	/**
+	 * Create new builder
+	 *
+	 * @param id event id
+	 * @param sink receiver of built event
+	 */
+	public EventBuilder(String id, Sink sink) {
+		mId = id;
+		mSink = sink;
+		mParams = new HashMap<String, String>();
+	}
+
+	public EventBuilder finished() {
+		mFinished = true;
+
+		return this;
+	}
+
+	public EventBuilder param(String key, String value) {
+		if (mParams == null) {
+			mParams = new HashMap<String, String>();
+		}
+
+		mParams.put(key, value);
+
+		return this;
+	}
+
+	public void log() {
+		if (mFinished) {
+			mSink.logEnd(mId);
+		} else {
+			mSink.log(mId, mParams);
+		}
+	}
+}
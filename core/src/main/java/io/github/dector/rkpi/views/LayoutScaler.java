@@ -0,0 +1,108 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.views;
+
+/**
+ * Layout math of scalable layout: scales child bounds
+ * from base layout size to real size
+ *
+ * @author dector
+ *
+ * @see AbstractScalableLayout
+ */
+public class LayoutScaler {
+
+	/** Bounds array indexes */
+	public static final int LEFT = 0;
+	public static final int TOP = 1;
+	public static final int RIGHT = 2;
+	public static final int BOTTOM = 3;
+
+	private int mWidth;
+	private int mHeight;
+
+	private float mScaleX;
+	private float mScaleY;
+	private float mScaleProp;
+
+	/**
+	 * Set real size. Should be called before scaling children
+	 *
+	 * @param layoutWidth base layout width
+	 * @param layoutHeight base layout height
+	 * @param width real width
+	 * @param height real height
+	 */
+	public void setSize(int layoutWidth, int layoutHeight, int width, int height) {
+		mWidth = width;
+		mHeight = height;
+
+		mScaleX = (float) width / layoutWidth;
+		mScaleY = (float) height / layoutHeight;
+		mScaleProp = Math.min(mScaleX, mScaleY);
+	}
+
+	/**
+	 * Returns vertical scale (used for text size)
+	 *
+	 * @param proportional true if view is scaled proportional
+	 * @return vertical scale
+	 */
+	public float getScaleY(boolean proportional) {
+		return (proportional) ? mScaleProp : mScaleY;
+	}
+
+	/**
+	 * Scale child bounds
+	 *
+	 * @param x base x coordinate
+	 * @param y base y coordinate
+	 * @param width base width
+	 * @param height base height
+	 * @param proportional scale view proportional
+	 * @param centerHorizontal center view horizontal
+	 * @param centerVertical center view vertical
+	 * @param bounds destination array [left, top, right, bottom]
+	 */
+	public void scale(int x, int y, int width, int height, boolean proportional,
+	                  boolean centerHorizontal, boolean centerVertical, int[] bounds) {
+		float concreteXScale = (proportional) ? mScaleProp : mScaleX;
+		float concreteYScale = (proportional) ? mScaleProp : mScaleY;
+
+		int scaledWidth = (int) (width * concreteXScale);
+		int scaledHeight = (int) (height * concreteYScale);
+
+		int left = (centerHorizontal)
+				? (mWidth - scaledWidth) / 2
+				: (int) (x * mScaleX);
+		int top = (centerVertical)
+				? (mHeight - scaledHeight) / 2
+				: (int) (y * mScaleY);
+
+		bounds[LEFT] = left;
+		bounds[TOP] = top;
+		bounds[RIGHT] = left + scaledWidth;
+		bounds[BOTTOM] = top + scaledHeight;
+	}
+}
@@ -0,0 +1,159 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.components.player;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * AdaptiveQualityController decisions on simulated network samples
+ *
+ * @author dector
+ */
+public class AdaptiveQualityControllerTest {
+
+	private static final int LOWER_KBPS = 64;
+	private static final int HIGHER_KBPS = 128;
+
+	/** Sampling period (like PCM feed callbacks) */
+	private static final int SAMPLE_MS = 100;
+
+	private AdaptiveQualityController mController;
+	private final Random mRandom = new Random(1);
+
+	private long mNow;
+	private long mReceivedBytes;
+	private long mNetworkMs;
+
+	@Before
+	public void setUp() {
+		mController = new AdaptiveQualityController(LOWER_KBPS, HIGHER_KBPS);
+		mNow = 1000;
+	}
+
+	@Test
+	public void pacedStreamAtFullBitrateKeepsQuality() {
+		mController.reset(HIGHER_KBPS, mNow);
+
+		// Server paces stream: filling thread waits for network all the time, buffer stays
+		// at prebuffer depth (lower than step down threshold), data comes in uneven portions
+		for (int i = 0; i < 6000; i++) {
+			int bufferedMs = 3000 + mRandom.nextInt(400) - 200;
+			int kbps = HIGHER_KBPS + mRandom.nextInt(41) - 20;
+
+			assertEquals("Switched at " + i, 0, sample(kbps, SAMPLE_MS, bufferedMs));
+		}
+
+		assertTrue(mController.getDecisions().isEmpty());
+	}
+
+	@Test
+	public void throughputDeficitStepsDown() {
+		mController.reset(HIGHER_KBPS, mNow);
+
+		int bufferedMs = 4000;
+		int target = 0;
+
+		for (int i = 0; i < 600 && target == 0; i++) {
+			// Network delivers 80% of bitrate: buffer loses 20% of playback time
+			bufferedMs -= SAMPLE_MS / 5;
+			target = sample(HIGHER_KBPS * 80 / 100, SAMPLE_MS, bufferedMs);
+		}
+
+		assertEquals(LOWER_KBPS, target);
+		assertTrue("Stepped down late at " + bufferedMs + "ms", bufferedMs > 2000);
+	}
+
+	@Test
+	public void drainingBufferStepsDown() {
+		mController.reset(HIGHER_KBPS, mNow);
+
+		int bufferedMs = 3900;
+		int target = 0;
+
+		for (int i = 0; i < 600 && target == 0; i++) {
+			// Throughput looks fine, but buffer drains (audio output consumes more than it gets)
+			bufferedMs -= SAMPLE_MS / 10;
+			target = sample(HIGHER_KBPS, SAMPLE_MS, bufferedMs);
+		}
+
+		assertEquals(LOWER_KBPS, target);
+		assertTrue("Stepped down late at " + bufferedMs + "ms", bufferedMs > 1500);
+	}
+
+	@Test
+	public void criticalBufferStepsDown() {
+		mController.reset(HIGHER_KBPS, mNow);
+
+		for (int i = 0; i < 100; i++) {
+			assertEquals(0, sample(HIGHER_KBPS, SAMPLE_MS, 3000));
+		}
+
+		assertEquals(LOWER_KBPS, sample(HIGHER_KBPS, SAMPLE_MS, 1000));
+	}
+
+	@Test
+	public void burstCapacityStepsUp() {
+		mController.reset(LOWER_KBPS, mNow);
+
+		// Burst after connection start is received at link capacity
+		for (int i = 0; i < 10; i++) {
+			assertEquals(0, sample(LOWER_KBPS * 10, SAMPLE_MS, 8000));
+		}
+
+		int target = 0;
+		long start = mNow;
+
+		while (target == 0 && mNow - start < 60000) {
+			target = sample(LOWER_KBPS, SAMPLE_MS, 8000);
+		}
+
+		assertEquals(HIGHER_KBPS, target);
+	}
+
+	@Test
+	public void pacedStreamWithoutBurstDoesntStepUp() {
+		mController.reset(LOWER_KBPS, mNow);
+
+		for (int i = 0; i < 1200; i++) {
+			assertEquals(0, sample(LOWER_KBPS, SAMPLE_MS, 8000));
+		}
+	}
+
+	/**
+	 * Pass next sample: network delivered data at given rate during the whole period
+	 */
+	private int sample(int kbps, int ms, int bufferedMs) {
+		mNow += ms;
+		mReceivedBytes += kbps * ms / 8;
+		mNetworkMs += ms;
+
+		return mController.onSample(mNow, mReceivedBytes, mNetworkMs, bufferedMs);
+	}
+}
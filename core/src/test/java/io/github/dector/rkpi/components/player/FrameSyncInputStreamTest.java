@@ -0,0 +1,179 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.components.player;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Frame sync stage and fast start with ADTS (AAC) frames
+ *
+ * @author dector
+ */
+public class FrameSyncInputStreamTest {
+
+	private static final int FRAMES = 20;
+	private static final int GARBAGE = 100;
+
+	private final Random mRandom = new Random(1);
+
+	@Test
+	public void adtsFramesAreSynced() throws IOException {
+		ByteArrayOutputStream frames = new ByteArrayOutputStream();
+		for (int i = 0; i < FRAMES; i++) {
+			frames.write(adtsFrame(300 + mRandom.nextInt(100)));
+		}
+
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		stream.write(new byte[GARBAGE]);
+		stream.write(frames.toByteArray());
+		// Truncated last frame
+		stream.write(adtsFrame(300), 0, 100);
+
+		FrameSyncInputStream frameSync = new FrameSyncInputStream(new ByteArrayInputStream(stream.toByteArray()));
+		frameSync.setCodec(StreamCodec.AAC);
+
+		assertTrue(Arrays.equals(frames.toByteArray(), readAll(frameSync)));
+		assertEquals(FRAMES, frameSync.getFrames());
+		assertEquals(GARBAGE + 100, frameSync.getSkippedBytes());
+	}
+
+	@Test
+	public void adtsFramesAreDroppedByDuration() throws IOException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		for (int i = 0; i < FRAMES; i++) {
+			stream.write(adtsFrame(300));
+		}
+
+		FrameSyncInputStream frameSync = new FrameSyncInputStream(new ByteArrayInputStream(stream.toByteArray()));
+		frameSync.setCodec(StreamCodec.AAC);
+		// 1024 samples at 44100 Hz is 23 ms: 5 frames cover 100 ms
+		frameSync.dropFrames(100);
+
+		readAll(frameSync);
+
+		assertEquals(5, frameSync.getDroppedFrames());
+		assertEquals(FRAMES - 5, frameSync.getFrames());
+	}
+
+	@Test
+	public void adtsFastStart() throws Exception {
+		final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		for (int i = 0; i < JitterBuffer.DEFAULT_FAST_START_FRAMES + 1; i++) {
+			stream.write(adtsFrame(300));
+		}
+
+		final CountDownLatch release = new CountDownLatch(1);
+
+		// Sends few frames, then waits (far less than prebuffer depth)
+		InputStream source = new InputStream() {
+			private final InputStream mData = new ByteArrayInputStream(stream.toByteArray());
+
+			@Override
+			public int read() throws IOException {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public int read(byte[] data, int offset, int length) throws IOException {
+				int count = mData.read(data, offset, length);
+				if (count >= 0) return count;
+
+				try {
+					release.await();
+				} catch (InterruptedException ignored) {}
+
+				return -1;
+			}
+		};
+
+		final JitterBuffer buffer = new JitterBuffer(16000, JitterBuffer.DEFAULT_CAPACITY_MS,
+				JitterBuffer.DEFAULT_PREBUFFER_MS, JitterBuffer.DEFAULT_LOW_WATER_MS);
+		buffer.setFastStartFrames(JitterBuffer.DEFAULT_FAST_START_FRAMES);
+		buffer.setCodec(StreamCodec.AAC);
+		buffer.start(source);
+
+		final int[] read = new int[1];
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					read[0] = buffer.getInputStream().read(new byte[1024], 0, 1024);
+				} catch (IOException ignored) {}
+			}
+		});
+		reader.start();
+		reader.join(2000);
+
+		try {
+			assertTrue("Fast start didn't happen", ! reader.isAlive());
+			assertTrue(read[0] > 0);
+		} finally {
+			release.countDown();
+			buffer.close();
+		}
+	}
+
+	private static byte[] readAll(InputStream stream) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] data = new byte[1000];
+		int count;
+
+		while ((count = stream.read(data, 0, data.length)) >= 0) {
+			out.write(data, 0, count);
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Create ADTS frame: AAC LC, 44100 Hz, stereo, one raw data block, random payload
+	 */
+	private byte[] adtsFrame(int length) {
+		byte[] frame = new byte[length];
+		mRandom.nextBytes(frame);
+
+		frame[0] = (byte) 0xff;
+		// MPEG-4, layer 0, no CRC
+		frame[1] = (byte) 0xf1;
+		// Profile LC, sample rate index 4, channels 2
+		frame[2] = (byte) ((1 << 6) | (4 << 2));
+		frame[3] = (byte) ((2 << 6) | ((length >> 11) & 0x03));
+		frame[4] = (byte) ((length >> 3) & 0xff);
+		frame[5] = (byte) (((length & 0x07) << 5) | 0x1f);
+		frame[6] = (byte) 0xfc;
+
+		return frame;
+	}
+}
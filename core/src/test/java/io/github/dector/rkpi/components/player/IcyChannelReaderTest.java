@@ -0,0 +1,244 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.components.player;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * IcyChannelReader demuxing, closing from other thread while reading is blocked
+ * and reuse of pooled storage
+ *
+ * @author dector
+ */
+public class IcyChannelReaderTest {
+
+	private static final int CLOSES = 100;
+
+	private static final int DEMUX_META_INTERVAL = 1000;
+	private static final int DEMUX_BLOCKS = 300;
+
+	/** Server, which sends response headers and some data, then holds connection */
+	private ServerSocket mServer;
+	private final List<Socket> mClients = new CopyOnWriteArrayList<Socket>();
+
+	@Before
+	public void setUp() throws IOException {
+		mServer = new ServerSocket(0);
+
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				byte[] data = new byte[4096];
+
+				while (! mServer.isClosed()) {
+					try {
+						Socket socket = mServer.accept();
+						mClients.add(socket);
+
+						InputStream in = socket.getInputStream();
+						while (in.read() != '\n' || in.read() != '\r') {}
+
+						OutputStream out = socket.getOutputStream();
+						out.write("HTTP/1.0 200 OK\r\nicy-metaint: 1024\r\n\r\n".getBytes("ISO-8859-1"));
+						out.write(data, 0, 1024);
+						out.write(0);
+						out.write(data);
+						out.flush();
+					} catch (IOException ignored) {}
+				}
+			}
+		}, "TestServer").start();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		mServer.close();
+
+		for (Socket socket : mClients) {
+			socket.close();
+		}
+	}
+
+	@Test
+	public void closeDuringBlockingRead() throws Exception {
+		closeDuringRead(false);
+	}
+
+	@Test
+	public void closeDuringStagedRead() throws Exception {
+		closeDuringRead(true);
+	}
+
+	@Test
+	public void demuxBlocking() throws Exception {
+		demux(false);
+	}
+
+	@Test
+	public void demuxStaged() throws Exception {
+		demux(true);
+	}
+
+	/**
+	 * Read finite stream with metadata after every audio block.
+	 * Audio must be passed byte by byte, metadata must be parsed out of it
+	 */
+	private void demux(boolean staged) throws Exception {
+		Random random = new Random(2);
+		ByteArrayOutputStream audio = new ByteArrayOutputStream();
+		final ByteArrayOutputStream response = new ByteArrayOutputStream();
+		response.write(("HTTP/1.0 200 OK\r\nicy-metaint: " + DEMUX_META_INTERVAL + "\r\n\r\n").getBytes("ISO-8859-1"));
+
+		for (int i = 0; i < DEMUX_BLOCKS; i++) {
+			byte[] block = new byte[DEMUX_META_INTERVAL];
+			random.nextBytes(block);
+			audio.write(block);
+			response.write(block);
+
+			byte[] text = ("StreamTitle='Song " + i + "';").getBytes("UTF-8");
+			byte[] metadata = new byte[(text.length + 15) / 16 * 16];
+			System.arraycopy(text, 0, metadata, 0, text.length);
+			response.write(metadata.length / 16);
+			response.write(metadata);
+		}
+
+		final ServerSocket server = new ServerSocket(0);
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Socket socket = server.accept();
+					InputStream in = socket.getInputStream();
+					while (in.read() != '\n' || in.read() != '\r') {}
+					// Unread request bytes would reset connection on close
+					in.read();
+
+					OutputStream out = socket.getOutputStream();
+					out.write(response.toByteArray());
+					socket.close();
+				} catch (IOException ignored) {}
+			}
+		}, "TestServer").start();
+
+		final List<String> titles = new ArrayList<String>();
+		IcyChannelReader reader = new IcyChannelReader("http://127.0.0.1:" + server.getLocalPort() + "/radiokpi",
+				new IcyChannelReader.MetadataListener() {
+					@Override
+					public void onMetadata(String key, String value) {
+						titles.add(value);
+					}
+				});
+		reader.setTimeouts(2000, 2000);
+		reader.setStaged(staged);
+
+		ByteArrayOutputStream received = new ByteArrayOutputStream();
+		try {
+			reader.connect();
+
+			ByteBuffer payload;
+			while ((payload = reader.read()) != null) {
+				byte[] data = new byte[payload.remaining()];
+				payload.get(data);
+				received.write(data);
+			}
+		} finally {
+			reader.close();
+			server.close();
+		}
+
+		assertTrue("Audio is corrupted", Arrays.equals(audio.toByteArray(), received.toByteArray()));
+		assertEquals(DEMUX_BLOCKS, titles.size());
+		assertEquals("Song " + (DEMUX_BLOCKS - 1), titles.get(DEMUX_BLOCKS - 1));
+	}
+
+	/**
+	 * Close reader at random moments while other thread reads it.
+	 * Reading must end with IOException or end of stream, never with unchecked exception.
+	 * Storage of closed readers must return to pool and be reused
+	 */
+	private void closeDuringRead(boolean staged) throws Exception {
+		long allocations = BufferPool.DIRECT.getPoolAllocations();
+
+		final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+		Thread.UncaughtExceptionHandler handler = new Thread.UncaughtExceptionHandler() {
+			@Override
+			public void uncaughtException(Thread thread, Throwable e) {
+				failures.add(e);
+			}
+		};
+
+		Random random = new Random(1);
+
+		for (int i = 0; i < CLOSES; i++) {
+			final IcyChannelReader reader = new IcyChannelReader(
+					"http://127.0.0.1:" + mServer.getLocalPort() + "/radiokpi", null);
+			reader.setTimeouts(2000, 2000);
+			reader.setStaged(staged);
+			reader.connect();
+
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (reader.read() != null) {}
+					} catch (IOException ignored) {}
+				}
+			}, "TestReader");
+			thread.setUncaughtExceptionHandler(handler);
+			thread.start();
+
+			Thread.sleep(random.nextInt(3));
+			reader.close();
+
+			thread.join(3000);
+			assertTrue("Reader thread isn't released", ! thread.isAlive());
+		}
+
+		// Network stage threads are finished after close too
+		Thread.sleep(100);
+		assertTrue("Reading failed: " + failures, failures.isEmpty());
+
+		assertEquals(0, BufferPool.DIRECT.getAcquired());
+		long allocated = BufferPool.DIRECT.getPoolAllocations() - allocations;
+		assertTrue("Storage allocated " + allocated + " times", allocated < CLOSES / 10);
+	}
+}
@@ -0,0 +1,388 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.components.player;
+
+import io.github.dector.rkpi.server.IcyServer;
+import io.github.dector.rkpi.server.ServerConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Player stack (reader, splicing source, jitter buffer, frame sync, song parsing) against local
+ * stand-in server: time to first audio, metadata delivery latency, splice after disconnect,
+ * stall detection and playback over jittery capped link
+ *
+ * @author dector
+ */
+public class IcyServerPlaybackTest {
+
+	private static final int KBPS = 128;
+	/** One second of audio between metadata blocks */
+	private static final int META_INTERVAL = KBPS * 1000 / 8;
+
+	private static final int PREBUFFER_MS = 1000;
+	private static final int LOW_WATER_MS = 300;
+
+	/** Max time from connect to first decodable frame in ms */
+	private static final int MAX_FIRST_AUDIO_MS = 1000;
+	/** Max time from song change to song info in ms: one metadata interval and some slack */
+	private static final int MAX_METADATA_MS = META_INTERVAL * 8 / KBPS + 1000;
+	/** Max time from disconnect to splice with new connection in ms */
+	private static final int MAX_RECONNECT_MS = 2000;
+
+	/** Watchdog timeout in stall test in ms */
+	private static final int STALL_TIMEOUT_MS = 1000;
+	/** Watchdog check period in stall test in ms */
+	private static final int STALL_CHECK_MS = 100;
+	/** Max time between stall start and last received data in ms (data in flight) */
+	private static final int STALL_SLACK_MS = 500;
+
+	/** Max random delay before every server write in ms */
+	private static final int JITTER_MS = 100;
+	/** Bandwidth cap: some headroom above bitrate */
+	private static final int CAP_KBPS = KBPS * 3 / 2;
+
+	/** Playback time to check for interruptions in ms */
+	private static final int PLAY_MS = 3000;
+	/** Max wait for any expected event in ms */
+	private static final int WAIT_MS = 5000;
+
+	private IcyServer mServer;
+	private final StateManager mStateManager = new StateManager();
+	/** Songs received by state observer */
+	private final BlockingQueue<SongInfo> mSongs = new LinkedBlockingQueue<SongInfo>();
+	/** Time of last received song (nanoTime) */
+	private volatile long mSongNanos;
+
+	private Client mClient;
+
+	@Before
+	public void setUp() throws IOException {
+		startServer(new ServerConfig());
+
+		mStateManager.addObserver(new PlayerStateObserver() {
+			@Override
+			public void onStateChanged(PlayerState newState, Object data) {
+				if (data instanceof SongInfo) {
+					mSongNanos = System.nanoTime();
+					mSongs.add((SongInfo) data);
+				}
+			}
+
+			@Override
+			public void onBufferChanged(int filledMs, int prebufferMs, boolean buffering) {}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		if (mClient != null) {
+			mClient.close();
+		}
+
+		mServer.stop();
+	}
+
+	@Test
+	public void timeToFirstAudio() throws Exception {
+		mClient = new Client(mServer.getUri());
+
+		assertTrue("No audio", mClient.awaitFirstFrame());
+		assertTrue("First audio after " + mClient.getFirstFrameMs() + "ms",
+				mClient.getFirstFrameMs() < MAX_FIRST_AUDIO_MS);
+	}
+
+	@Test
+	public void metadataLatency() throws Exception {
+		mClient = new Client(mServer.getUri());
+		assertTrue("No audio", mClient.awaitFirstFrame());
+
+		// Current song is sent in first metadata block (cp1251 encoded)
+		SongInfo song = mSongs.poll(WAIT_MS, TimeUnit.MILLISECONDS);
+		assertNotNull("No song info", song);
+		assertEquals("Тестовий виконавець", song.getArtist());
+
+		long changeNanos = System.nanoTime();
+		mServer.setSong("Artist", "Changed");
+
+		song = mSongs.poll(WAIT_MS, TimeUnit.MILLISECONDS);
+		assertNotNull("No changed song info", song);
+		assertEquals("Changed", song.getTitle());
+
+		long latencyMs = (mSongNanos - changeNanos) / 1000000L;
+		assertTrue("Song info after " + latencyMs + "ms", latencyMs < MAX_METADATA_MS);
+	}
+
+	@Test
+	public void reconnectAfterDisconnect() throws Exception {
+		mClient = new Client(mServer.getUri());
+		assertTrue("No audio", mClient.awaitFirstFrame());
+
+		long dropNanos = System.nanoTime();
+		mServer.drop();
+
+		// Splicing source reconnects by itself, played data continues from buffer
+		while (mClient.getSplices() == 0 && System.nanoTime() - dropNanos < WAIT_MS * 1000000L) {
+			Thread.sleep(10);
+		}
+
+		long reconnectMs = (System.nanoTime() - dropNanos) / 1000000L;
+		assertEquals(1, mClient.getSplices());
+		assertTrue("Spliced after " + reconnectMs + "ms", reconnectMs < MAX_RECONNECT_MS);
+
+		long frames = mClient.getFrames();
+		Thread.sleep(PLAY_MS);
+
+		assertTrue("Playback ended", ! mClient.isEnded());
+		assertTrue("No audio after splice", mClient.getFrames() > frames);
+		assertEquals("Underruns", 0, mClient.getUnderruns());
+	}
+
+	@Test
+	public void stallIsDetected() throws Exception {
+		mClient = new Client(mServer.getUri());
+		assertTrue("No audio", mClient.awaitFirstFrame());
+
+		StallWatchdog watchdog = new StallWatchdog(STALL_TIMEOUT_MS);
+		watchdog.restart(getTimeMs());
+
+		// Paced stream isn't a stall
+		long end = getTimeMs() + STALL_TIMEOUT_MS * 2;
+		while (getTimeMs() < end) {
+			assertEquals("False stall", -1, watchdog.check(getTimeMs(), mClient.getReceivedBytes()));
+			Thread.sleep(STALL_CHECK_MS);
+		}
+
+		long stallTime = getTimeMs();
+		mServer.stall(STALL_TIMEOUT_MS * 3);
+
+		long stalledMs = -1;
+		while (stalledMs < 0 && getTimeMs() - stallTime < WAIT_MS) {
+			Thread.sleep(STALL_CHECK_MS);
+			stalledMs = watchdog.check(getTimeMs(), mClient.getReceivedBytes());
+		}
+
+		long detectMs = getTimeMs() - stallTime;
+		assertTrue("Stall isn't detected", stalledMs >= STALL_TIMEOUT_MS);
+		assertTrue("Stall detected after " + detectMs + "ms",
+				detectMs <= STALL_TIMEOUT_MS + STALL_CHECK_MS + STALL_SLACK_MS);
+	}
+
+	@Test
+	public void jitteryCappedLinkPlaysWithoutUnderruns() throws Exception {
+		startServer(new ServerConfig().setJitterMs(JITTER_MS).setCapKbps(CAP_KBPS));
+
+		mClient = new Client(mServer.getUri());
+		assertTrue("No audio", mClient.awaitFirstFrame());
+
+		// Burst is limited by cap: first audio comes from fast start, not from prebuffer
+		assertTrue("First audio after " + mClient.getFirstFrameMs() + "ms",
+				mClient.getFirstFrameMs() < MAX_FIRST_AUDIO_MS);
+
+		Thread.sleep(PLAY_MS);
+
+		assertTrue("Playback ended", ! mClient.isEnded());
+		assertEquals("Underruns", 0, mClient.getUnderruns());
+	}
+
+	private void startServer(ServerConfig config) throws IOException {
+		if (mServer != null) {
+			mServer.stop();
+		}
+
+		mServer = new IcyServer(config.setPort(0).setKbps(KBPS).setMetaInterval(META_INTERVAL));
+		mServer.start();
+	}
+
+	private static long getTimeMs() {
+		return System.nanoTime() / 1000000L;
+	}
+
+	/**
+	 * Connection wired like in player: reader (spliced on failure) feeds jitter buffer,
+	 * frames are synced and consumed in real time by playing thread, songs are parsed
+	 * into state manager
+	 */
+	private class Client implements IcyChannelReader.MetadataListener, JitterBuffer.Listener {
+
+		private final StreamUrlParser mParser = new StreamUrlParser();
+		private final String mUri;
+		private final SplicingSource mSource;
+		private final JitterBuffer mBuffer;
+
+		private final long mStartNanos = System.nanoTime();
+		private volatile long mFirstFrameNanos;
+		private volatile long mFrames;
+		private final CountDownLatch mFirstFrame = new CountDownLatch(1);
+		private final CountDownLatch mEnd = new CountDownLatch(1);
+
+		/** True if playback was started (buffer isn't buffering) */
+		private boolean mStarted;
+		/** Buffering after playback start */
+		private int mUnderruns;
+
+		Client(String uri) throws IOException {
+			mUri = uri;
+			mSource = new SplicingSource(connect(), new SplicingSource.Connector() {
+				@Override
+				public JitterBuffer.Source connect() throws IOException {
+					return Client.this.connect();
+				}
+			});
+
+			mBuffer = new JitterBuffer(KBPS * 1000 / 8, JitterBuffer.DEFAULT_CAPACITY_MS, PREBUFFER_MS, LOW_WATER_MS);
+			mBuffer.setFastStartFrames(JitterBuffer.DEFAULT_FAST_START_FRAMES);
+			mBuffer.setListener(this);
+
+			final FrameSyncInputStream frameSync = new FrameSyncInputStream(mBuffer.getInputStream());
+			frameSync.setFrameListener(new FrameSyncInputStream.FrameListener() {
+				@Override
+				public void onFrame(byte[] data, int offset, int length, long position) {
+					mFrames++;
+
+					if (mFirstFrameNanos == 0) {
+						mFirstFrameNanos = System.nanoTime();
+						mFirstFrame.countDown();
+					}
+				}
+			});
+
+			mBuffer.start(mSource);
+
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					play(frameSync);
+				}
+			}, "TestPlayer").start();
+		}
+
+		private IcyChannelReader connect() throws IOException {
+			IcyChannelReader reader = new IcyChannelReader(mUri, this);
+			reader.setTimeouts(2000, 2000);
+			reader.setStaged(true);
+
+			try {
+				reader.connect();
+			} catch (IOException e) {
+				reader.close();
+				throw e;
+			}
+
+			return reader;
+		}
+
+		/**
+		 * Consume data at stream bitrate, like audio output
+		 */
+		private void play(InputStream stream) {
+			byte[] data = new byte[4096];
+			long startNanos = 0;
+			long played = 0;
+			int count;
+
+			try {
+				while ((count = stream.read(data, 0, data.length)) >= 0) {
+					if (startNanos == 0) {
+						startNanos = System.nanoTime();
+					}
+
+					played += count;
+
+					long aheadMs = played * 8 / KBPS - (System.nanoTime() - startNanos) / 1000000L;
+					if (aheadMs > 0) {
+						Thread.sleep(aheadMs);
+					}
+				}
+			} catch (IOException ignored) {
+			} catch (InterruptedException ignored) {
+			} finally {
+				mEnd.countDown();
+			}
+		}
+
+		@Override
+		public void onMetadata(String key, String value) {
+			if (StreamUrlParser.KEY.equals(key)) {
+				mStateManager.setState(PlayerState.PLAYING, mParser.parse(value));
+			}
+		}
+
+		@Override
+		public synchronized void onBufferChanged(JitterBuffer buffer) {
+			boolean buffering = buffer.isBuffering();
+
+			if (mStarted && buffering) {
+				mUnderruns++;
+			}
+
+			mStarted = ! buffering;
+		}
+
+		boolean awaitFirstFrame() throws InterruptedException {
+			return mFirstFrame.await(WAIT_MS, TimeUnit.MILLISECONDS);
+		}
+
+		boolean isEnded() {
+			return mEnd.getCount() == 0;
+		}
+
+		long getFirstFrameMs() {
+			return (mFirstFrameNanos - mStartNanos) / 1000000L;
+		}
+
+		long getFrames() {
+			return mFrames;
+		}
+
+		long getReceivedBytes() {
+			return mBuffer.getReceivedBytes();
+		}
+
+		int getSplices() {
+			return mSource.getSplices();
+		}
+
+		synchronized int getUnderruns() {
+			return mUnderruns;
+		}
+
+		void close() {
+			mBuffer.close();
+		}
+	}
+}
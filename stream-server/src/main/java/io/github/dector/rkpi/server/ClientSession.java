@@ -0,0 +1,262 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Random;
+
+/**
+ * Single client connection. Sends stream with ICY metadata
+ * and induces configured network problems: jitter, stalls, disconnects and bandwidth cap
+ *
+ * @author dector
+ */
+public class ClientSession implements Runnable {
+
+	/** Max data written at once */
+	private static final int WRITE_SIZE = 4096;
+
+	private final Socket mSocket;
+	private final LiveStream mLive;
+	private final ServerConfig mConfig;
+	private final int mId;
+	private final Random mRandom = new Random();
+
+	/** Manual stall end (nanoTime), 0 if not stalled */
+	private volatile long mStallUntilNanos;
+	private volatile boolean mClosed;
+
+	/**
+	 * Create session for accepted socket
+	 *
+	 * @param socket client socket
+	 * @param live stream to send
+	 * @param config server config
+	 * @param id session id for logging
+	 */
+	public ClientSession(Socket socket, LiveStream live, ServerConfig config, int id) {
+		mSocket = socket;
+		mLive = live;
+		mConfig = config;
+		mId = id;
+	}
+
+	/**
+	 * Stop sending data for some time, connection stays opened
+	 *
+	 * @param durationMs stall duration in ms
+	 */
+	public void stall(int durationMs) {
+		mStallUntilNanos = System.nanoTime() + durationMs * 1000000L;
+	}
+
+	/**
+	 * Close connection abruptly
+	 */
+	public void drop() {
+		mClosed = true;
+
+		try {
+			mSocket.close();
+		} catch (IOException ignored) {}
+	}
+
+	/**
+	 * Returns true if connection is closed
+	 *
+	 * @return is closed
+	 */
+	public boolean isClosed() {
+		return mClosed;
+	}
+
+	@Override
+	public void run() {
+		try {
+			serve();
+		} catch (IOException e) {
+			if (! mClosed) {
+				log("Disconnected: " + e.getMessage());
+			}
+		} catch (InterruptedException e) {
+			log("Interrupted");
+		} finally {
+			drop();
+		}
+	}
+
+	private void serve() throws IOException, InterruptedException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(mSocket.getInputStream(), "ISO-8859-1"));
+
+		String requestLine = in.readLine();
+		if (requestLine == null) return;
+
+		boolean metadataRequested = false;
+		String header;
+		while ((header = in.readLine()) != null && header.length() > 0) {
+			int colon = header.indexOf(':');
+
+			if (colon > 0 && header.substring(0, colon).trim().equalsIgnoreCase("Icy-MetaData")) {
+				metadataRequested = header.substring(colon + 1).trim().equals("1");
+			}
+		}
+
+		OutputStream out = mSocket.getOutputStream();
+		String[] request = requestLine.split(" ");
+
+		if (request.length < 2 || ! request[1].equals(mConfig.mount)) {
+			log("Not found: " + requestLine);
+			out.write("HTTP/1.0 404 Not Found\r\n\r\n".getBytes("ISO-8859-1"));
+			return;
+		}
+
+		int metaInterval = metadataRequested ? mConfig.metaInterval : 0;
+
+		StringBuilder response = new StringBuilder("HTTP/1.0 200 OK\r\n")
+				.append("Content-Type: audio/mpeg\r\n")
+				.append("icy-name: Radio KPI (test)\r\n")
+				.append("icy-br: ").append(mConfig.kbps).append("\r\n");
+		if (metaInterval > 0) {
+			response.append("icy-metaint: ").append(metaInterval).append("\r\n");
+		}
+		response.append("\r\n");
+
+		out.write(response.toString().getBytes("ISO-8859-1"));
+		out.flush();
+
+		log("Connected" + (metaInterval > 0 ? ", metaint " + metaInterval : ""));
+		send(out, metaInterval);
+	}
+
+	/**
+	 * Send stream until client disconnects or is dropped
+	 *
+	 * @param out client stream
+	 * @param metaInterval metadata interval, 0 if metadata isn't sent
+	 */
+	private void send(OutputStream out, int metaInterval) throws IOException, InterruptedException {
+		byte[] data = new byte[WRITE_SIZE];
+		long position = mLive.getBurstStart();
+		long sent = 0;
+		int untilMetadata = metaInterval;
+		int sentSongVersion = 0;
+
+		long startNanos = System.nanoTime();
+		long nextStallNanos = startNanos + mConfig.stallPeriodS * 1000000000L;
+		long disconnectNanos = startNanos + mConfig.disconnectPeriodS * 1000000000L;
+		long capBytesPerSecond = mConfig.capKbps * 1000L / 8;
+
+		while (! mClosed) {
+			long now = System.nanoTime();
+
+			if (mConfig.disconnectPeriodS > 0 && now >= disconnectNanos) {
+				log("Scheduled disconnect");
+				return;
+			}
+
+			if (mConfig.stallPeriodS > 0 && now >= nextStallNanos) {
+				log("Stalling for " + mConfig.stallMs + "ms");
+				Thread.sleep(mConfig.stallMs);
+				nextStallNanos = System.nanoTime() + mConfig.stallPeriodS * 1000000000L;
+			}
+
+			long stallNanos = mStallUntilNanos - System.nanoTime();
+			if (stallNanos > 0) {
+				Thread.sleep(stallNanos / 1000000L);
+				mStallUntilNanos = 0;
+			}
+
+			if (mConfig.jitterMs > 0) {
+				Thread.sleep(mRandom.nextInt(mConfig.jitterMs + 1));
+			}
+
+			int length = metaInterval > 0 ? Math.min(WRITE_SIZE, untilMetadata) : WRITE_SIZE;
+			int count = mLive.read(position, data, 0, length);
+
+			if (count < 0) {
+				log("Lagged behind stream, dropping");
+				return;
+			}
+
+			out.write(data, 0, count);
+			position += count;
+			sent += count;
+
+			if (metaInterval > 0) {
+				untilMetadata -= count;
+
+				if (untilMetadata == 0) {
+					sentSongVersion = writeMetadata(out, sentSongVersion);
+					untilMetadata = metaInterval;
+				}
+			}
+
+			if (capBytesPerSecond > 0) {
+				// Don't send faster than cap allows since connection start
+				long expectedNanos = startNanos + sent * 1000000000L / capBytesPerSecond;
+				long aheadNanos = expectedNanos - System.nanoTime();
+
+				if (aheadNanos > 0) {
+					Thread.sleep(aheadNanos / 1000000L, (int) (aheadNanos % 1000000L));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write metadata block: song if it's changed since last block or empty block otherwise
+	 *
+	 * @param out client stream
+	 * @param sentSongVersion version of last sent song
+	 * @return version of sent song
+	 */
+	private int writeMetadata(OutputStream out, int sentSongVersion) throws IOException {
+		int version = mLive.getSongVersion();
+
+		if (version == sentSongVersion) {
+			out.write(0);
+			return sentSongVersion;
+		}
+
+		byte[] metadata = mLive.getMetadata().getBytes("windows-1251");
+		int blocks = (metadata.length + 15) / 16;
+		byte[] block = new byte[1 + blocks * 16];
+		block[0] = (byte) blocks;
+		System.arraycopy(metadata, 0, block, 1, metadata.length);
+		out.write(block);
+
+		long delayMs = (System.nanoTime() - mLive.getSongChangedNanos()) / 1000000L;
+		log("Sent song " + version + " after " + delayMs + "ms");
+
+		return version;
+	}
+
+	private void log(String message) {
+		IcyServer.log("[" + mId + "] " + message);
+	}
+}
@@ -0,0 +1,286 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.server;
+
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Local stand-in for Icecast server, used for end-to-end latency and resilience tests.
+ * Serves silent MP3 stream with ICY metadata and induced network problems (see ServerConfig).
+ *
+ * Commands from stdin:
+ * <pre>
+ * song Artist - Title   change current song
+ * stall ms              stall all clients
+ * drop                  disconnect all clients
+ * quit                  stop server
+ * </pre>
+ *
+ * @author dector
+ */
+public class IcyServer {
+
+	/** Kept stream data in seconds */
+	private static final int RING_SECONDS = 30;
+
+	/** Log output, in the same charset as stdin commands */
+	private static final PrintStream sOut;
+
+	static {
+		try {
+			sOut = new PrintStream(new FileOutputStream(FileDescriptor.out), true, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private final ServerConfig mConfig;
+	private final LiveStream mLive;
+	private final List<ClientSession> mSessions = new CopyOnWriteArrayList<ClientSession>();
+
+	private ServerSocket mServerSocket;
+	private volatile boolean mStopped;
+	private int mSongCounter;
+
+	public IcyServer(ServerConfig config) {
+		mConfig = config;
+		mLive = new LiveStream(config.kbps, config.burstBytes, config.kbps * 1000 / 8 * RING_SECONDS);
+	}
+
+	/**
+	 * Start stream and accept clients in background
+	 *
+	 * @throws IOException if port can't be opened
+	 */
+	public void start() throws IOException {
+		mServerSocket = new ServerSocket(mConfig.port);
+
+		nextSong();
+		mLive.start();
+
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		}, "IcyAccept").start();
+
+		if (mConfig.songPeriodS > 0) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					rotateSongs();
+				}
+			}, "IcySongs").start();
+		}
+
+		log("Serving http://localhost:" + getPort() + mConfig.mount + " (" + mConfig + ")");
+	}
+
+	/**
+	 * Returns listened port. Valid after start()
+	 *
+	 * @return port (actual one, if port 0 was configured)
+	 */
+	public int getPort() {
+		return mServerSocket.getLocalPort();
+	}
+
+	/**
+	 * Returns stream uri. Valid after start()
+	 *
+	 * @return stream uri
+	 */
+	public String getUri() {
+		return "http://127.0.0.1:" + getPort() + mConfig.mount;
+	}
+
+	/**
+	 * Stop server and disconnect all clients
+	 */
+	public void stop() {
+		mStopped = true;
+		mLive.stop();
+
+		try {
+			mServerSocket.close();
+		} catch (IOException ignored) {}
+
+		drop();
+	}
+
+	/**
+	 * Change current song
+	 *
+	 * @param artist song artist
+	 * @param title song title
+	 */
+	public void setSong(String artist, String title) {
+		mLive.setSong(artist, title);
+		log("Song: " + artist + " - " + title);
+	}
+
+	/**
+	 * Stall all connected clients
+	 *
+	 * @param durationMs stall duration in ms
+	 */
+	public void stall(int durationMs) {
+		for (ClientSession session : mSessions) {
+			session.stall(durationMs);
+		}
+	}
+
+	/**
+	 * Disconnect all connected clients
+	 */
+	public void drop() {
+		for (ClientSession session : mSessions) {
+			session.drop();
+		}
+	}
+
+	private void nextSong() {
+		mSongCounter++;
+		setSong("Тестовий виконавець", "Пісня " + mSongCounter);
+	}
+
+	private void accept() {
+		int id = 0;
+
+		while (! mStopped) {
+			try {
+				Socket socket = mServerSocket.accept();
+				socket.setTcpNoDelay(true);
+
+				ClientSession session = new ClientSession(socket, mLive, mConfig, ++id);
+
+				for (ClientSession old : mSessions) {
+					if (old.isClosed()) {
+						mSessions.remove(old);
+					}
+				}
+				mSessions.add(session);
+
+				new Thread(session, "IcyClient-" + id).start();
+			} catch (IOException e) {
+				if (! mStopped) {
+					log("Accept failed: " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	private void rotateSongs() {
+		while (! mStopped) {
+			try {
+				Thread.sleep(mConfig.songPeriodS * 1000L);
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			if (! mStopped) {
+				nextSong();
+			}
+		}
+	}
+
+	/**
+	 * Execute stdin command
+	 *
+	 * @param line command line
+	 * @return false if server should be stopped
+	 */
+	private boolean execute(String line) {
+		line = line.trim();
+
+		if (line.equals("quit")) {
+			return false;
+		} else if (line.equals("drop")) {
+			drop();
+		} else if (line.startsWith("stall ")) {
+			stall(Integer.parseInt(line.substring("stall ".length()).trim()));
+		} else if (line.startsWith("song ")) {
+			String song = line.substring("song ".length());
+			int separator = song.indexOf(" - ");
+
+			if (separator < 0) {
+				setSong("", song.trim());
+			} else {
+				setSong(song.substring(0, separator).trim(), song.substring(separator + 3).trim());
+			}
+		} else if (line.length() > 0) {
+			log("Unknown command: " + line);
+		}
+
+		return true;
+	}
+
+	static void log(String message) {
+		String time = new SimpleDateFormat("HH:mm:ss.SSS").format(new Date());
+		sOut.println(time + " " + message);
+	}
+
+	public static void main(String[] args) throws IOException {
+		ServerConfig config;
+
+		try {
+			config = ServerConfig.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Options: --port --mount --kbps --metaint --burst --song-period-s"
+					+ " --jitter-ms --stall-period-s --stall-ms --disconnect-period-s --cap-kbps");
+			System.exit(1);
+			return;
+		}
+
+		IcyServer server = new IcyServer(config);
+		server.start();
+
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+		String line;
+
+		while ((line = in.readLine()) != null) {
+			try {
+				if (! server.execute(line)) break;
+			} catch (NumberFormatException e) {
+				log("Bad number: " + e.getMessage());
+			}
+		}
+
+		server.stop();
+	}
+}
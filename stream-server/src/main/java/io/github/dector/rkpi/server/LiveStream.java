@@ -0,0 +1,221 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.server;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+/**
+ * Live stream shared by all clients: MP3 frames are generated in real time
+ * into ring buffer. New client starts from burst (recent data) like Icecast does,
+ * so all clients receive the same bytes at the same stream positions.
+ *
+ * Current song is sent to clients as ICY metadata
+ *
+ * @author dector
+ */
+public class LiveStream implements Runnable {
+
+	private final Mp3FrameGenerator mGenerator;
+	private final byte[] mRing;
+	private final int mBurstBytes;
+	/** Start positions of recent frames (ring), so burst starts from frame */
+	private final long[] mFrameStarts;
+	private int mFrameCount;
+
+	/** Position of next generated byte */
+	private long mLive;
+	/** Song change counter */
+	private int mSongVersion;
+	private String mArtist = "";
+	private String mTitle = "";
+	/** Time of last song change (nanoTime) */
+	private long mSongChangedNanos;
+
+	private volatile boolean mStopped;
+
+	/**
+	 * Create new stream. Call start() to begin generating
+	 *
+	 * @param kbps stream bitrate
+	 * @param burstBytes data sent to new client at once
+	 * @param ringBytes kept data, clients lagging behind it are dropped
+	 */
+	public LiveStream(int kbps, int burstBytes, int ringBytes) {
+		mGenerator = new Mp3FrameGenerator(kbps);
+		mBurstBytes = burstBytes;
+		mRing = new byte[Math.max(ringBytes, burstBytes + mGenerator.getMaxFrameLength())];
+		mFrameStarts = new long[burstBytes / mGenerator.getMinFrameLength() + 2];
+	}
+
+	/**
+	 * Start generating thread
+	 */
+	public void start() {
+		new Thread(this, "LiveStream").start();
+	}
+
+	/**
+	 * Stop generating, waiting clients are released
+	 */
+	public synchronized void stop() {
+		mStopped = true;
+		notifyAll();
+	}
+
+	/**
+	 * Change current song, clients receive it at next metadata block
+	 *
+	 * @param artist song artist
+	 * @param title song title
+	 */
+	public synchronized void setSong(String artist, String title) {
+		mArtist = artist;
+		mTitle = title;
+		mSongVersion++;
+		mSongChangedNanos = System.nanoTime();
+	}
+
+	/**
+	 * Returns song change counter
+	 *
+	 * @return song version
+	 */
+	public synchronized int getSongVersion() {
+		return mSongVersion;
+	}
+
+	/**
+	 * Returns time of last song change
+	 *
+	 * @return nanoTime of song change
+	 */
+	public synchronized long getSongChangedNanos() {
+		return mSongChangedNanos;
+	}
+
+	/**
+	 * Returns ICY metadata of current song: StreamTitle and StreamUrl
+	 * with Windows-1251 url-encoded artist and title (as Radio KPI server sends)
+	 *
+	 * @return metadata string
+	 */
+	public synchronized String getMetadata() {
+		try {
+			return "StreamTitle='" + mArtist + " - " + mTitle + "';StreamUrl='&artist="
+					+ URLEncoder.encode(mArtist, "windows-1251") + "&title="
+					+ URLEncoder.encode(mTitle, "windows-1251") + "';";
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns start position for new client: first frame in burst
+	 *
+	 * @return burst start position
+	 */
+	public synchronized long getBurstStart() {
+		long start = mLive;
+
+		for (int i = 1; i <= Math.min(mFrameCount, mFrameStarts.length); i++) {
+			long frameStart = mFrameStarts[(mFrameCount - i) % mFrameStarts.length];
+			if (frameStart < mLive - mBurstBytes) break;
+
+			start = frameStart;
+		}
+
+		return start;
+	}
+
+	/**
+	 * Read stream data. Waits for new data at live edge
+	 *
+	 * @param position stream position
+	 * @param data destination array
+	 * @param offset offset in destination array
+	 * @param length max data length
+	 * @return read bytes count or -1 if position was overwritten (client is too slow) or stream stopped
+	 * @throws InterruptedException if thread was interrupted
+	 */
+	public synchronized int read(long position, byte[] data, int offset, int length) throws InterruptedException {
+		while (position >= mLive && ! mStopped) {
+			wait();
+		}
+
+		if (mStopped || position < mLive - mRing.length) {
+			return -1;
+		}
+
+		int ringPosition = (int) (position % mRing.length);
+		int count = (int) Math.min(Math.min(length, mLive - position), mRing.length - ringPosition);
+		System.arraycopy(mRing, ringPosition, data, offset, count);
+
+		return count;
+	}
+
+	private synchronized long getLive() {
+		return mLive;
+	}
+
+	private synchronized void append(byte[] frame, int length) {
+		mFrameStarts[mFrameCount % mFrameStarts.length] = mLive;
+		mFrameCount++;
+
+		for (int i = 0; i < length; i++) {
+			mRing[(int) ((mLive + i) % mRing.length)] = frame[i];
+		}
+
+		mLive += length;
+		notifyAll();
+	}
+
+	@Override
+	public void run() {
+		byte[] frame = new byte[mGenerator.getMaxFrameLength()];
+		long frameNanos = Mp3FrameGenerator.getFrameDurationNanos();
+
+		// Station is on air already: first clients get full burst
+		while (getLive() < mBurstBytes) {
+			append(frame, mGenerator.nextFrame(frame, 0));
+		}
+
+		long deadline = System.nanoTime();
+
+		while (! mStopped) {
+			append(frame, mGenerator.nextFrame(frame, 0));
+
+			deadline += frameNanos;
+			long sleepNanos = deadline - System.nanoTime();
+
+			if (sleepNanos > 0) {
+				try {
+					Thread.sleep(sleepNanos / 1000000L, (int) (sleepNanos % 1000000L));
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.server;
+
+/**
+ * Generates valid silent MPEG 1 Layer III frames (44100 Hz, stereo) with exact
+ * average bitrate: padding slot is added to frames like real encoders do.
+ *
+ * Side info is zero, so decoders produce silence
+ *
+ * @author dector
+ */
+public class Mp3FrameGenerator {
+
+	/** Sample rate of generated frames */
+	public static final int SAMPLE_RATE = 44100;
+	/** Samples per Layer III frame */
+	public static final int SAMPLES_PER_FRAME = 1152;
+
+	/** MPEG 1 Layer III bitrates (kbps) by header index */
+	private static final int[] BITRATES = { 0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320 };
+
+	private final int mBitrateIndex;
+	private final int mKbps;
+
+	/** Accumulated fractional frame length, in 1/SAMPLE_RATE bytes */
+	private int mRemainder;
+
+	/**
+	 * Create new generator
+	 *
+	 * @param kbps bitrate, one of MPEG 1 Layer III bitrates
+	 * @throws IllegalArgumentException if bitrate isn't supported
+	 */
+	public Mp3FrameGenerator(int kbps) {
+		int index = -1;
+
+		for (int i = 1; i < BITRATES.length; i++) {
+			if (BITRATES[i] == kbps) {
+				index = i;
+			}
+		}
+
+		if (index < 0) {
+			throw new IllegalArgumentException("Unsupported MP3 bitrate: " + kbps);
+		}
+
+		mBitrateIndex = index;
+		mKbps = kbps;
+	}
+
+	/**
+	 * Returns frame duration
+	 *
+	 * @return frame duration in ns
+	 */
+	public static long getFrameDurationNanos() {
+		return SAMPLES_PER_FRAME * 1000000000L / SAMPLE_RATE;
+	}
+
+	/**
+	 * Returns min frame length
+	 *
+	 * @return min frame length in bytes
+	 */
+	public int getMinFrameLength() {
+		return 144000 * mKbps / SAMPLE_RATE;
+	}
+
+	/**
+	 * Returns max frame length
+	 *
+	 * @return max frame length in bytes
+	 */
+	public int getMaxFrameLength() {
+		return 144000 * mKbps / SAMPLE_RATE + 1;
+	}
+
+	/**
+	 * Write next frame
+	 *
+	 * @param data destination array, at least getMaxFrameLength() bytes from offset
+	 * @param offset frame offset
+	 * @return frame length
+	 */
+	public int nextFrame(byte[] data, int offset) {
+		int length = 144000 * mKbps / SAMPLE_RATE;
+
+		mRemainder += 144000 * mKbps % SAMPLE_RATE;
+
+		int padding = 0;
+		if (mRemainder >= SAMPLE_RATE) {
+			mRemainder -= SAMPLE_RATE;
+			padding = 1;
+		}
+
+		length += padding;
+
+		data[offset] = (byte) 0xff;
+		// MPEG 1, Layer III, no CRC
+		data[offset + 1] = (byte) 0xfb;
+		// Bitrate, 44100 Hz, padding
+		data[offset + 2] = (byte) ((mBitrateIndex << 4) | (padding << 1));
+		// Stereo, no emphasis
+		data[offset + 3] = 0;
+
+		for (int i = 4; i < length; i++) {
+			data[offset + i] = 0;
+		}
+
+		return length;
+	}
+}
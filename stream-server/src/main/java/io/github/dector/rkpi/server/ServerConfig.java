@@ -0,0 +1,165 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 dector
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.github.dector.rkpi.server;
+
+/**
+ * Stream server settings: stream format and induced network problems.
+ * Setters return config, so they can be chained
+ *
+ * @author dector
+ */
+public class ServerConfig {
+
+	int port = 8000;
+	String mount = "/radiokpi";
+	int kbps = 128;
+	/** Audio bytes between metadata blocks, 0 to disable metadata */
+	int metaInterval = 16000;
+	/** Data sent to new client at once */
+	int burstBytes = 65536;
+	/** Song change period in seconds, 0 to change only by command */
+	int songPeriodS;
+
+	/** Max random delay before every write in ms */
+	int jitterMs;
+	/** Stall period in seconds, 0 to disable */
+	int stallPeriodS;
+	/** Stall duration in ms */
+	int stallMs = 5000;
+	/** Time before client is disconnected in seconds, 0 to disable */
+	int disconnectPeriodS;
+	/** Bandwidth cap per client in kbps, 0 to disable */
+	int capKbps;
+
+	public ServerConfig setPort(int port) {
+		this.port = port;
+		return this;
+	}
+
+	public ServerConfig setMount(String mount) {
+		this.mount = mount;
+		return this;
+	}
+
+	public ServerConfig setKbps(int kbps) {
+		this.kbps = kbps;
+		return this;
+	}
+
+	public ServerConfig setMetaInterval(int metaInterval) {
+		this.metaInterval = metaInterval;
+		return this;
+	}
+
+	public ServerConfig setBurstBytes(int burstBytes) {
+		this.burstBytes = burstBytes;
+		return this;
+	}
+
+	public ServerConfig setSongPeriodS(int songPeriodS) {
+		this.songPeriodS = songPeriodS;
+		return this;
+	}
+
+	public ServerConfig setJitterMs(int jitterMs) {
+		this.jitterMs = jitterMs;
+		return this;
+	}
+
+	public ServerConfig setStall(int periodS, int durationMs) {
+		this.stallPeriodS = periodS;
+		this.stallMs = durationMs;
+		return this;
+	}
+
+	public ServerConfig setDisconnectPeriodS(int disconnectPeriodS) {
+		this.disconnectPeriodS = disconnectPeriodS;
+		return this;
+	}
+
+	public ServerConfig setCapKbps(int capKbps) {
+		this.capKbps = capKbps;
+		return this;
+	}
+
+	/**
+	 * Parse command line options ("--name value")
+	 *
+	 * @param args command line arguments
+	 * @return parsed config
+	 * @throws IllegalArgumentException if option is unknown or has no value
+	 */
+	public static ServerConfig parse(String[] args) {
+		ServerConfig config = new ServerConfig();
+
+		for (int i = 0; i < args.length; i += 2) {
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("No value for " + args[i]);
+			}
+
+			String name = args[i];
+			String value = args[i + 1];
+
+			if (name.equals("--mount")) {
+				config.setMount(value);
+				continue;
+			}
+
+			int number = Integer.parseInt(value);
+
+			if (name.equals("--port")) {
+				config.setPort(number);
+			} else if (name.equals("--kbps")) {
+				config.setKbps(number);
+			} else if (name.equals("--metaint")) {
+				config.setMetaInterval(number);
+			} else if (name.equals("--burst")) {
+				config.setBurstBytes(number);
+			} else if (name.equals("--song-period-s")) {
+				config.setSongPeriodS(number);
+			} else if (name.equals("--jitter-ms")) {
+				config.setJitterMs(number);
+			} else if (name.equals("--stall-period-s")) {
+				config.stallPeriodS = number;
+			} else if (name.equals("--stall-ms")) {
+				config.stallMs = number;
+			} else if (name.equals("--disconnect-period-s")) {
+				config.setDisconnectPeriodS(number);
+			} else if (name.equals("--cap-kbps")) {
+				config.setCapKbps(number);
+			} else {
+				throw new IllegalArgumentException("Unknown option " + name);
+			}
+		}
+
+		return config;
+	}
+
+	@Override
+	public String toString() {
+		return mount + " " + kbps + "kbps, metaint=" + metaInterval + ", burst=" + burstBytes
+				+ ", jitter=" + jitterMs + "ms, stall=" + stallMs + "ms every " + stallPeriodS
+				+ "s, disconnect every " + disconnectPeriodS + "s, cap=" + capKbps + "kbps";
+	}
+}